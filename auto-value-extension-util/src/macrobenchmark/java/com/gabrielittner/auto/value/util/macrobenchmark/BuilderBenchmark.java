@@ -0,0 +1,150 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.gabrielittner.auto.value.util.CompilationClassLoader;
+import com.gabrielittner.auto.value.util.extensions.BuilderExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compares building values with the builder that AutoValue generates for an
+ * {@code @AutoValue.Builder} to a recyclable builder from
+ * {@link com.gabrielittner.auto.value.util.BuilderUtil} that is reset for every value.
+ *
+ * <pre>
+ * BuilderBenchmark [--records 1000000] [--iterations 10]
+ * </pre>
+ *
+ * Prints the median time and the allocated bytes per built value for both builders.
+ */
+public final class BuilderBenchmark {
+
+    private static final JavaFileObject RECORD = JavaFileObjects.forSourceString("bench.Record", ""
+            + "package bench;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import java.util.List;\n"
+            + "@AutoValue public abstract class Record {\n"
+            + "  public abstract int id();\n"
+            + "  public abstract long timestamp();\n"
+            + "  public abstract double value();\n"
+            + "  public abstract boolean valid();\n"
+            + "  public abstract String name();\n"
+            + "  public abstract List<String> tags();\n"
+            + "  @AutoValue.Builder public abstract static class Builder {\n"
+            + "    public abstract Builder setId(int id);\n"
+            + "    public abstract Builder setTimestamp(long timestamp);\n"
+            + "    public abstract Builder setValue(double value);\n"
+            + "    public abstract Builder setValid(boolean valid);\n"
+            + "    public abstract Builder setName(String name);\n"
+            + "    public abstract Builder setTags(List<String> tags);\n"
+            + "    public abstract Record build();\n"
+            + "  }\n"
+            + "}\n");
+
+    // the loops are compiled together with the record so that they call the builders directly,
+    // publishing each record keeps the JIT from removing its allocation
+    private static final JavaFileObject DRIVER = JavaFileObjects.forSourceString("bench.Driver", ""
+            + "package bench;\n"
+            + "import java.util.Collections;\n"
+            + "import java.util.List;\n"
+            + "public final class Driver {\n"
+            + "  private static final List<String> TAGS = Collections.singletonList(\"tag\");\n"
+            + "  public static Record last;\n"
+            + "  public static long standard(int records) {\n"
+            + "    long sum = 0;\n"
+            + "    for (int i = 0; i < records; i++) {\n"
+            + "      Record record = new $AutoValue_Record.Builder()\n"
+            + "          .setId(i).setTimestamp(i * 31L).setValue(i * 0.5).setValid(true)\n"
+            + "          .setName(\"name\").setTags(TAGS).build();\n"
+            + "      sum += record.id();\n"
+            + "      last = record;\n"
+            + "    }\n"
+            + "    return sum;\n"
+            + "  }\n"
+            + "  public static long recyclable(int records) {\n"
+            + "    AutoValue_Record.Builder builder = new AutoValue_Record.Builder();\n"
+            + "    long sum = 0;\n"
+            + "    for (int i = 0; i < records; i++) {\n"
+            + "      Record record = builder.reset()\n"
+            + "          .setId(i).setTimestamp(i * 31L).setValue(i * 0.5).setValid(true)\n"
+            + "          .setName(\"name\").setTags(TAGS).build();\n"
+            + "      sum += record.id();\n"
+            + "      last = record;\n"
+            + "    }\n"
+            + "    return sum;\n"
+            + "  }\n"
+            + "}\n");
+
+    public static void main(String[] args) throws Exception {
+        int records = 1000000;
+        int iterations = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--records":
+                    records = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        AutoValueExtension extension = new BuilderExtension(true);
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(RECORD, DRIVER);
+        if (compilation.status() != Compilation.Status.SUCCESS) {
+            throw new IllegalStateException("Compilation failed: " + compilation.errors());
+        }
+        Class<?> driver = new CompilationClassLoader(compilation).loadClass("bench.Driver");
+        Method standard = driver.getMethod("standard", int.class);
+        Method recyclable = driver.getMethod("recyclable", int.class);
+
+        // warm up both loops before measuring
+        for (int i = 0; i < 5; i++) {
+            standard.invoke(null, records);
+            recyclable.invoke(null, records);
+        }
+        report("standard", standard, records, iterations);
+        report("recyclable", recyclable, records, iterations);
+    }
+
+    private static void report(String name, Method loop, int records, int iterations)
+            throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] nanos = new long[iterations];
+        long[] bytes = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            loop.invoke(null, records);
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+        }
+        System.out.println(String.format(Locale.US, "%-12s %8.2f ns/value %8.1f bytes/value",
+                name, median(nanos) / (double) records, median(bytes) / (double) records));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private BuilderBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
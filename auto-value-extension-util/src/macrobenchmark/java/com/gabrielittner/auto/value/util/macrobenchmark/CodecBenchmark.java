@@ -0,0 +1,349 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.gabrielittner.auto.value.util.CompilationClassLoader;
+import com.gabrielittner.auto.value.util.extensions.BinaryCodecExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compares encoding and decoding values of a small class with a nested AutoValue class using the
+ * {@code writeTo(ByteBuffer)} and {@code readFrom(ByteBuffer)} methods of
+ * {@link com.gabrielittner.auto.value.util.BinaryCodecUtil} and using an encoder that reads the
+ * properties with {@link Method#invoke} and creates values with {@link Constructor#newInstance},
+ * like a reflective serialization library.
+ *
+ * <pre>
+ * CodecBenchmark [--records 1000000] [--iterations 10]
+ * </pre>
+ *
+ * Both write the same binary format, except that the reflective encoder also writes a null
+ * marker for properties that aren't {@code @Nullable}. Prints the median time and allocated bytes
+ * per value for writing and for reading.
+ */
+public final class CodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = 1000000;
+        int iterations = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--records":
+                    records = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        AutoValueExtension extension = new BinaryCodecExtension();
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(partySource(), tradeSource(), driverSource());
+        if (compilation.status() != Compilation.Status.SUCCESS) {
+            throw new IllegalStateException("Compilation failed: " + compilation.errors());
+        }
+        ClassLoader loader = new CompilationClassLoader(compilation);
+        Class<?> driver = loader.loadClass("bench.Driver");
+        Object[] values = (Object[]) driver.getMethod("create", int.class).invoke(null, records);
+
+        Map<Class<?>, ReflectiveCodec> codecs = new HashMap<>();
+        new ReflectiveCodec(loader, "bench.Party", codecs, "name", "code");
+        ReflectiveCodec reflective = new ReflectiveCodec(loader, "bench.Trade", codecs,
+                "id", "quantity", "price", "settled", "side", "symbol", "note", "party");
+        Codec generated = new GeneratedCodec(driver);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(records * 128);
+        checkRoundTrip(generated, values, buffer);
+        checkRoundTrip(reflective, values, buffer);
+        // warm up both codecs before measuring
+        for (int i = 0; i < 5; i++) {
+            buffer.clear();
+            generated.write(values, buffer);
+            buffer.flip();
+            generated.read(buffer, records);
+            buffer.clear();
+            reflective.write(values, buffer);
+            buffer.flip();
+            reflective.read(buffer, records);
+        }
+        report("generated", generated, values, buffer, iterations);
+        report("reflective", reflective, values, buffer, iterations);
+    }
+
+    private static JavaFileObject partySource() {
+        return JavaFileObjects.forSourceString("bench.Party", ""
+                + "package bench;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Party {\n"
+                + "  public abstract String name();\n"
+                + "  public abstract int code();\n"
+                + "}\n");
+    }
+
+    private static JavaFileObject tradeSource() {
+        return JavaFileObjects.forSourceString("bench.Trade", ""
+                + "package bench;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Trade {\n"
+                + "  public enum Side { BUY, SELL }\n"
+                + "  public abstract long id();\n"
+                + "  public abstract int quantity();\n"
+                + "  public abstract double price();\n"
+                + "  public abstract boolean settled();\n"
+                + "  public abstract Side side();\n"
+                + "  public abstract String symbol();\n"
+                + "  @Nullable public abstract String note();\n"
+                + "  public abstract Party party();\n"
+                + "}\n");
+    }
+
+    // the loops are compiled together with the value classes so that they call the generated
+    // methods directly, the decoded values are kept reachable so that the JIT can't remove them
+    private static JavaFileObject driverSource() {
+        return JavaFileObjects.forSourceString("bench.Driver", ""
+                + "package bench;\n"
+                + "import java.nio.ByteBuffer;\n"
+                + "public final class Driver {\n"
+                + "  public static Object[] decoded;\n"
+                + "  public static Object[] create(int records) {\n"
+                + "    Party[] parties = new Party[16];\n"
+                + "    for (int p = 0; p < parties.length; p++) {\n"
+                + "      parties[p] = new AutoValue_Party(\"Party \" + p, p);\n"
+                + "    }\n"
+                + "    Trade[] trades = new Trade[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      trades[r] = new AutoValue_Trade(r, r % 1000, r * 0.25, r % 2 == 0,\n"
+                + "          Trade.Side.values()[r % 2], \"SYM\" + (r % 100),\n"
+                + "          r % 10 == 0 ? \"note \" + r : null, parties[r % parties.length]);\n"
+                + "    }\n"
+                + "    return trades;\n"
+                + "  }\n"
+                + "  public static void write(Object[] values, ByteBuffer buffer) {\n"
+                + "    for (Object value : values) {\n"
+                + "      AutoValue_Trade.writeTo((Trade) value, buffer);\n"
+                + "    }\n"
+                + "  }\n"
+                + "  public static void read(ByteBuffer buffer, int records) {\n"
+                + "    Trade[] trades = new Trade[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      trades[r] = AutoValue_Trade.readFrom(buffer);\n"
+                + "    }\n"
+                + "    decoded = trades;\n"
+                + "  }\n"
+                + "}\n");
+    }
+
+    private static void checkRoundTrip(Codec codec, Object[] values, ByteBuffer buffer)
+            throws Exception {
+        buffer.clear();
+        codec.write(values, buffer);
+        buffer.flip();
+        Object[] decoded = codec.read(buffer, values.length);
+        if (!Arrays.equals(values, decoded)) {
+            throw new IllegalStateException(codec + " doesn't decode the values it encoded");
+        }
+    }
+
+    private static void report(String name, Codec codec, Object[] values, ByteBuffer buffer,
+            int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int records = values.length;
+        long[] writeNanos = new long[iterations];
+        long[] writeBytes = new long[iterations];
+        long[] readNanos = new long[iterations];
+        long[] readBytes = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            buffer.clear();
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            codec.write(values, buffer);
+            writeNanos[i] = System.nanoTime() - start;
+            writeBytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+            buffer.flip();
+            allocated = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            codec.read(buffer, records);
+            readNanos[i] = System.nanoTime() - start;
+            // includes the array that holds the decoded values, which is the same for both
+            readBytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+        }
+        System.out.println(String.format(Locale.US,
+                "%-10s write %8.2f ns/value %8.1f bytes/value   "
+                        + "read %8.2f ns/value %8.1f bytes/value",
+                name, median(writeNanos) / (double) records,
+                median(writeBytes) / (double) records, median(readNanos) / (double) records,
+                median(readBytes) / (double) records));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private interface Codec {
+        void write(Object[] values, ByteBuffer buffer) throws Exception;
+
+        Object[] read(ByteBuffer buffer, int records) throws Exception;
+    }
+
+    private static final class GeneratedCodec implements Codec {
+
+        private final Method write;
+        private final Method read;
+        private final Field decoded;
+
+        GeneratedCodec(Class<?> driver) throws Exception {
+            write = driver.getMethod("write", Object[].class, ByteBuffer.class);
+            read = driver.getMethod("read", ByteBuffer.class, int.class);
+            decoded = driver.getField("decoded");
+        }
+
+        @Override
+        public void write(Object[] values, ByteBuffer buffer) throws Exception {
+            write.invoke(null, values, buffer);
+        }
+
+        @Override
+        public Object[] read(ByteBuffer buffer, int records) throws Exception {
+            read.invoke(null, buffer, records);
+            return (Object[]) decoded.get(null);
+        }
+
+        @Override
+        public String toString() {
+            return "generated codec";
+        }
+    }
+
+    /**
+     * Writes the given properties in order, reading them with {@link Method#invoke}, and reads
+     * them back by calling the constructor of the generated AutoValue class.
+     */
+    private static final class ReflectiveCodec implements Codec {
+
+        private final Method[] accessors;
+        private final Constructor<?> constructor;
+        private final Map<Class<?>, ReflectiveCodec> codecs;
+
+        ReflectiveCodec(ClassLoader loader, String className, Map<Class<?>, ReflectiveCodec> codecs,
+                String... properties) throws Exception {
+            Class<?> type = loader.loadClass(className);
+            int dot = className.lastIndexOf('.');
+            Class<?> implementation = loader.loadClass(className.substring(0, dot + 1)
+                    + "AutoValue_" + className.substring(dot + 1));
+            accessors = new Method[properties.length];
+            Class<?>[] parameterTypes = new Class<?>[properties.length];
+            for (int i = 0; i < properties.length; i++) {
+                accessors[i] = type.getMethod(properties[i]);
+                parameterTypes[i] = accessors[i].getReturnType();
+            }
+            constructor = implementation.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            this.codecs = codecs;
+            codecs.put(type, this);
+        }
+
+        @Override
+        public void write(Object[] values, ByteBuffer buffer) throws Exception {
+            for (Object value : values) {
+                writeValue(value, buffer);
+            }
+        }
+
+        @Override
+        public Object[] read(ByteBuffer buffer, int records) throws Exception {
+            Object[] values = new Object[records];
+            for (int r = 0; r < records; r++) {
+                values[r] = readValue(buffer);
+            }
+            return values;
+        }
+
+        private void writeValue(Object value, ByteBuffer buffer) throws Exception {
+            for (Method accessor : accessors) {
+                Class<?> type = accessor.getReturnType();
+                Object property = accessor.invoke(value);
+                if (type == int.class) {
+                    buffer.putInt((Integer) property);
+                } else if (type == long.class) {
+                    buffer.putLong((Long) property);
+                } else if (type == double.class) {
+                    buffer.putDouble((Double) property);
+                } else if (type == boolean.class) {
+                    buffer.put((byte) ((Boolean) property ? 1 : 0));
+                } else if (property == null) {
+                    buffer.put((byte) 0);
+                } else {
+                    buffer.put((byte) 1);
+                    if (type == String.class) {
+                        byte[] bytes = ((String) property).getBytes(StandardCharsets.UTF_8);
+                        buffer.putInt(bytes.length).put(bytes);
+                    } else if (type.isEnum()) {
+                        buffer.putInt(((Enum<?>) property).ordinal());
+                    } else {
+                        codecs.get(type).writeValue(property, buffer);
+                    }
+                }
+            }
+        }
+
+        private Object readValue(ByteBuffer buffer) throws Exception {
+            Object[] arguments = new Object[accessors.length];
+            for (int i = 0; i < accessors.length; i++) {
+                Class<?> type = accessors[i].getReturnType();
+                if (type == int.class) {
+                    arguments[i] = buffer.getInt();
+                } else if (type == long.class) {
+                    arguments[i] = buffer.getLong();
+                } else if (type == double.class) {
+                    arguments[i] = buffer.getDouble();
+                } else if (type == boolean.class) {
+                    arguments[i] = buffer.get() != 0;
+                } else if (buffer.get() == 0) {
+                    arguments[i] = null;
+                } else if (type == String.class) {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    arguments[i] = new String(bytes, StandardCharsets.UTF_8);
+                } else if (type.isEnum()) {
+                    arguments[i] = type.getEnumConstants()[buffer.getInt()];
+                } else {
+                    arguments[i] = codecs.get(type).readValue(buffer);
+                }
+            }
+            return constructor.newInstance(arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "reflective codec for " + constructor.getDeclaringClass().getName();
+        }
+    }
+
+    private CodecBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,53 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.google.testing.compile.JavaFileObjects;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a deterministic corpus of {@code @AutoValue} classes with a mix of primitive,
+ * reference, nullable, generic and collection properties.
+ */
+final class Corpus {
+
+    private static final String PACKAGE = "bench";
+    private static final String[] PROPERTY_TYPES = {
+            "int", "long", "boolean", "double", "String", "java.util.List<String>",
+            "java.util.Map<String, Integer>", "@javax.annotation.Nullable Long",
+            "java.util.concurrent.TimeUnit", "byte[]",
+    };
+
+    /**
+     * Returns {@code size} source files. Class {@code i} has between 3 and 12 properties and
+     * every tenth class is generic.
+     */
+    static List<JavaFileObject> create(int size) {
+        List<JavaFileObject> files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = "Value" + i;
+            boolean generic = i % 10 == 9;
+            StringBuilder source = new StringBuilder()
+                    .append("package ").append(PACKAGE).append(";\n")
+                    .append("import com.google.auto.value.AutoValue;\n")
+                    .append("@AutoValue public abstract class ").append(name)
+                    .append(generic ? "<T>" : "").append(" {\n");
+            int properties = 3 + i % 10;
+            for (int j = 0; j < properties; j++) {
+                String type = PROPERTY_TYPES[(i + j) % PROPERTY_TYPES.length];
+                source.append("  public abstract ").append(type).append(" p").append(j)
+                        .append("();\n");
+            }
+            if (generic) {
+                source.append("  public abstract T value();\n");
+            }
+            source.append("}\n");
+            files.add(JavaFileObjects.forSourceString(PACKAGE + "." + name, source.toString()));
+        }
+        return files;
+    }
+
+    private Corpus() {
+        throw new AssertionError("No instances.");
+    }
+}
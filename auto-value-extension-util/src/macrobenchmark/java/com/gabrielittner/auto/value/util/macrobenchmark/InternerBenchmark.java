@@ -0,0 +1,150 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.gabrielittner.auto.value.util.CompilationClassLoader;
+import com.gabrielittner.auto.value.util.extensions.InterningExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compares holding many mostly equal values of a small class created with the constructor of the
+ * final AutoValue class and with the interning factory of
+ * {@link com.gabrielittner.auto.value.util.InternerUtil}.
+ *
+ * <pre>
+ * InternerBenchmark [--records 1000000] [--distinct 16] [--iterations 5]
+ * </pre>
+ *
+ * Each record creates a value from a new copy of one of {@code distinct} strings, like a value
+ * read from a file or the network. Prints the median time per created value and the median heap
+ * that is still used per value after a garbage collection while all of them are reachable.
+ */
+public final class InternerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = 1000000;
+        int distinct = 16;
+        int iterations = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--records":
+                    records = Integer.parseInt(args[++i]);
+                    break;
+                case "--distinct":
+                    distinct = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        AutoValueExtension extension = new InterningExtension();
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(currencySource(), driverSource());
+        if (compilation.status() != Compilation.Status.SUCCESS) {
+            throw new IllegalStateException("Compilation failed: " + compilation.errors());
+        }
+        Class<?> driver = new CompilationClassLoader(compilation).loadClass("bench.Driver");
+        Method createRegular = driver.getMethod("createRegular", int.class, int.class);
+        Method createInterned = driver.getMethod("createInterned", int.class, int.class);
+        Method clear = driver.getMethod("clear");
+
+        // warm up both loops before measuring
+        for (int i = 0; i < 5; i++) {
+            createRegular.invoke(null, records, distinct);
+            createInterned.invoke(null, records, distinct);
+        }
+        clear.invoke(null);
+        report("regular", createRegular, clear, records, distinct, iterations);
+        report("interned", createInterned, clear, records, distinct, iterations);
+    }
+
+    private static JavaFileObject currencySource() {
+        return JavaFileObjects.forSourceString("bench.Currency", ""
+                + "package bench;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Currency {\n"
+                + "  public abstract String code();\n"
+                + "  public abstract int digits();\n"
+                + "}\n");
+    }
+
+    // the loops are compiled together with the value class so that they call the constructor and
+    // the factory directly, the values of the last run stay reachable until clear() is called
+    private static JavaFileObject driverSource() {
+        return JavaFileObjects.forSourceString("bench.Driver", ""
+                + "package bench;\n"
+                + "public final class Driver {\n"
+                + "  public static Currency[] values;\n"
+                + "  private static String code(int record, int distinct) {\n"
+                + "    return new String(\"C\" + (record % distinct));\n"
+                + "  }\n"
+                + "  public static void createRegular(int records, int distinct) {\n"
+                + "    Currency[] created = new Currency[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      created[r] = new AutoValue_Currency(code(r, distinct), 2);\n"
+                + "    }\n"
+                + "    values = created;\n"
+                + "  }\n"
+                + "  public static void createInterned(int records, int distinct) {\n"
+                + "    Currency[] created = new Currency[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      created[r] = AutoValue_Currency.intern(code(r, distinct), 2);\n"
+                + "    }\n"
+                + "    values = created;\n"
+                + "  }\n"
+                + "  public static void clear() {\n"
+                + "    values = null;\n"
+                + "  }\n"
+                + "}\n");
+    }
+
+    private static void report(String name, Method create, Method clear, int records,
+            int distinct, int iterations) throws Exception {
+        long[] nanos = new long[iterations];
+        long[] retained = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long before = usedHeap();
+            long start = System.nanoTime();
+            create.invoke(null, records, distinct);
+            nanos[i] = System.nanoTime() - start;
+            // includes the array that holds the values, which is the same for both
+            retained[i] = usedHeap() - before;
+            clear.invoke(null);
+        }
+        System.out.println(String.format(Locale.US,
+                "%-8s create %8.2f ns/value   retained %8.1f bytes/value",
+                name, median(nanos) / (double) records, median(retained) / (double) records));
+    }
+
+    // the heap that is still used after collecting everything that is unreachable
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private InternerBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,244 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compiles generated corpora of {@code @AutoValue} classes with {@link AutoValueProcessor} and a
+ * stack of test extensions and compares the result to checked-in baselines.
+ *
+ * <pre>
+ * Macrobenchmark --baselines FILE [--sizes 100,1000] [--extensions CallConstructor,Final]
+ *     [--tolerance 0.25] [--iterations 3] [--update-baselines]
+ * </pre>
+ *
+ * Extensions are resolved by simple name in the {@code extensions} test package and need a
+ * public no argument constructor. Every iteration also compiles the same corpus with a plain
+ * {@link AutoValueProcessor} in the same JVM, and only the ratios of the medians of both, for
+ * the wall time and the time spent in the processor, are compared to the baselines. That makes
+ * the baselines independent of the speed of the machine. The process exits with status 1 if a
+ * ratio is more than {@code tolerance} worse than its baseline.
+ *
+ * <p>The time per class and the peak heap usage are only printed. The heap peak is the one of
+ * the whole JVM and includes javac itself, so it isn't attributed to the processor.
+ *
+ * <p>Corpora of 10,000 classes are not compiled by default because javac 8 compares every new
+ * source file with all files created before it ({@code JavacFiler.checkFileReopening}), which
+ * makes processing time grow quadratically with the number of generated files. The ratios
+ * cancel most of that, the absolute times don't.
+ */
+public final class Macrobenchmark {
+
+    private static final String EXTENSIONS_PACKAGE =
+            "com.gabrielittner.auto.value.util.extensions.";
+    private static final String[] RATIOS = { "wallRatio", "processorRatio" };
+
+    public static void main(String[] args) throws Exception {
+        File baselines = null;
+        List<Integer> sizes = Arrays.asList(100, 1000);
+        List<String> extensions = Arrays.asList("CallConstructor", "Final");
+        double tolerance = 0.25;
+        int iterations = 3;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baselines":
+                    baselines = new File(args[++i]);
+                    break;
+                case "--sizes":
+                    sizes = new ArrayList<>();
+                    for (String size : args[++i].split(",")) {
+                        sizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--extensions":
+                    extensions = Arrays.asList(args[++i].split(","));
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--update-baselines":
+                    update = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (baselines == null) {
+            throw new IllegalArgumentException("--baselines is required");
+        }
+
+        String stack = joinNames(extensions);
+        List<String> plain = Collections.emptyList();
+        Properties expected = load(baselines);
+        Properties measured = new Properties();
+        // warm up the compiler and the processor before measuring
+        run(100, extensions);
+        run(100, plain);
+        boolean regressed = false;
+        for (int size : sizes) {
+            // both are run alternately so that they see the same state of the JVM
+            long[][] reference = new long[3][iterations];
+            long[][] results = new long[3][iterations];
+            for (int i = 0; i < iterations; i++) {
+                long[] referenceRun = run(size, plain);
+                long[] result = run(size, extensions);
+                for (int metric = 0; metric < 3; metric++) {
+                    reference[metric][i] = referenceRun[metric];
+                    results[metric][i] = result[metric];
+                }
+            }
+            System.out.println(String.format(Locale.US,
+                    "%d classes: %.0f us/class in the processor, %.0f us/class without "
+                            + "extensions, JVM heap peak %d MB",
+                    size, median(results[1]) / 1000.0 / size,
+                    median(reference[1]) / 1000.0 / size,
+                    median(results[2]) / (1024 * 1024)));
+            for (int ratio = 0; ratio < RATIOS.length; ratio++) {
+                String key = stack + "." + size + "." + RATIOS[ratio];
+                double value = median(results[ratio]) / (double) median(reference[ratio]);
+                String formatted = String.format(Locale.US, "%.2f", value);
+                measured.setProperty(key, formatted);
+                regressed |= !report(key, Double.parseDouble(formatted),
+                        expected.getProperty(key), tolerance);
+            }
+        }
+
+        if (update) {
+            expected.putAll(measured);
+            store(expected, baselines);
+            System.out.println("Updated " + baselines);
+        } else if (regressed) {
+            System.out.println("Performance regressed by more than "
+                    + Math.round(tolerance * 100) + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compiles a corpus of {@code size} classes and returns the wall time and the processor time
+     * in nanoseconds and the peak heap usage of the JVM in bytes.
+     */
+    private static long[] run(int size, List<String> extensionNames) throws Exception {
+        List<JavaFileObject> corpus = Corpus.create(size);
+        TimingProcessor processor =
+                new TimingProcessor(new AutoValueProcessor(newExtensions(extensionNames)));
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        Compilation compilation = javac().withProcessors(processor).compile(corpus);
+        long wallNanos = System.nanoTime() - start;
+
+        long heapPeak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            heapPeak += pool.getPeakUsage().getUsed();
+        }
+        if (compilation.status() != Compilation.Status.SUCCESS) {
+            throw new IllegalStateException("Compilation failed: " + compilation.errors());
+        }
+        return new long[] { wallNanos, processor.nanos(), heapPeak };
+    }
+
+    private static List<AutoValueExtension> newExtensions(List<String> names) throws Exception {
+        List<AutoValueExtension> extensions = new ArrayList<>();
+        for (String name : names) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            Class<?> extension = Class.forName(EXTENSIONS_PACKAGE + name.trim() + "Extension");
+            extensions.add((AutoValueExtension) extension.getConstructor().newInstance());
+        }
+        return extensions;
+    }
+
+    private static boolean report(String key, double value, String baseline, double tolerance) {
+        if (baseline == null) {
+            System.out.println(String.format(Locale.US, "%-50s %8.2f (no baseline)", key, value));
+            return true;
+        }
+        double expected = Double.parseDouble(baseline);
+        double change = expected == 0 ? 0 : (value - expected) / expected;
+        boolean ok = change <= tolerance;
+        System.out.println(String.format(Locale.US, "%-50s %8.2f baseline %8.2f %+7.1f%%%s",
+                key, value, expected, change * 100, ok ? "" : " REGRESSION"));
+        return ok;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String joinNames(List<String> names) {
+        List<String> trimmed = new ArrayList<>();
+        for (String name : names) {
+            trimmed.add(name.trim());
+        }
+        Collections.sort(trimmed);
+        StringBuilder joined = new StringBuilder();
+        for (String name : trimmed) {
+            if (joined.length() > 0) joined.append('+');
+            joined.append(name);
+        }
+        return joined.length() == 0 ? "none" : joined.toString();
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.exists()) {
+            try (InputStream input = new FileInputStream(file)) {
+                properties.load(input);
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        List<String> keys = new ArrayList<>(properties.stringPropertyNames());
+        Collections.sort(keys);
+        try (Writer output = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1")) {
+            output.write("# Macrobenchmark baselines, ratios to plain AutoValue, update with\n"
+                    + "# ./gradlew macrobenchmark -Pmacrobenchmark.updateBaselines\n");
+            for (String key : keys) {
+                output.write(key + "=" + properties.getProperty(key) + "\n");
+            }
+        }
+    }
+
+    private Macrobenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
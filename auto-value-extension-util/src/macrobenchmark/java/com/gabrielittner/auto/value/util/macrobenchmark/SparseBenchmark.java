@@ -0,0 +1,164 @@
+package com.gabrielittner.auto.value.util.macrobenchmark;
+
+import com.gabrielittner.auto.value.util.CompilationClassLoader;
+import com.gabrielittner.auto.value.util.extensions.SparseExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compares instances of a class with 50 nullable properties of which 10% are set, created with
+ * the final AutoValue class and with the sparse class of
+ * {@link com.gabrielittner.auto.value.util.SparseUtil}.
+ *
+ * <pre>
+ * SparseBenchmark [--records 1000000] [--iterations 10]
+ * </pre>
+ *
+ * Prints the median time and allocated bytes per created value, which is the footprint of a
+ * value, and the median time to read all properties of a value.
+ */
+public final class SparseBenchmark {
+
+    private static final int PROPERTIES = 50;
+    // every 10th property of a record is set, starting at a different one for each record
+    private static final int DENSITY = 10;
+
+    public static void main(String[] args) throws Exception {
+        int records = 1000000;
+        int iterations = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--records":
+                    records = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        AutoValueExtension extension = new SparseExtension();
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(wideSource(), driverSource());
+        if (compilation.status() != Compilation.Status.SUCCESS) {
+            throw new IllegalStateException("Compilation failed: " + compilation.errors());
+        }
+        Class<?> driver = new CompilationClassLoader(compilation).loadClass("bench.Driver");
+        Method createRegular = driver.getMethod("createRegular", int.class);
+        Method createSparse = driver.getMethod("createSparse", int.class);
+        Method read = driver.getMethod("read");
+
+        // warm up all loops before measuring
+        for (int i = 0; i < 5; i++) {
+            createRegular.invoke(null, records);
+            read.invoke(null);
+            createSparse.invoke(null, records);
+            read.invoke(null);
+        }
+        report("regular", createRegular, read, records, iterations);
+        report("sparse", createSparse, read, records, iterations);
+    }
+
+    private static JavaFileObject wideSource() {
+        StringBuilder source = new StringBuilder()
+                .append("package bench;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import javax.annotation.Nullable;\n")
+                .append("@AutoValue public abstract class Wide {\n");
+        for (int i = 0; i < PROPERTIES; i++) {
+            source.append("  @Nullable public abstract String p").append(i).append("();\n");
+        }
+        return JavaFileObjects.forSourceString("bench.Wide", source.append("}\n").toString());
+    }
+
+    // the loops are compiled together with the value class so that they call the constructors
+    // and accessors directly, keeping the values of the last run reachable measures their
+    // footprint and keeps the JIT from removing the allocations
+    private static JavaFileObject driverSource() {
+        StringBuilder arguments = new StringBuilder();
+        StringBuilder reads = new StringBuilder();
+        for (int i = 0; i < PROPERTIES; i++) {
+            arguments.append(i == 0 ? "" : ", ").append("v(r, ").append(i).append(")");
+            reads.append("      if (value.p").append(i).append("() != null) sum++;\n");
+        }
+        String source = ""
+                + "package bench;\n"
+                + "public final class Driver {\n"
+                + "  private static final String VALUE = \"value\";\n"
+                + "  public static Wide[] values;\n"
+                + "  private static String v(int record, int property) {\n"
+                + "    return (record + property) % " + DENSITY + " == 0 ? VALUE : null;\n"
+                + "  }\n"
+                + "  public static void createRegular(int records) {\n"
+                + "    Wide[] created = new Wide[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      created[r] = new AutoValue_Wide(" + arguments + ");\n"
+                + "    }\n"
+                + "    values = created;\n"
+                + "  }\n"
+                + "  public static void createSparse(int records) {\n"
+                + "    Wide[] created = new Wide[records];\n"
+                + "    for (int r = 0; r < records; r++) {\n"
+                + "      created[r] = new AutoValue_Wide.Sparse(" + arguments + ");\n"
+                + "    }\n"
+                + "    values = created;\n"
+                + "  }\n"
+                + "  public static long read() {\n"
+                + "    long sum = 0;\n"
+                + "    for (Wide value : values) {\n"
+                + reads
+                + "    }\n"
+                + "    return sum;\n"
+                + "  }\n"
+                + "}\n";
+        return JavaFileObjects.forSourceString("bench.Driver", source);
+    }
+
+    private static void report(String name, Method create, Method read, int records,
+            int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] createNanos = new long[iterations];
+        long[] bytes = new long[iterations];
+        long[] readNanos = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            create.invoke(null, records);
+            createNanos[i] = System.nanoTime() - start;
+            // the array that holds the values is allocated once per run
+            bytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+            start = System.nanoTime();
+            read.invoke(null);
+            readNanos[i] = System.nanoTime() - start;
+        }
+        System.out.println(String.format(Locale.US,
+                "%-8s create %8.2f ns/value %8.1f bytes/value   read %8.2f ns/value",
+                name, median(createNanos) / (double) records, median(bytes) / (double) records,
+                median(readNanos) / (double) records));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private SparseBenchmark() {
+        throw new AssertionError("No instances.");
+    }
+}
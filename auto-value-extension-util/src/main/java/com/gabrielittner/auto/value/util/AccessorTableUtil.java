@@ -0,0 +1,192 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates static methods that read and create instances of an AutoValue class by the index of
+ * a property, so that generic frameworks can access properties without reflection.
+ */
+public final class AccessorTableUtil {
+
+    private static final String NAMES = "PROPERTY_NAMES";
+    private static final String TYPES = "PROPERTY_TYPES";
+
+    /**
+     * Adds the following static members to the given {@code builder} which was created with
+     * {@link AutoValueUtil#newTypeSpecBuilder}. Properties are indexed in the order of
+     * {@link Property#buildProperties(Context)}.
+     *
+     * <pre>
+     * static final String[] PROPERTY_NAMES
+     * static final Class&lt;?&gt;[] PROPERTY_TYPES
+     * static Object get(AutoValueClass value, int index)
+     * static int getInt(AutoValueClass value, int index)
+     * static AutoValueClass fromArray(Object[] values)
+     * </pre>
+     *
+     * {@code PROPERTY_NAMES} contains the human readable names and {@code PROPERTY_TYPES} the
+     * erased types of the properties. Both arrays are shared and must not be modified.
+     * {@code get} boxes primitive values. A primitive specialized method like {@code getInt} or
+     * {@code getLong} is added for every primitive type that is used by at least one property
+     * and throws an {@link IllegalArgumentException} for indexes of properties with another type.
+     * {@code fromArray} creates a new instance with
+     * {@link AutoValueUtil#newFinalClassConstructorCall(Context, Object[])} from an array of the
+     * property values in index order.
+     */
+    public static void addAccessorTable(Context context, TypeSpec.Builder builder) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        builder.addField(newNamesField(properties))
+                .addField(newTypesField(context, properties))
+                .addMethod(newGetMethod(context, properties));
+        Set<TypeKind> primitives = EnumSet.noneOf(TypeKind.class);
+        for (Property property : properties) {
+            TypeKind kind = property.element().getReturnType().getKind();
+            if (kind.isPrimitive()) {
+                primitives.add(kind);
+            }
+        }
+        for (TypeKind kind : primitives) {
+            builder.addMethod(newPrimitiveGetMethod(context, properties, kind));
+        }
+        builder.addMethod(newFromArrayMethod(context, properties));
+    }
+
+    private static FieldSpec newNamesField(List<Property> properties) {
+        CodeBlock.Builder names = CodeBlock.builder().add("{");
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) names.add(", ");
+            names.add("$S", properties.get(i).humanName());
+        }
+        return FieldSpec.builder(String[].class, NAMES, STATIC, FINAL)
+                .initializer(names.add("}").build())
+                .build();
+    }
+
+    private static FieldSpec newTypesField(Context context, List<Property> properties) {
+        CodeBlock.Builder types = CodeBlock.builder().add("{");
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) types.add(", ");
+            types.add("$T.class", erasure(context, properties.get(i)));
+        }
+        TypeName classType = ParameterizedTypeName.get(
+                ClassName.get(Class.class), WildcardTypeName.subtypeOf(Object.class));
+        return FieldSpec.builder(ArrayTypeName.of(classType), TYPES, STATIC, FINAL)
+                .initializer(types.add("}").build())
+                .build();
+    }
+
+    private static MethodSpec newGetMethod(Context context, List<Property> properties) {
+        MethodSpec.Builder get = newIndexedMethod(context, "get", TypeName.OBJECT);
+        for (int i = 0; i < properties.size(); i++) {
+            get.addCode("case $L:\n$>", i)
+                    .addStatement("return value.$N()", properties.get(i).methodName())
+                    .addCode("$<");
+        }
+        return finishSwitch(get, CodeBlock.of("$S + index", "No property at index "));
+    }
+
+    private static MethodSpec newPrimitiveGetMethod(
+            Context context, List<Property> properties, TypeKind kind) {
+        String typeName = kind.name().toLowerCase(Locale.US);
+        String methodName = "get" + Character.toUpperCase(typeName.charAt(0))
+                + typeName.substring(1);
+        TypeName type = TypeName.get(
+                context.processingEnvironment().getTypeUtils().getPrimitiveType(kind));
+        MethodSpec.Builder get = newIndexedMethod(context, methodName, type);
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            if (property.element().getReturnType().getKind() == kind) {
+                get.addCode("case $L:\n$>", i)
+                        .addStatement("return value.$N()", property.methodName())
+                        .addCode("$<");
+            }
+        }
+        return finishSwitch(get, CodeBlock.of("$S + index + $S",
+                "Property at index ", " is not of type " + typeName));
+    }
+
+    private static MethodSpec.Builder newIndexedMethod(
+            Context context, String methodName, TypeName returnType) {
+        return MethodSpec.methodBuilder(methodName)
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .returns(returnType)
+                .addParameter(AutoValueUtil.getAutoValueClassTypeName(context), "value")
+                .addParameter(int.class, "index")
+                .beginControlFlow("switch (index)");
+    }
+
+    private static MethodSpec finishSwitch(MethodSpec.Builder method, CodeBlock message) {
+        return method.addCode("default:\n$>")
+                .addStatement("throw new $T($L)", IllegalArgumentException.class, message)
+                .addCode("$<")
+                .endControlFlow()
+                .build();
+    }
+
+    private static MethodSpec newFromArrayMethod(Context context, List<Property> properties) {
+        NameAllocator names = new NameAllocator();
+        String values = names.newName("values");
+        MethodSpec.Builder fromArray = MethodSpec.methodBuilder("fromArray")
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .returns(AutoValueUtil.getAutoValueClassTypeName(context))
+                .addParameter(Object[].class, values)
+                .beginControlFlow("if ($N.length != $L)", values, properties.size())
+                .addStatement("throw new $T($S + $N.length)", IllegalArgumentException.class,
+                        "Expected " + properties.size() + " values but got ", values)
+                .endControlFlow();
+        boolean unchecked = false;
+        Object[] locals = new Object[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            TypeName type = property.type().withoutAnnotations();
+            locals[i] = names.newName(property.humanName());
+            fromArray.addStatement("$T $N = ($T) $N[$L]", type, locals[i], type, values, i);
+            unchecked |= !type.equals(erasure(context, property));
+        }
+        if (unchecked) {
+            fromArray.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+        return fromArray.addCode("return ")
+                .addCode(AutoValueUtil.newFinalClassConstructorCall(context, locals))
+                .build();
+    }
+
+    private static TypeName erasure(Context context, Property property) {
+        Types types = context.processingEnvironment().getTypeUtils();
+        TypeMirror type = property.element().getReturnType();
+        return TypeName.get(types.erasure(type)).withoutAnnotations();
+    }
+
+    private AccessorTableUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,156 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.TypeSpec;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime registry of the allocation counters that
+ * {@link AutoValueUtil#addAllocationCounter(Context, TypeSpec.Builder)} adds to generated
+ * classes. Classes generated with the counter need this library on their runtime classpath.
+ *
+ * <p>Counters are kept per type for the lifetime of the process and can be read with
+ * {@link #snapshot()} or through JMX after calling {@link #registerMBean()}.
+ */
+public final class AllocationTelemetry {
+
+    /** The name under which {@link #registerMBean()} registers the registry. */
+    public static final String OBJECT_NAME =
+            "com.gabrielittner.auto.value.util:type=AllocationTelemetry";
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter for {@code type}, creating and registering it on first use. All calls
+     * with the same {@code type} return the same counter, also when they come from classes that
+     * were loaded by different class loaders.
+     */
+    public static Counter counter(String type) {
+        Counter counter = COUNTERS.get(type);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = COUNTERS.putIfAbsent(type, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /** Returns the current count of every registered type, sorted by type name. */
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    /** Sets all registered counters back to {@code 0}, see {@link Counter#reset()}. */
+    public static void reset() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Registers an {@link AllocationsMXBean} for the registry with the platform
+     * {@link MBeanServer} under {@link #OBJECT_NAME}, unless it is already registered.
+     */
+    public static ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new Allocations(), name);
+        }
+        return name;
+    }
+
+    /** The management interface of the registry, see {@link #registerMBean()}. */
+    public interface AllocationsMXBean {
+
+        /** Returns {@link AllocationTelemetry#snapshot()}. */
+        Map<String, Long> getAllocations();
+
+        /** Calls {@link AllocationTelemetry#reset()}. */
+        void reset();
+    }
+
+    private static final class Allocations implements AllocationsMXBean {
+
+        @Override
+        public Map<String, Long> getAllocations() {
+            return snapshot();
+        }
+
+        @Override
+        public void reset() {
+            AllocationTelemetry.reset();
+        }
+    }
+
+    /**
+     * A counter that spreads increments over a fixed number of cells, like
+     * {@code java.util.concurrent.atomic.LongAdder} which isn't available on Java 7. Threads pick
+     * a cell by their id and every cell is padded to its own cache line, so threads that allocate
+     * the same type concurrently rarely contend on a cell and don't share cache lines.
+     */
+    public static final class Counter {
+
+        // 8 longs are 64 bytes, the cache line size of most processors
+        private static final int PADDING = 8;
+        private static final int MAX_CELLS = 64;
+
+        private final int mask;
+        private final AtomicLongArray cells;
+
+        Counter() {
+            int processors = Runtime.getRuntime().availableProcessors();
+            int count = 1;
+            while (count < processors && count < MAX_CELLS) {
+                count <<= 1;
+            }
+            mask = count - 1;
+            // one cell worth of padding in front of the first cell keeps it away from the header
+            cells = new AtomicLongArray((count + 1) * PADDING);
+        }
+
+        /** Adds {@code 1} to the count. */
+        public void increment() {
+            int cell = (int) Thread.currentThread().getId() & mask;
+            cells.getAndIncrement((cell + 1) * PADDING);
+        }
+
+        /**
+         * Returns the current count. Increments that happen concurrently might not be included.
+         */
+        public long sum() {
+            long sum = 0L;
+            for (int cell = 0; cell <= mask; cell++) {
+                sum += cells.get((cell + 1) * PADDING);
+            }
+            return sum;
+        }
+
+        /**
+         * Sets the count to {@code 0}. Increments that happen concurrently might be lost.
+         */
+        public void reset() {
+            for (int cell = 0; cell <= mask; cell++) {
+                cells.set((cell + 1) * PADDING, 0L);
+            }
+        }
+    }
+
+    private AllocationTelemetry() {
+        throw new AssertionError("No instances.");
+    }
+}
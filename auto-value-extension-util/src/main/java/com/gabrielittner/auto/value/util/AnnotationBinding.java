@@ -0,0 +1,340 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.common.AnnotationMirrors;
+import com.google.auto.common.MoreElements;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Binds the values of an annotation to a small interface that an extension declares for it,
+ * as a typed alternative to {@link ElementUtil#getAnnotationValue(Element, Class, String)}.
+ *
+ * <pre>
+ * interface Json {
+ *   String name();
+ *   String[] alternate();
+ *   TypeMirror adapter();
+ * }
+ *
+ * AnnotationBinding bindings = new AnnotationBinding();
+ * Optional&lt;Json&gt; json = bindings.bind(element, "com.example.Json", Json.class);
+ * </pre>
+ *
+ * Each method of the interface has to take no parameters and is bound to the annotation member
+ * with the same name. Default values are used for members that aren't set explicitly. Supported
+ * return types are
+ * <ul>
+ * <li>primitives, their boxed types and {@link String}</li>
+ * <li>{@link TypeMirror} for {@code Class} members</li>
+ * <li>enums with constants of the same name, {@link String} or {@link VariableElement} for enum
+ * members</li>
+ * <li>{@link AnnotationMirror} or another binding interface for annotation members</li>
+ * <li>arrays and {@link List}s of the above for array members</li>
+ * </ul>
+ *
+ * All values are decoded once when an element is bound and the result is cached for the element
+ * by the {@code AnnotationBinding} instance, so repeated calls for the same element don't traverse
+ * the annotation mirror again. Bindings are immutable, returned arrays are copies. {@code equals}
+ * and {@code hashCode} are based on identity.
+ *
+ * <p>Elements and bound values like {@link TypeMirror} belong to the compilation that created
+ * them and reference all of its state. Use an instance for a single processing round, for example
+ * one per {@code generateClass} call of an extension, and don't keep it in a static field.
+ */
+public final class AnnotationBinding {
+
+    private static final ClassValue<BindingType> TYPES = new ClassValue<BindingType>() {
+        @Override
+        protected BindingType computeValue(Class<?> binding) {
+            return new BindingType(binding);
+        }
+    };
+
+    private final ConcurrentMap<Element, ConcurrentMap<Key, Optional<Object>>> cache =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Like {@link #bind(Element, String, Class)} for an annotation class that is available to the
+     * extension.
+     */
+    public <T> Optional<T> bind(
+            Element element, Class<? extends Annotation> annotation, Class<T> binding) {
+        return bind(element, annotation.getCanonicalName(), binding);
+    }
+
+    /**
+     * Returns the values of the annotation with the qualified name {@code annotationName} on
+     * {@code element} bound to {@code binding}, or {@link Optional#absent()} if {@code element}
+     * doesn't have that annotation.
+     *
+     * @throws IllegalArgumentException if {@code binding} is not a valid binding interface, a
+     *         method doesn't match a member of the annotation or a value can't be converted to the
+     *         return type of its method.
+     */
+    public <T> Optional<T> bind(
+            Element element, String annotationName, Class<T> binding) {
+        BindingType type = TYPES.get(binding);
+        ConcurrentMap<Key, Optional<Object>> bindings = cache.get(element);
+        if (bindings == null) {
+            ConcurrentMap<Key, Optional<Object>> created = new ConcurrentHashMap<>();
+            bindings = cache.putIfAbsent(element, created);
+            if (bindings == null) {
+                bindings = created;
+            }
+        }
+        Key key = new Key(annotationName, binding);
+        Optional<Object> bound = bindings.get(key);
+        if (bound == null) {
+            AnnotationMirror mirror = findAnnotation(element, annotationName);
+            bound = mirror == null ? Optional.absent() : Optional.of(type.bind(mirror));
+            Optional<Object> previous = bindings.putIfAbsent(key, bound);
+            if (previous != null) {
+                bound = previous;
+            }
+        }
+        return bound.isPresent() ? Optional.of(binding.cast(bound.get())) : Optional.<T>absent();
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            Element annotation = mirror.getAnnotationType().asElement();
+            if (MoreElements.asType(annotation).getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static final class Key {
+        private final String annotationName;
+        private final Class<?> binding;
+
+        Key(String annotationName, Class<?> binding) {
+            this.annotationName = annotationName;
+            this.binding = binding;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return annotationName.equals(other.annotationName) && binding == other.binding;
+        }
+
+        @Override
+        public int hashCode() {
+            return annotationName.hashCode() * 31 + binding.hashCode();
+        }
+    }
+
+    /**
+     * The methods of a binding interface and how their values are decoded. Created once per
+     * interface.
+     */
+    private static final class BindingType {
+        private final Class<?> binding;
+        private final ImmutableMap<Method, Integer> indexes;
+        private final Method[] methods;
+
+        BindingType(Class<?> binding) {
+            if (!binding.isInterface() || binding.isAnnotation()) {
+                throw new IllegalArgumentException(binding + " is not an interface");
+            }
+            this.binding = binding;
+            List<Method> methods = new ArrayList<>();
+            for (Method method : binding.getMethods()) {
+                if (!Modifier.isAbstract(method.getModifiers())) {
+                    continue;
+                }
+                if (method.getParameterTypes().length > 0) {
+                    throw new IllegalArgumentException(method + " has parameters");
+                }
+                methods.add(method);
+            }
+            // getMethods() has no defined order, sort for a stable toString()
+            Collections.sort(methods, new Comparator<Method>() {
+                @Override
+                public int compare(Method left, Method right) {
+                    return left.getName().compareTo(right.getName());
+                }
+            });
+            ImmutableMap.Builder<Method, Integer> indexes = ImmutableMap.builder();
+            for (int i = 0; i < methods.size(); i++) {
+                indexes.put(methods.get(i), i);
+            }
+            this.methods = methods.toArray(new Method[0]);
+            this.indexes = indexes.build();
+        }
+
+        Object bind(AnnotationMirror mirror) {
+            Map<ExecutableElement, ? extends AnnotationValue> values =
+                    AnnotationMirrors.getAnnotationValuesWithDefaults(mirror);
+            Object[] decoded = new Object[methods.length];
+            for (int i = 0; i < methods.length; i++) {
+                AnnotationValue value = findValue(values, methods[i].getName());
+                if (value == null) {
+                    throw new IllegalArgumentException(mirror.getAnnotationType()
+                            + " has no member " + methods[i].getName());
+                }
+                decoded[i] = decode(value.getValue(), methods[i].getGenericReturnType(),
+                        methods[i]);
+            }
+            return Proxy.newProxyInstance(binding.getClassLoader(), new Class<?>[] { binding },
+                    new BindingHandler(this, mirror.getAnnotationType().toString(), decoded));
+        }
+
+        private static AnnotationValue findValue(
+                Map<ExecutableElement, ? extends AnnotationValue> values, String name) {
+            for (Map.Entry<ExecutableElement, ? extends AnnotationValue> entry
+                    : values.entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        private static Object decode(Object value, Type type, Method method) {
+            if (type instanceof ParameterizedType
+                    && ((ParameterizedType) type).getRawType() == List.class
+                    && value instanceof List) {
+                Type elementType = ((ParameterizedType) type).getActualTypeArguments()[0];
+                ImmutableList.Builder<Object> list = ImmutableList.builder();
+                for (Object element : (List<?>) value) {
+                    list.add(decode(((AnnotationValue) element).getValue(), elementType, method));
+                }
+                return list.build();
+            }
+            if (!(type instanceof Class)) {
+                throw unsupported(value, type, method);
+            }
+            Class<?> cls = (Class<?>) type;
+            if (cls.isArray() && value instanceof List) {
+                List<?> list = (List<?>) value;
+                Object array = Array.newInstance(cls.getComponentType(), list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    Object element = ((AnnotationValue) list.get(i)).getValue();
+                    Array.set(array, i, decode(element, cls.getComponentType(), method));
+                }
+                return array;
+            }
+            if (Primitives.wrap(cls).isInstance(value)) {
+                return value;
+            }
+            if (value instanceof VariableElement) {
+                String name = ((VariableElement) value).getSimpleName().toString();
+                if (cls == String.class) {
+                    return name;
+                }
+                if (cls.isEnum()) {
+                    return enumConstant(cls, name, method);
+                }
+            }
+            if (value instanceof AnnotationMirror && cls.isInterface() && !cls.isAnnotation()) {
+                return TYPES.get(cls).bind((AnnotationMirror) value);
+            }
+            throw unsupported(value, type, method);
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static Object enumConstant(Class<?> cls, String name, Method method) {
+            try {
+                return Enum.valueOf((Class) cls, name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(cls + " has no constant " + name
+                        + " for " + method.getName() + "()", e);
+            }
+        }
+
+        private static IllegalArgumentException unsupported(
+                Object value, Type type, Method method) {
+            return new IllegalArgumentException("Can't bind " + value + " to "
+                    + type + " " + method.getName() + "()");
+        }
+    }
+
+    private static final class BindingHandler implements InvocationHandler {
+        private final BindingType type;
+        private final String annotationName;
+        private final Object[] values;
+
+        BindingHandler(BindingType type, String annotationName, Object[] values) {
+            this.type = type;
+            this.annotationName = annotationName;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Integer index = type.indexes.get(method);
+            if (index != null) {
+                Object value = values[index];
+                if (value != null && value.getClass().isArray()) {
+                    return cloneArray(value);
+                }
+                return value;
+            }
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return toString(proxy);
+                default:
+                    throw new UnsupportedOperationException(method.toString());
+            }
+        }
+
+        private String toString(Object proxy) {
+            StringBuilder builder = new StringBuilder("@").append(annotationName).append('(');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(type.methods[i].getName()).append('=');
+                Object value = values[i];
+                if (value != null && value.getClass().isArray()) {
+                    int length = Array.getLength(value);
+                    builder.append('[');
+                    for (int j = 0; j < length; j++) {
+                        if (j > 0) builder.append(", ");
+                        builder.append(Array.get(value, j));
+                    }
+                    builder.append(']');
+                } else {
+                    builder.append(value);
+                }
+            }
+            return builder.append(')').toString();
+        }
+
+        private static Object cloneArray(Object array) {
+            int length = Array.getLength(array);
+            Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+            System.arraycopy(array, 0, copy, 0, length);
+            return copy;
+        }
+    }
+}
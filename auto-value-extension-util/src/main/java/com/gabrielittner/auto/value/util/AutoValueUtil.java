@@ -2,9 +2,11 @@ package com.gabrielittner.auto.value.util;
 
 import com.google.auto.value.extension.AutoValueExtension;
 import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
@@ -23,6 +25,10 @@ import javax.tools.Diagnostic;
 
 import static javax.lang.model.element.Modifier.ABSTRACT;
 import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.element.Modifier.TRANSIENT;
 import static javax.tools.Diagnostic.Kind.ERROR;
 
 /**
@@ -30,6 +36,15 @@ import static javax.tools.Diagnostic.Kind.ERROR;
  */
 public final class AutoValueUtil {
 
+    /**
+     * The processor option that enables
+     * {@link #addAllocationCounter(Context, TypeSpec.Builder)}, passed as
+     * {@code -AautoValueExtensionUtil.allocationTelemetry=true}. Extensions that use it should
+     * return it from {@link AutoValueExtension#getSupportedOptions()}.
+     */
+    public static final String ALLOCATION_TELEMETRY_OPTION =
+            "autoValueExtensionUtil.allocationTelemetry";
+
     /**
      * Returns the {@link ClassName} of the class annotated with
      * {@link com.google.auto.value.AutoValue}.
@@ -44,8 +59,7 @@ public final class AutoValueUtil {
         return autoValueClassName;
     }
 
-    private static String getFinalClassSimpleName(Context context) {
-        TypeElement autoValueClass = context.autoValueClass();
+    private static String getFinalClassSimpleName(TypeElement autoValueClass) {
         StringBuilder name = new StringBuilder(autoValueClass.getSimpleName().toString());
 
         Element enclosingElement = autoValueClass.getEnclosingElement();
@@ -62,7 +76,16 @@ public final class AutoValueUtil {
      * which is final. This can be used for creating new instances.
      */
     public static ClassName getFinalClassClassName(Context context) {
-        return ClassName.get(context.packageName(), getFinalClassSimpleName(context));
+        return getFinalClassClassName(context.autoValueClass());
+    }
+
+    /**
+     * Returns the {@link ClassName} of the final generated class for any class annotated with
+     * {@link com.google.auto.value.AutoValue}, not only the one that is currently processed.
+     */
+    static ClassName getFinalClassClassName(TypeElement autoValueClass) {
+        String packageName = ClassName.get(autoValueClass).packageName();
+        return ClassName.get(packageName, getFinalClassSimpleName(autoValueClass));
     }
 
     /**
@@ -80,7 +103,27 @@ public final class AutoValueUtil {
                 .addMethod(newConstructor(context.properties()));
     }
 
-    private static TypeVariableName[] getTypeVariables(TypeElement autoValueClass) {
+    /**
+     * Like {@link #newTypeSpecBuilder(Context, String, String, boolean)}, but the constructor
+     * passes immutable copies of {@link java.util.List}, {@link java.util.Set} and
+     * {@link java.util.Map} properties to the super constructor. A collection is passed through
+     * without copying if it's already immutable, which includes Guava's immutable collections if
+     * Guava is on the classpath as well as empty, singleton and Java 9+ immutable collections of
+     * the JDK. {@code Collections.unmodifiable*} views are always copied because the underlying
+     * collection might still be modified. Empty collections are replaced by the shared empty
+     * collections and all other copies are presized for the number of elements.
+     */
+    public static TypeSpec.Builder newTypeSpecBuilderWithDefensiveCopies(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeVariableName[] typeVariables = getTypeVariables(context.autoValueClass());
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addModifiers(isFinal ? FINAL : ABSTRACT)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .superclass(getSuperClass(context.packageName(), classToExtend, typeVariables));
+        return builder.addMethod(DefensiveCopies.newConstructor(context, builder));
+    }
+
+    static TypeVariableName[] getTypeVariables(TypeElement autoValueClass) {
         List<? extends TypeParameterElement> parameters = autoValueClass.getTypeParameters();
         TypeVariableName[] typeVariables = new TypeVariableName[parameters.size()];
         for (int i = 0, length = typeVariables.length; i < length; i++) {
@@ -100,15 +143,205 @@ public final class AutoValueUtil {
     }
 
     private static MethodSpec newConstructor(Map<String, ExecutableElement> properties) {
+        CodeBlock code = addProperties(CodeBlock.builder().add("super"), properties.keySet().toArray());
+
+        return MethodSpec.constructorBuilder()
+                .addParameters(newPropertyParameters(properties))
+                .addCode(code)
+                .build();
+    }
+
+    /**
+     * Returns a parameter for each of the given {@code properties} in the same order that is used
+     * by the constructors of the generated classes.
+     */
+    static List<ParameterSpec> newPropertyParameters(Map<String, ExecutableElement> properties) {
         List<ParameterSpec> params = Lists.newArrayList();
         for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
             TypeName typeName = TypeName.get(entry.getValue().getReturnType());
             params.add(ParameterSpec.builder(typeName, entry.getKey()).build());
         }
+        return params;
+    }
 
-        CodeBlock code = addProperties(CodeBlock.builder().add("super"), properties.keySet().toArray());
+    /**
+     * Adds a cached hash code to the given {@code builder} which was created with
+     * {@link #newTypeSpecBuilder(Context, String, String, boolean)}. The generated
+     * {@code hashCode()} delegates to the implementation of the super class, so it covers all
+     * properties of the AutoValue class and works for generic classes.
+     *
+     * <p>If {@code eager} is false the hash code is computed on first use and stored in a
+     * non-volatile {@code int} field. Like {@link String#hashCode()} this is race-safe because the
+     * computation is idempotent and {@code int} writes are atomic; a hash code of {@code 0} will be
+     * recomputed on every call. If {@code eager} is true the hash code is computed in the
+     * constructor and stored in a final field.
+     */
+    public static void addCachedHashCode(TypeSpec.Builder builder, boolean eager) {
+        String name = "cachedHashCode";
+        MethodSpec.Builder hashCode = MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class);
+        if (eager) {
+            builder.addField(FieldSpec.builder(int.class, name, PRIVATE, TRANSIENT, FINAL).build());
+            addToConstructor(builder, CodeBlock.of("this.$N = super.hashCode();\n", name));
+            hashCode.addStatement("return $N", name);
+        } else {
+            builder.addField(FieldSpec.builder(int.class, name, PRIVATE, TRANSIENT).build());
+            hashCode.addStatement("int h = $N", name)
+                    .beginControlFlow("if (h == 0)")
+                    .addStatement("h = super.hashCode()")
+                    .addStatement("$N = h", name)
+                    .endControlFlow()
+                    .addStatement("return h");
+        }
+        builder.addMethod(hashCode.build());
+    }
+
+    /**
+     * Overrides the method of {@code property} in {@code builder} so that the result of the super
+     * implementation is computed once and cached in a transient field using the given
+     * {@code memoization} strategy. Unlike AutoValue properties the method has to be concrete,
+     * non-private, non-final and non-static and can't take parameters. Null results of methods
+     * for which {@link Property#nullable()} is true are cached as well, all other methods throw a
+     * {@link NullPointerException} when the super implementation returns null.
+     *
+     * <p>Calls {@link #error(Context, Property, String)} instead of adding anything if the method
+     * can't be memoized.
+     */
+    public static void addMemoizedMethod(Context context, TypeSpec.Builder builder,
+            Property property, Memoization memoization) {
+        String error = MemoizedMethods.check(property.element(), memoization);
+        if (error != null) {
+            error(context, property, error);
+            return;
+        }
+        switch (memoization) {
+            case DOUBLE_CHECKED:
+                MemoizedMethods.addDoubleChecked(builder, property);
+                break;
+            case RACY_SINGLE_CHECK:
+                MemoizedMethods.addRacySingleCheck(builder, property);
+                break;
+            case HOLDER:
+                MemoizedMethods.addHolder(context, builder, property);
+                break;
+            default:
+                throw new AssertionError(memoization);
+        }
+    }
 
-        return MethodSpec.constructorBuilder().addParameters(params).addCode(code).build();
+    /**
+     * Adds a {@code withX(value)} method for every property {@code x} to {@code builder}, which
+     * returns a copy of the instance with only that property changed. The copy is created directly
+     * with {@link #newFinalClassConstructorCall(Context, Object[])}, so unlike
+     * {@code toBuilder().x(value).build()} no builder is allocated and every other property is
+     * passed through once. If {@code value} is the current value the method returns {@code this}.
+     * References and primitives are compared with {@code ==}, {@code float} and {@code double}
+     * values by their bits like in the generated {@code equals()}.
+     *
+     * <p>If the AutoValue class declares an abstract method with the same name and a single
+     * parameter of the property type it is overridden, in that case the extension should return
+     * it from {@link AutoValueExtension#consumeMethods(Context)}.
+     */
+    public static void addWithMethods(Context context, TypeSpec.Builder builder) {
+        TypeName autoValueClass = getAutoValueClassTypeName(context);
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        for (Property property : properties) {
+            String name = property.humanName();
+            String methodName = "with" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            Object[] values = new Object[properties.size()];
+            for (int i = 0; i < values.length; i++) {
+                Property other = properties.get(i);
+                values[i] = other == property ? name : other.methodName() + "()";
+            }
+            TypeName type = property.type().withoutAnnotations();
+            CodeBlock unchanged;
+            if (type.equals(TypeName.DOUBLE)) {
+                unchanged = CodeBlock.of("$1T.doubleToLongBits($2N) == $1T.doubleToLongBits($3N())",
+                        Double.class, name, property.methodName());
+            } else if (type.equals(TypeName.FLOAT)) {
+                unchanged = CodeBlock.of("$1T.floatToIntBits($2N) == $1T.floatToIntBits($3N())",
+                        Float.class, name, property.methodName());
+            } else {
+                unchanged = CodeBlock.of("$N == $N()", name, property.methodName());
+            }
+            MethodSpec.Builder method = MethodSpec.methodBuilder(methodName)
+                    .addModifiers(PUBLIC)
+                    .returns(autoValueClass)
+                    .addParameter(property.type(), name)
+                    .beginControlFlow("if ($L)", unchanged)
+                    .addStatement("return this")
+                    .endControlFlow()
+                    .addCode("return ")
+                    .addCode(newFinalClassConstructorCall(context, values));
+            if (declaresAbstractMethod(context, methodName, type)) {
+                method.addAnnotation(Override.class);
+            }
+            builder.addMethod(method.build());
+        }
+    }
+
+    private static boolean declaresAbstractMethod(Context context, String name, TypeName type) {
+        for (ExecutableElement method : context.abstractMethods()) {
+            if (method.getSimpleName().contentEquals(name)
+                    && method.getParameters().size() == 1
+                    && TypeName.get(method.getParameters().get(0).asType()).equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the instances of the class created by {@link #newTypeSpecBuilder} if the processor
+     * option {@link #ALLOCATION_TELEMETRY_OPTION} is set to {@code true}, otherwise nothing is
+     * added and the generated class has no overhead. The class gets a static
+     * {@link AllocationTelemetry.Counter} for the qualified name of the AutoValue class which is
+     * incremented at the end of the constructor, so the counts of all types can be read from
+     * {@link AllocationTelemetry} or through JMX while the application is running.
+     *
+     * <p>The generated code depends on {@link AllocationTelemetry} at runtime. Instances that are
+     * created without calling the constructor of the generated class, like the nested
+     * implementations of {@link SparseUtil} or {@link BitPackingUtil}, aren't counted.
+     */
+    public static void addAllocationCounter(Context context, TypeSpec.Builder builder) {
+        if (!isAllocationTelemetryEnabled(context)) {
+            return;
+        }
+        String name = "ALLOCATION_COUNTER";
+        builder.addField(FieldSpec.builder(AllocationTelemetry.Counter.class, name, PRIVATE,
+                        STATIC, FINAL)
+                .initializer("$T.counter($S)", AllocationTelemetry.class,
+                        context.autoValueClass().getQualifiedName().toString())
+                .build());
+        addToConstructor(builder, CodeBlock.of("$N.increment();\n", name));
+    }
+
+    private static boolean isAllocationTelemetryEnabled(Context context) {
+        Map<String, String> options = context.processingEnvironment().getOptions();
+        if (!options.containsKey(ALLOCATION_TELEMETRY_OPTION)) {
+            return false;
+        }
+        // -Akey without a value enables it as well
+        String value = options.get(ALLOCATION_TELEMETRY_OPTION);
+        return value == null || Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Appends {@code code} to the constructor that was added by
+     * {@link #newTypeSpecBuilder(Context, String, String, boolean)}.
+     */
+    static void addToConstructor(TypeSpec.Builder builder, CodeBlock code) {
+        List<MethodSpec> methods = builder.methodSpecs;
+        for (int i = 0; i < methods.size(); i++) {
+            MethodSpec method = methods.get(i);
+            if (method.isConstructor()) {
+                methods.set(i, method.toBuilder().addCode(code).build());
+                return;
+            }
+        }
+        throw new IllegalArgumentException("The given builder has no constructor.");
     }
 
     /**
@@ -0,0 +1,590 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.element.Modifier.VOLATILE;
+
+/**
+ * Generates a compact binary encoding for AutoValue classes.
+ *
+ * <p>Properties are written in declaration order without any names or tags. Primitives use their
+ * fixed size big-endian representation, strings and {@code byte[]} are written as an {@code int}
+ * length followed by the UTF-8 or raw bytes, enums as their ordinal and nested AutoValue classes
+ * by calling the codec methods of their own generated class. Nullable reference types are prefixed
+ * with a {@code boolean} that is false for null.
+ */
+public final class BinaryCodecUtil {
+
+    /**
+     * Adds the following static methods to the given {@code builder} which was created with
+     * {@link AutoValueUtil#newTypeSpecBuilder}:
+     *
+     * <pre>
+     * static void writeTo(AutoValueClass value, DataOutput output) throws IOException
+     * static AutoValueClass readFrom(DataInput input) throws IOException
+     * static void writeTo(AutoValueClass value, ByteBuffer buffer)
+     * static AutoValueClass readFrom(ByteBuffer buffer)
+     * </pre>
+     *
+     * The methods are static so that nested AutoValue classes can be encoded without knowing the
+     * generated class of the value. Nested AutoValue classes must be in the same package and need
+     * to have the same methods generated. Properties of other types will be reported with
+     * {@link AutoValueUtil#error(Context, Property, String)} and no methods are added.
+     */
+    public static void addBinaryCodec(Context context, TypeSpec.Builder builder) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        if (!checkSupported(context, properties)) {
+            return;
+        }
+
+        for (Property property : properties) {
+            if (isEnum(property.element().getReturnType())) {
+                TypeName enumType = property.type().withoutAnnotations();
+                TypeName arrayType = ArrayTypeName.of(enumType);
+                builder.addField(FieldSpec.builder(
+                        arrayType, enumValuesName(property), PRIVATE, STATIC, FINAL)
+                        .initializer("$T.values()", enumType)
+                        .build());
+            }
+        }
+        boolean needsByteArrayHelpers = false;
+        for (Property property : properties) {
+            TypeMirror type = property.element().getReturnType();
+            needsByteArrayHelpers |= isString(property) || isByteArray(type);
+        }
+        for (Flavor flavor : Flavor.values()) {
+            builder.addMethod(newWriteMethod(context, properties, flavor))
+                    .addMethod(newReadMethod(context, properties, flavor));
+            if (needsByteArrayHelpers) {
+                builder.addMethods(newByteArrayHelpers(flavor));
+            }
+        }
+    }
+
+    /**
+     * Adds a static nested class called {@code className} and the following static method to the
+     * given {@code builder}, which must already contain the methods added by
+     * {@link #addBinaryCodec(Context, TypeSpec.Builder)}:
+     *
+     * <pre>
+     * static AutoValueClass readLazilyFrom(ByteBuffer buffer)
+     * </pre>
+     *
+     * Like {@code readFrom(ByteBuffer)} the method advances the position of {@code buffer} past
+     * the encoded value, but it only reads the lengths and null markers that are needed to find
+     * the offset of each property. The returned instance of the nested class keeps a read-only
+     * view of {@code buffer} and the offsets, and decodes a property when its accessor is called.
+     * Primitives and enums are read from the buffer on every call, which doesn't allocate, all
+     * other properties are decoded once and stored in a volatile field. Nested AutoValue classes
+     * are decoded eagerly with their {@code readFrom(ByteBuffer)} method because their size isn't
+     * known without decoding them.
+     *
+     * <p>{@code equals()}, {@code hashCode()} and {@code toString()} call all accessors, which
+     * decodes every property. The content of {@code buffer} must not be changed while any of the
+     * returned instances are in use.
+     *
+     * <p>The nested class is an implementation as described in {@link ImplementationUtil}. If the
+     * AutoValue class has abstract methods that aren't properties neither the method nor the
+     * class is added.
+     */
+    public static void addLazyDecoding(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        if (!checkSupported(context, properties)) {
+            return;
+        }
+
+        NameAllocator names = new NameAllocator();
+        String buffer = names.newName("buffer");
+        String at = names.newName("at");
+        TypeSpec.Builder lazy = ImplementationUtil.newImplementationBuilder(context, className)
+                .addField(ByteBuffer.class, buffer, PRIVATE, FINAL);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameter(ByteBuffer.class, buffer)
+                .addStatement("this.$1N = $1N.asReadOnlyBuffer().order($1N.order())", buffer);
+        MethodSpec.Builder read = MethodSpec.methodBuilder("readLazilyFrom")
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .returns(AutoValueUtil.getAutoValueClassTypeName(context))
+                .addParameter(ByteBuffer.class, "buffer");
+        NameAllocator locals = new NameAllocator();
+        locals.newName("buffer");
+        List<String> arguments = new ArrayList<>();
+        arguments.add("buffer");
+        boolean needsAt = false;
+        for (Property property : properties) {
+            TypeMirror type = property.element().getReturnType();
+            TypeName typeName = property.type().withoutAnnotations();
+            boolean nullable = property.nullable() && !typeName.isPrimitive();
+            if (isAutoValue(type)) {
+                String value = names.newName(property.humanName());
+                String local = locals.newName(property.humanName());
+                lazy.addField(typeName, value, PRIVATE, FINAL)
+                        .addMethod(ImplementationUtil.newAccessor(property)
+                                .addStatement("return $N", value)
+                                .build());
+                constructor.addParameter(typeName, value)
+                        .addCode(ImplementationUtil.nullCheck(property, value))
+                        .addStatement("this.$1N = $1N", value);
+                read.addStatement(nullable
+                        ? "$T $N = buffer.get() != 0 ? $T.readFrom(buffer) : null"
+                        : "$T $N = $T.readFrom(buffer)", typeName, local, finalClassOf(type));
+                arguments.add(local);
+                continue;
+            }
+
+            String offset = names.newName(property.humanName() + "Offset");
+            String local = locals.newName(property.humanName() + "Offset");
+            lazy.addField(int.class, offset, PRIVATE, FINAL);
+            constructor.addParameter(int.class, offset)
+                    .addStatement("this.$1N = $1N", offset);
+            arguments.add(local);
+            CodeBlock skip = isString(property) || isByteArray(type)
+                    ? CodeBlock.of("buffer.position($1N + 4 + buffer.getInt($1N))", local)
+                    : CodeBlock.of("buffer.position($N + $L)", local, sizeOf(context, type));
+            if (nullable) {
+                read.addStatement("int $N = buffer.get() != 0 ? buffer.position() : -1", local)
+                        .beginControlFlow("if ($N >= 0)", local)
+                        .addStatement(skip)
+                        .endControlFlow();
+            } else {
+                read.addStatement("int $N = buffer.position()", local)
+                        .addStatement(skip);
+            }
+
+            MethodSpec.Builder accessor = ImplementationUtil.newAccessor(property);
+            if (type.getKind().isPrimitive() || isEnum(type)) {
+                CodeBlock decode = readAt(context, property, buffer, offset);
+                // enum constants are cached by the values array, so they don't need a field
+                if (nullable) {
+                    accessor.addStatement("return $N < 0 ? null : $L", offset, decode);
+                } else {
+                    accessor.addStatement("return $L", decode);
+                }
+                lazy.addMethod(accessor.build());
+                continue;
+            }
+            // decoded values are published through a volatile field because byte[] has no
+            // final field semantics, all other values would be safe with a racy single check
+            String value = names.newName(property.humanName());
+            lazy.addField(FieldSpec.builder(typeName, value, PRIVATE, VOLATILE).build());
+            CodeBlock decode;
+            if (typeName.isBoxedPrimitive()) {
+                decode = readAt(context, property, buffer, offset);
+            } else {
+                needsAt = true;
+                decode = isString(property)
+                        ? CodeBlock.of("readString($N($N))", at, offset)
+                        : CodeBlock.of("readByteArray($N($N))", at, offset);
+            }
+            accessor.addStatement("$T value = $N", typeName, value)
+                    .beginControlFlow(nullable
+                            ? "if (value == null && $N >= 0)"
+                            : "if (value == null)", offset)
+                    .addStatement("value = $L", decode)
+                    .addStatement("$N = value", value)
+                    .endControlFlow()
+                    .addStatement("return value");
+            lazy.addMethod(accessor.build());
+        }
+        lazy.addMethod(constructor.build());
+        ImplementationUtil.addValueMethods(context, lazy, properties);
+        if (needsAt) {
+            lazy.addMethod(MethodSpec.methodBuilder(at)
+                    .addModifiers(PRIVATE)
+                    .returns(ByteBuffer.class)
+                    .addParameter(int.class, "offset")
+                    .addStatement("$T source = $N.duplicate().order($N.order())",
+                            ByteBuffer.class, buffer, buffer)
+                    .addStatement("source.position(offset)")
+                    .addStatement("return source")
+                    .build());
+        }
+        if (!ImplementationUtil.implementsAbstractMethods(context, lazy, className)) {
+            return;
+        }
+        ClassName lazyName = ClassName.get("", className);
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        CodeBlock.Builder call = CodeBlock.builder()
+                .add(typeVariables.length == 0 ? "return new $T(" : "return new $T<>(", lazyName);
+        for (int i = 0; i < arguments.size(); i++) {
+            call.add(i == 0 ? "$N" : ", $N", arguments.get(i));
+        }
+        read.addStatement("$L)", call.build());
+        builder.addMethod(read.build())
+                .addType(lazy.build());
+    }
+
+    private static CodeBlock readAt(
+            Context context, Property property, String buffer, String offset) {
+        TypeMirror type = property.element().getReturnType();
+        if (isEnum(type)) {
+            return CodeBlock.of("$N[$N.getInt($N)]", enumValuesName(property), buffer, offset);
+        }
+        TypeKind kind = type.getKind().isPrimitive() ? type.getKind() : unboxedKind(context, type);
+        switch (kind) {
+            case BOOLEAN:
+                return CodeBlock.of("$N.get($N) != 0", buffer, offset);
+            case BYTE:
+                return CodeBlock.of("$N.get($N)", buffer, offset);
+            default:
+                return CodeBlock.of("$N.get$L($N)",
+                        buffer, Flavor.methodSuffix(kind), offset);
+        }
+    }
+
+    private static int sizeOf(Context context, TypeMirror type) {
+        if (isEnum(type)) {
+            return 4;
+        }
+        TypeKind kind = type.getKind().isPrimitive() ? type.getKind() : unboxedKind(context, type);
+        switch (kind) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            default:
+                return 8;
+        }
+    }
+
+    private static boolean checkSupported(Context context, List<Property> properties) {
+        boolean supported = true;
+        for (Property property : properties) {
+            String error = checkSupported(context, property);
+            if (error != null) {
+                AutoValueUtil.error(context, property, error);
+                supported = false;
+            }
+        }
+        return supported;
+    }
+
+    private static String checkSupported(Context context, Property property) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind().isPrimitive()
+                || isByteArray(type)
+                || isString(property)
+                || isEnum(type)
+                || property.type().withoutAnnotations().isBoxedPrimitive()) {
+            return null;
+        }
+        if (isAutoValue(type)) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (!ClassName.get(element).packageName().equals(context.packageName())) {
+                return "Nested AutoValue classes must be in package " + context.packageName();
+            }
+            return null;
+        }
+        return "Binary encoding is not supported for " + property.type();
+    }
+
+    private static MethodSpec newWriteMethod(
+            Context context, List<Property> properties, Flavor flavor) {
+        NameAllocator names = new NameAllocator();
+        String value = names.newName("value");
+        String target = names.newName(flavor.writeTarget);
+        MethodSpec.Builder write = MethodSpec.methodBuilder("writeTo")
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .addParameter(AutoValueUtil.getAutoValueClassTypeName(context), value)
+                .addParameter(flavor.writeType, target);
+        if (flavor.throwsIOException) {
+            write.addException(IOException.class);
+        }
+        for (Property property : properties) {
+            CodeBlock getter = CodeBlock.of("$N.$N()", value, property.methodName());
+            if (!property.nullable() || property.type().isPrimitive()) {
+                write.addStatement(writeValue(context, property, flavor, target, getter));
+                continue;
+            }
+            String local = names.newName(property.humanName());
+            write.addStatement("$T $N = $L", property.type().withoutAnnotations(), local, getter)
+                    .beginControlFlow("if ($N == null)", local)
+                    .addStatement(flavor.writePresence(target, false))
+                    .nextControlFlow("else")
+                    .addStatement(flavor.writePresence(target, true))
+                    .addStatement(writeValue(
+                            context, property, flavor, target, CodeBlock.of("$N", local)))
+                    .endControlFlow();
+        }
+        return write.build();
+    }
+
+    private static CodeBlock writeValue(
+            Context context, Property property, Flavor flavor, String target, CodeBlock value) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind().isPrimitive()) {
+            return flavor.write(type.getKind(), target, value);
+        }
+        if (property.type().withoutAnnotations().isBoxedPrimitive()) {
+            return flavor.write(unboxedKind(context, type), target, value);
+        }
+        if (isEnum(type)) {
+            return flavor.write(TypeKind.INT, target, CodeBlock.of("$L.ordinal()", value));
+        }
+        if (isAutoValue(type)) {
+            return CodeBlock.of("$T.writeTo($L, $N)", finalClassOf(type), value, target);
+        }
+        if (isString(property)) {
+            return CodeBlock.of("writeString($N, $L)", target, value);
+        }
+        return CodeBlock.of("writeByteArray($N, $L)", target, value);
+    }
+
+    private static MethodSpec newReadMethod(
+            Context context, List<Property> properties, Flavor flavor) {
+        NameAllocator names = new NameAllocator();
+        String source = names.newName(flavor.readSource);
+        MethodSpec.Builder read = MethodSpec.methodBuilder("readFrom")
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .returns(AutoValueUtil.getAutoValueClassTypeName(context))
+                .addParameter(flavor.readType, source);
+        if (flavor.throwsIOException) {
+            read.addException(IOException.class);
+        }
+        String[] locals = new String[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            TypeName type = property.type().withoutAnnotations();
+            locals[i] = names.newName(property.humanName());
+            CodeBlock value = readValue(context, property, flavor, source);
+            if (!property.nullable() || type.isPrimitive()) {
+                read.addStatement("$T $N = $L", type, locals[i], value);
+            } else {
+                read.addStatement("$T $N = $L ? $L : null",
+                        type, locals[i], flavor.read(TypeKind.BOOLEAN, source), value);
+            }
+        }
+        return read.addCode("return ")
+                .addCode(AutoValueUtil.newFinalClassConstructorCall(context, locals))
+                .build();
+    }
+
+    private static CodeBlock readValue(
+            Context context, Property property, Flavor flavor, String source) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind().isPrimitive()) {
+            return flavor.read(type.getKind(), source);
+        }
+        if (property.type().withoutAnnotations().isBoxedPrimitive()) {
+            return flavor.read(unboxedKind(context, type), source);
+        }
+        if (isEnum(type)) {
+            CodeBlock ordinal = flavor.read(TypeKind.INT, source);
+            return CodeBlock.of("$N[$L]", enumValuesName(property), ordinal);
+        }
+        if (isAutoValue(type)) {
+            return CodeBlock.of("$T.readFrom($N)", finalClassOf(type), source);
+        }
+        if (isString(property)) {
+            return CodeBlock.of("readString($N)", source);
+        }
+        return CodeBlock.of("readByteArray($N)", source);
+    }
+
+    private static List<MethodSpec> newByteArrayHelpers(Flavor flavor) {
+        MethodSpec.Builder writeByteArray = MethodSpec.methodBuilder("writeByteArray")
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(flavor.writeType, flavor.writeTarget)
+                .addParameter(byte[].class, "bytes")
+                .addStatement(flavor.write(TypeKind.INT, flavor.writeTarget, "bytes.length"))
+                .addStatement(flavor.write(TypeKind.ARRAY, flavor.writeTarget, "bytes"));
+        MethodSpec.Builder readByteArray = MethodSpec.methodBuilder("readByteArray")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(byte[].class)
+                .addParameter(flavor.readType, flavor.readSource)
+                .addStatement("byte[] bytes = new byte[$L]",
+                        flavor.read(TypeKind.INT, flavor.readSource))
+                .addStatement(flavor.readBytes(flavor.readSource, "bytes"))
+                .addStatement("return bytes");
+        MethodSpec.Builder writeString = MethodSpec.methodBuilder("writeString")
+                .addModifiers(PRIVATE, STATIC)
+                .addParameter(flavor.writeType, flavor.writeTarget)
+                .addParameter(String.class, "value")
+                .addStatement("writeByteArray($N, value.getBytes($T.UTF_8))",
+                        flavor.writeTarget, StandardCharsets.class);
+        MethodSpec.Builder readString = MethodSpec.methodBuilder("readString")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(String.class)
+                .addParameter(flavor.readType, flavor.readSource)
+                .addStatement("return new $T(readByteArray($N), $T.UTF_8)",
+                        String.class, flavor.readSource, StandardCharsets.class);
+        List<MethodSpec.Builder> helpers =
+                Arrays.asList(writeByteArray, readByteArray, writeString, readString);
+        ImmutableList.Builder<MethodSpec> methods = ImmutableList.builder();
+        for (MethodSpec.Builder helper : helpers) {
+            if (flavor.throwsIOException) {
+                helper.addException(IOException.class);
+            }
+            methods.add(helper.build());
+        }
+        return methods.build();
+    }
+
+    private static TypeKind unboxedKind(Context context, TypeMirror boxedType) {
+        return context.processingEnvironment().getTypeUtils().unboxedType(boxedType).getKind();
+    }
+
+    private static String enumValuesName(Property property) {
+        return CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, property.humanName())
+                + "_VALUES";
+    }
+
+    private static boolean isString(Property property) {
+        return property.type().withoutAnnotations().equals(ClassName.get(String.class));
+    }
+
+    private static boolean isByteArray(TypeMirror type) {
+        return type.getKind() == TypeKind.ARRAY
+                && ((ArrayType) type).getComponentType().getKind()
+                        == TypeKind.BYTE;
+    }
+
+    private static boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind()
+                        == ElementKind.ENUM;
+    }
+
+    private static boolean isAutoValue(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && ElementUtil.hasAnnotationWithName(
+                        ((DeclaredType) type).asElement(), "AutoValue");
+    }
+
+    private static ClassName finalClassOf(TypeMirror type) {
+        return AutoValueUtil.getFinalClassClassName(
+                (TypeElement) ((DeclaredType) type).asElement());
+    }
+
+    private enum Flavor {
+        STREAM(DataOutput.class, "output", DataInput.class, "input", true),
+        BUFFER(ByteBuffer.class, "buffer", ByteBuffer.class, "buffer", false);
+
+        final Class<?> writeType;
+        final String writeTarget;
+        final Class<?> readType;
+        final String readSource;
+        final boolean throwsIOException;
+
+        Flavor(Class<?> writeType, String writeTarget, Class<?> readType, String readSource,
+                boolean throwsIOException) {
+            this.writeType = writeType;
+            this.writeTarget = writeTarget;
+            this.readType = readType;
+            this.readSource = readSource;
+            this.throwsIOException = throwsIOException;
+        }
+
+        CodeBlock write(TypeKind kind, String target, Object value) {
+            if (this == STREAM) {
+                return CodeBlock.of("$N.write$L($L)", target, methodSuffix(kind), value);
+            }
+            switch (kind) {
+                case BOOLEAN:
+                    return CodeBlock.of("$N.put($L ? (byte) 1 : (byte) 0)", target, value);
+                case BYTE:
+                case ARRAY:
+                    return CodeBlock.of("$N.put($L)", target, value);
+                default:
+                    return CodeBlock.of("$N.put$L($L)", target, methodSuffix(kind), value);
+            }
+        }
+
+        CodeBlock writePresence(String target, boolean present) {
+            if (this == STREAM) {
+                return write(TypeKind.BOOLEAN, target, present);
+            }
+            return CodeBlock.of("$N.put((byte) $L)", target, present ? 1 : 0);
+        }
+
+        CodeBlock read(TypeKind kind, String source) {
+            if (this == STREAM) {
+                return CodeBlock.of("$N.read$L()", source, methodSuffix(kind));
+            }
+            switch (kind) {
+                case BOOLEAN:
+                    return CodeBlock.of("$N.get() != 0", source);
+                case BYTE:
+                    return CodeBlock.of("$N.get()", source);
+                default:
+                    return CodeBlock.of("$N.get$L()", source, methodSuffix(kind));
+            }
+        }
+
+        CodeBlock readBytes(String source, String bytes) {
+            if (this == STREAM) {
+                return CodeBlock.of("$N.readFully($N)", source, bytes);
+            }
+            return CodeBlock.of("$N.get($N)", source, bytes);
+        }
+
+        private static String methodSuffix(TypeKind kind) {
+            switch (kind) {
+                case BOOLEAN:
+                    return "Boolean";
+                case BYTE:
+                    return "Byte";
+                case SHORT:
+                    return "Short";
+                case CHAR:
+                    return "Char";
+                case INT:
+                    return "Int";
+                case LONG:
+                    return "Long";
+                case FLOAT:
+                    return "Float";
+                case DOUBLE:
+                    return "Double";
+                case ARRAY:
+                    return "";
+                default:
+                    throw new IllegalArgumentException("Unsupported kind " + kind);
+            }
+        }
+    }
+
+    private BinaryCodecUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,290 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates implementations of AutoValue classes that store {@code boolean}, {@code byte} and
+ * small enum properties packed into {@code int} or {@code long} bit fields.
+ */
+public final class BitPackingUtil {
+
+    private static final int MAX_ENUM_BITS = 8;
+
+    /**
+     * Adds a static nested class called {@code className} that extends the AutoValue class to the
+     * given {@code builder} which was created with {@link AutoValueUtil#newTypeSpecBuilder}.
+     * Instances are created with {@code new AutoValue_Foo.ClassName(...)} using the same
+     * parameters as the constructor of the generated AutoValue class.
+     *
+     * <p>Each {@code boolean} takes 1 bit, each {@code byte} 8 bits and each enum with up to 256
+     * constants (including null for nullable properties) as many bits as its ordinal needs. These
+     * are packed in declaration order into as few {@code int} or {@code long} fields as possible
+     * and decoded in the accessors. All other properties are stored in regular fields. The
+     * constructor throws an {@link IllegalArgumentException} for an enum constant whose ordinal
+     * doesn't fit, which happens if constants were added to the enum after the class was
+     * generated.
+     *
+     * <p>The class is a nested implementation as described in {@link ImplementationUtil}. It
+     * can't extend the generated AutoValue implementation, because the fields of that class would
+     * still be allocated for every instance.
+     */
+    public static void addPackedClass(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        NameAllocator names = new NameAllocator();
+        for (Property property : properties) {
+            names.newName(property.humanName(), property);
+        }
+
+        List<Word> words = new ArrayList<>();
+        Map<Property, Slot> slots = new LinkedHashMap<>();
+        for (Property property : properties) {
+            int bits = packedBits(property);
+            if (bits == 0) {
+                continue;
+            }
+            Word word = words.isEmpty() ? null : words.get(words.size() - 1);
+            if (word == null || word.used + bits > Long.SIZE) {
+                word = new Word();
+                words.add(word);
+            }
+            slots.put(property, new Slot(word, word.used, bits));
+            word.used += bits;
+        }
+        for (int i = 0; i < words.size(); i++) {
+            words.get(i).name = names.newName(words.size() == 1 ? "bits" : "bits" + i);
+        }
+
+        TypeSpec.Builder packed = ImplementationUtil.newImplementationBuilder(context, className);
+        for (Word word : words) {
+            packed.addField(word.type(), word.name, PRIVATE, FINAL);
+        }
+        for (Property property : properties) {
+            if (!slots.containsKey(property)) {
+                packed.addField(property.type().withoutAnnotations(), names.get(property),
+                        PRIVATE, FINAL);
+            } else if (isEnum(property)) {
+                Slot slot = slots.get(property);
+                slot.valuesName = names.newName(CaseFormat.LOWER_CAMEL
+                        .to(CaseFormat.UPPER_UNDERSCORE, property.humanName()) + "_VALUES");
+                TypeName enumType = property.type().withoutAnnotations();
+                packed.addField(FieldSpec.builder(ArrayTypeName.of(enumType), slot.valuesName,
+                        PRIVATE, STATIC, FINAL)
+                        .initializer("$T.values()", enumType)
+                        .build());
+            }
+        }
+
+        packed.addMethod(newConstructor(context, properties, words, slots, names));
+        for (Property property : properties) {
+            MethodSpec.Builder accessor = ImplementationUtil.newAccessor(property);
+            Slot slot = slots.get(property);
+            if (slot == null) {
+                accessor.addStatement("return $N", names.get(property));
+            } else {
+                addDecoding(accessor, property, slot);
+            }
+            packed.addMethod(accessor.build());
+        }
+        ImplementationUtil.addValueMethods(context, packed, properties);
+        if (ImplementationUtil.implementsAbstractMethods(context, packed, className)) {
+            builder.addType(packed.build());
+        }
+    }
+
+    private static MethodSpec newConstructor(Context context, List<Property> properties,
+            List<Word> words, Map<Property, Slot> slots, NameAllocator names) {
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        for (Property property : properties) {
+            constructor.addCode(ImplementationUtil.nullCheck(property, property.humanName()));
+        }
+        for (Map.Entry<Property, Slot> entry : slots.entrySet()) {
+            if (isEnum(entry.getKey())) {
+                addOrdinalCheck(constructor, entry.getKey(), entry.getValue());
+            }
+        }
+        for (Property property : properties) {
+            if (!slots.containsKey(property)) {
+                constructor.addStatement("this.$N = $N", names.get(property), property.humanName());
+            }
+        }
+        for (Word word : words) {
+            CodeBlock.Builder value = CodeBlock.builder();
+            boolean first = true;
+            for (Map.Entry<Property, Slot> entry : slots.entrySet()) {
+                if (entry.getValue().word != word) {
+                    continue;
+                }
+                if (!first) {
+                    value.add("\n| ");
+                }
+                value.add(encode(entry.getKey(), entry.getValue()));
+                first = false;
+            }
+            constructor.addStatement("this.$N = $L", word.name, value.build());
+        }
+        return constructor.build();
+    }
+
+    /**
+     * Adds a check that the ordinal of the enum {@code property} fits into its slot. The number of
+     * bits is computed from the constants at compile time, an enum that gained constants since
+     * then would otherwise silently decode to the wrong constant.
+     */
+    private static void addOrdinalCheck(
+            MethodSpec.Builder constructor, Property property, Slot slot) {
+        String name = property.humanName();
+        // 0 is reserved for null in nullable slots
+        long limit = (1L << slot.bits) - (property.nullable() ? 1 : 0);
+        if (property.nullable()) {
+            constructor.beginControlFlow(
+                    "if ($N != null && $N.ordinal() >= $L)", name, name, limit);
+        } else {
+            constructor.beginControlFlow("if ($N.ordinal() >= $L)", name, limit);
+        }
+        constructor.addStatement("throw new $T($S + $N)", IllegalArgumentException.class,
+                        "Ordinal of " + name + " doesn't fit into " + slot.bits + " bits: ", name)
+                .endControlFlow();
+    }
+
+    private static CodeBlock encode(Property property, Slot slot) {
+        String name = property.humanName();
+        boolean isLong = slot.word.isLong();
+        CodeBlock value;
+        switch (property.element().getReturnType().getKind()) {
+            case BOOLEAN:
+                value = CodeBlock.of(isLong ? "($N ? 1L : 0L)" : "($N ? 1 : 0)", name);
+                break;
+            case BYTE:
+                value = CodeBlock.of(isLong ? "(long) ($N & 0xFF)" : "($N & 0xFF)", name);
+                break;
+            default:
+                CodeBlock ordinal = property.nullable()
+                        ? CodeBlock.of("($N == null ? 0 : $N.ordinal() + 1)", name, name)
+                        : CodeBlock.of("$N.ordinal()", name);
+                value = isLong ? CodeBlock.of("(long) $L", ordinal) : ordinal;
+                break;
+        }
+        if (slot.shift == 0) {
+            return value;
+        }
+        return CodeBlock.of("$L << $L", value, slot.shift);
+    }
+
+    private static void addDecoding(MethodSpec.Builder accessor, Property property, Slot slot) {
+        String word = slot.word.name;
+        String suffix = slot.word.isLong() ? "L" : "";
+        switch (property.element().getReturnType().getKind()) {
+            case BOOLEAN:
+                accessor.addStatement("return ($N & 0x$L$L) != 0",
+                        word, Long.toHexString(1L << slot.shift), suffix);
+                return;
+            case BYTE:
+                accessor.addStatement("return (byte) ($L)", shifted(slot));
+                return;
+            default:
+                String mask = "0x" + Long.toHexString((1L << slot.bits) - 1);
+                CodeBlock ordinal = slot.word.isLong()
+                        ? CodeBlock.of("(int) ($L) & $L", shifted(slot), mask)
+                        : CodeBlock.of(slot.shift == 0 ? "$L & $L" : "($L) & $L",
+                                shifted(slot), mask);
+                if (property.nullable()) {
+                    accessor.addStatement("int ordinal = $L", ordinal)
+                            .addStatement("return ordinal == 0 ? null : $N[ordinal - 1]",
+                                    slot.valuesName);
+                } else {
+                    accessor.addStatement("return $N[$L]", slot.valuesName, ordinal);
+                }
+        }
+    }
+
+    private static CodeBlock shifted(Slot slot) {
+        if (slot.shift == 0) {
+            return CodeBlock.of("$N", slot.word.name);
+        }
+        return CodeBlock.of("$N >>> $L", slot.word.name, slot.shift);
+    }
+
+    /**
+     * Returns the number of bits needed to store {@code property} or 0 if it can't be packed.
+     */
+    private static int packedBits(Property property) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind() == TypeKind.BOOLEAN) {
+            return 1;
+        }
+        if (type.getKind() == TypeKind.BYTE) {
+            return Byte.SIZE;
+        }
+        if (!isEnum(property)) {
+            return 0;
+        }
+        int values = property.nullable() ? 1 : 0;
+        for (Element element : ((DeclaredType) type).asElement().getEnclosedElements()) {
+            if (element.getKind() == ElementKind.ENUM_CONSTANT) {
+                values++;
+            }
+        }
+        int bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(values - 1));
+        return values == 0 || bits > MAX_ENUM_BITS ? 0 : bits;
+    }
+
+    private static boolean isEnum(Property property) {
+        TypeMirror type = property.element().getReturnType();
+        return type.getKind() == TypeKind.DECLARED
+                && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    private static final class Word {
+        String name;
+        int used;
+
+        boolean isLong() {
+            return used > Integer.SIZE;
+        }
+
+        TypeName type() {
+            return isLong() ? TypeName.LONG : TypeName.INT;
+        }
+    }
+
+    private static final class Slot {
+        final Word word;
+        final int shift;
+        final int bits;
+        String valuesName;
+
+        Slot(Word word, int shift, int bits) {
+            this.word = word;
+            this.shift = shift;
+            this.bits = bits;
+        }
+    }
+
+    private BitPackingUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,342 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.DefensiveCopies.Kind;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Optional;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates builders for the final generated class that are cheap to fill, for example when
+ * deserializing.
+ */
+public final class BuilderUtil {
+
+    private static final String SET = "set$";
+    private static final String OWNED = "owned$";
+    private static final int MAX_BITS = 64;
+
+    /**
+     * Adds a {@code public static final} builder class called {@code builderName} to
+     * {@code builder}. It has a setter for every property and a {@code build()} method that
+     * creates an instance of {@link AutoValueUtil#getFinalClassClassName(Context)}.
+     *
+     * <ul>
+     * <li>Setters use the names of the setters of the {@code @AutoValue.Builder} if the class
+     * declares one, otherwise the property names.</li>
+     * <li>Primitive properties are stored in primitive fields and whether they were set is tracked
+     * in a bit mask, so they are neither boxed nor checked for null. Setters of other properties
+     * check for null unless the property is {@link Property#nullable()}.</li>
+     * <li>For {@code List}, {@code Set} and {@code Map} properties there are additional
+     * {@code addX(E)} or {@code putX(K, V)} methods and a {@code xExpectedSize(int)} method that
+     * creates the collection presized for the given number of elements. It has no effect if
+     * elements were already added. Collections created by the builder are wrapped in unmodifiable
+     * views by {@code build()} instead of being copied. Unset collections that aren't nullable
+     * default to an empty collection.</li>
+     * <li>{@code build()} throws an {@link IllegalStateException} that lists all missing required
+     * properties.</li>
+     * </ul>
+     *
+     * Calls {@link AutoValueUtil#error(Context, Property, String)} instead of adding a builder if
+     * there are more than 64 required or collection properties.
+     */
+    public static void addBuilder(Context context, TypeSpec.Builder builder, String builderName) {
+        addBuilder(context, builder, builderName, false);
+    }
+
+    /**
+     * Like {@link #addBuilder(Context, TypeSpec.Builder, String)}, but if {@code recyclable} is
+     * true the builder also gets a {@code reset()} method that clears all values, so that a single
+     * instance can be used to build many values, for example one per decoded record.
+     *
+     * <p>Builders are not thread-safe. A recyclable builder should be confined to one thread, for
+     * example by keeping it in a local variable of a decoding loop or in a {@link ThreadLocal},
+     * and must not be shared between threads. Values created by {@code build()} don't reference
+     * the builder and are safe to share.
+     */
+    public static void addBuilder(Context context, TypeSpec.Builder builder, String builderName,
+            boolean recyclable) {
+        List<Property> properties = Property.buildProperties(context);
+        Optional<BuilderView> view = BuilderView.of(context);
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        TypeName builderType = typeVariables.length > 0
+                ? ParameterizedTypeName.get(ClassName.get("", builderName), typeVariables)
+                : ClassName.get("", builderName);
+
+        TypeSpec.Builder builderClass = TypeSpec.classBuilder(builderName)
+                .addModifiers(PUBLIC, STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables));
+        MethodSpec.Builder build = MethodSpec.methodBuilder("build")
+                .addModifiers(PUBLIC)
+                .returns(AutoValueUtil.getAutoValueClassTypeName(context));
+        List<MethodSpec> methods = new ArrayList<>();
+        CodeBlock.Builder missing = CodeBlock.builder();
+        CodeBlock.Builder collections = CodeBlock.builder();
+        long required = 0;
+        int requiredBits = 0;
+        int ownedBits = 0;
+        boolean capacity = false;
+        Object[] values = new Object[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            String name = property.humanName();
+            TypeName type = property.type();
+            values[i] = name;
+            builderClass.addField(FieldSpec.builder(type, name, PRIVATE).build());
+            MethodSpec.Builder setter = MethodSpec.methodBuilder(setterName(view, property))
+                    .addModifiers(PUBLIC)
+                    .returns(builderType)
+                    .addParameter(type, name);
+            Kind kind = collectionKind(context, property);
+            if (!type.isPrimitive() && !property.nullable()) {
+                setter.beginControlFlow("if ($N == null)", name)
+                        .addStatement("throw new $T($S)", NullPointerException.class,
+                                "Null " + name)
+                        .endControlFlow();
+            }
+            setter.addStatement("this.$N = $N", name, name);
+            if (kind != null) {
+                if (ownedBits == MAX_BITS) {
+                    AutoValueUtil.error(context, property,
+                            "Builders support at most 64 collection properties");
+                    return;
+                }
+                String bit = bit(ownedBits++);
+                setter.addStatement("$N &= ~$L", OWNED, bit);
+                methods.add(setter.addStatement("return this").build());
+                methods.add(newExpectedSizeMethod(builderType, property, kind, bit));
+                methods.add(newAddMethod(builderType, property, kind, bit));
+                capacity |= kind != Kind.LIST;
+                addCollectionValue(collections, property, kind, bit);
+                continue;
+            }
+            if (!property.nullable()) {
+                if (requiredBits == MAX_BITS) {
+                    AutoValueUtil.error(context, property,
+                            "Builders support at most 64 required properties");
+                    return;
+                }
+                String bit = bit(requiredBits);
+                required |= 1L << requiredBits++;
+                setter.addStatement("$N |= $L", SET, bit);
+                missing.beginControlFlow("if (($N & $L) == 0)", SET, bit)
+                        .addStatement("missing.append($S)", " " + name)
+                        .endControlFlow();
+            }
+            methods.add(setter.addStatement("return this").build());
+        }
+
+        if (requiredBits > 0) {
+            builderClass.addField(long.class, SET, PRIVATE);
+            build.beginControlFlow("if ($N != $L)", SET, bit(required))
+                    .addStatement("$T missing = new $T()", StringBuilder.class,
+                            StringBuilder.class)
+                    .addCode(missing.build())
+                    .addStatement("throw new $T($S + missing)", IllegalStateException.class,
+                            "Missing required properties:")
+                    .endControlFlow();
+        }
+        if (ownedBits > 0) {
+            builderClass.addField(long.class, OWNED, PRIVATE);
+            // collections that were passed to build() must be copied before they are modified
+            build.addCode(collections.build())
+                    .addStatement("$N = 0L", OWNED);
+        }
+        build.addCode("return ")
+                .addCode(AutoValueUtil.newFinalClassConstructorCall(context, values));
+        builderClass.addMethods(methods).addMethod(build.build());
+        if (recyclable) {
+            builderClass.addMethod(newResetMethod(builderType, properties,
+                    requiredBits > 0, ownedBits > 0));
+        }
+        if (capacity) {
+            builderClass.addMethod(DefensiveCopies.newCapacityMethod());
+        }
+        builder.addType(builderClass.build());
+    }
+
+    private static MethodSpec newResetMethod(TypeName builderType, List<Property> properties,
+            boolean required, boolean owned) {
+        MethodSpec.Builder reset = MethodSpec.methodBuilder("reset")
+                .addModifiers(PUBLIC)
+                .returns(builderType);
+        for (Property property : properties) {
+            TypeName type = property.type();
+            String value = type == TypeName.BOOLEAN ? "false" : type.isPrimitive() ? "0" : "null";
+            reset.addStatement("this.$N = $L", property.humanName(), value);
+        }
+        if (required) {
+            reset.addStatement("$N = 0L", SET);
+        }
+        if (owned) {
+            reset.addStatement("$N = 0L", OWNED);
+        }
+        return reset.addStatement("return this").build();
+    }
+
+    private static String setterName(Optional<BuilderView> view, Property property) {
+        if (view.isPresent()) {
+            for (ExecutableElement setter : view.get().setters(property)) {
+                // only use setters that take the property type, not for example an array
+                List<? extends VariableElement> parameters = setter.getParameters();
+                if (parameters.size() == 1
+                        && TypeName.get(parameters.get(0).asType()).equals(property.type())) {
+                    return setter.getSimpleName().toString();
+                }
+            }
+        }
+        return property.humanName();
+    }
+
+    /**
+     * Returns the kind of {@code property} if it's a {@code List}, {@code Set} or {@code Map}
+     * with type arguments that aren't wildcards, otherwise null.
+     */
+    private static Kind collectionKind(Context context, Property property) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.isEmpty()) {
+            return null;
+        }
+        for (TypeMirror argument : arguments) {
+            if (argument.getKind() == TypeKind.WILDCARD) {
+                return null;
+            }
+        }
+        return DefensiveCopies.kindOf(context, type);
+    }
+
+    private static MethodSpec newExpectedSizeMethod(
+            TypeName builderType, Property property, Kind kind, String bit) {
+        String name = property.humanName();
+        MethodSpec.Builder method = MethodSpec.methodBuilder(name + "ExpectedSize")
+                .addModifiers(PUBLIC)
+                .returns(builderType)
+                .addParameter(int.class, "expectedSize")
+                .beginControlFlow("if (($N & $L) == 0)", OWNED, bit)
+                .addStatement("int size = this.$N == null\n"
+                                + "? expectedSize : $T.max(expectedSize, this.$N.size())",
+                        name, Math.class, name);
+        switch (kind) {
+            case LIST:
+                method.addStatement("$T copy = new $T<>(size)", property.type(), ArrayList.class);
+                break;
+            case SET:
+                method.addStatement("$T copy = new $T<>($N(size))",
+                        property.type(), LinkedHashSet.class, DefensiveCopies.CAPACITY);
+                break;
+            case MAP:
+                method.addStatement("$T copy = new $T<>($N(size))",
+                        property.type(), LinkedHashMap.class, DefensiveCopies.CAPACITY);
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+        method.beginControlFlow("if (this.$N != null)", name)
+                .addStatement(kind == Kind.MAP ? "copy.putAll(this.$N)" : "copy.addAll(this.$N)",
+                        name)
+                .endControlFlow()
+                .addStatement("this.$N = copy", name)
+                .addStatement("$N |= $L", OWNED, bit);
+        return method.endControlFlow()
+                .addStatement("return this")
+                .build();
+    }
+
+    private static MethodSpec newAddMethod(
+            TypeName builderType, Property property, Kind kind, String bit) {
+        String name = property.humanName();
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        List<? extends TypeMirror> arguments =
+                ((DeclaredType) property.element().getReturnType()).getTypeArguments();
+        MethodSpec.Builder method = MethodSpec.methodBuilder(
+                        (kind == Kind.MAP ? "put" : "add") + suffix)
+                .addModifiers(PUBLIC)
+                .returns(builderType);
+        Class<?> implementation = kind == Kind.LIST ? ArrayList.class
+                : kind == Kind.SET ? LinkedHashSet.class
+                : LinkedHashMap.class;
+        if (kind == Kind.MAP) {
+            method.addParameter(TypeName.get(arguments.get(0)), "key")
+                    .addParameter(TypeName.get(arguments.get(1)), "value");
+        } else {
+            method.addParameter(TypeName.get(arguments.get(0)), "element");
+        }
+        return method.beginControlFlow("if (($N & $L) == 0)", OWNED, bit)
+                .addStatement("this.$N = this.$N == null\n? new $T<$L>() : new $T<>(this.$N)",
+                        name, name, implementation, typeArguments(arguments), implementation, name)
+                .addStatement("$N |= $L", OWNED, bit)
+                .endControlFlow()
+                .addStatement(kind == Kind.MAP ? "this.$N.put(key, value)" : "this.$N.add(element)",
+                        name)
+                .addStatement("return this")
+                .build();
+    }
+
+    /**
+     * Returns the type arguments for the explicit constructor call of a collection, which is
+     * needed because Java 7 can't infer them in a conditional expression.
+     */
+    private static CodeBlock typeArguments(List<? extends TypeMirror> arguments) {
+        CodeBlock.Builder code = CodeBlock.builder();
+        for (int i = 0; i < arguments.size(); i++) {
+            if (i > 0) code.add(", ");
+            code.add("$T", TypeName.get(arguments.get(i)));
+        }
+        return code.build();
+    }
+
+    private static void addCollectionValue(
+            CodeBlock.Builder build, Property property, Kind kind, String bit) {
+        String name = property.humanName();
+        String suffix = kind == Kind.LIST ? "List" : kind == Kind.SET ? "Set" : "Map";
+        build.addStatement("$T $N = this.$N", property.type(), name, name);
+        if (property.nullable()) {
+            build.beginControlFlow("if (($N & $L) != 0)", OWNED, bit);
+        } else {
+            build.beginControlFlow("if ($N == null)", name)
+                    .addStatement("$N = $T.empty$L()", name, Collections.class, suffix)
+                    .nextControlFlow("else if (($N & $L) != 0)", OWNED, bit);
+        }
+        build.addStatement("$N = $T.unmodifiable$L($N)", name, Collections.class, suffix, name)
+                .endControlFlow();
+    }
+
+    private static String bit(int index) {
+        return bit(1L << index);
+    }
+
+    private static String bit(long mask) {
+        return "0x" + Long.toHexString(mask) + "L";
+    }
+
+    private BuilderUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
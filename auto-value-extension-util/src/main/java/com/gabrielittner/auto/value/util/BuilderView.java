@@ -0,0 +1,142 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.BuilderContext;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * The builder that is declared by an AutoValue class, with the setters and property builders of
+ * each {@link Property}.
+ *
+ * <pre>
+ * Optional&lt;BuilderView&gt; builder = BuilderView.of(context);
+ * if (builder.isPresent()) {
+ *   for (Property property : builder.get().properties()) {
+ *     Set&lt;ExecutableElement&gt; setters = builder.get().setters(property);
+ *   }
+ * }
+ * </pre>
+ *
+ * The view is created once for each {@link Context} and shared by all extensions that process the
+ * same class.
+ */
+public final class BuilderView {
+
+    private static final Cache<Context, Optional<BuilderView>> CACHE =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Returns the builder of the AutoValue class of {@code context}, or {@link Optional#absent()}
+     * if the class doesn't declare a builder.
+     */
+    public static Optional<BuilderView> of(final Context context) {
+        try {
+            return CACHE.get(context, new Callable<Optional<BuilderView>>() {
+                @Override
+                public Optional<BuilderView> call() {
+                    java.util.Optional<BuilderContext> builder = context.builder();
+                    if (!builder.isPresent()) {
+                        return Optional.absent();
+                    }
+                    return Optional.of(new BuilderView(context, builder.get()));
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private final TypeElement builderType;
+    private final ImmutableSet<ExecutableElement> builderMethods;
+    private final ImmutableSet<ExecutableElement> toBuilderMethods;
+    private final Optional<ExecutableElement> buildMethod;
+    private final ImmutableList<Property> properties;
+    private final ImmutableMap<String, ImmutableSet<ExecutableElement>> setters;
+    private final ImmutableMap<String, ExecutableElement> propertyBuilders;
+
+    private BuilderView(Context context, BuilderContext builder) {
+        builderType = builder.builderType();
+        builderMethods = ImmutableSet.copyOf(builder.builderMethods());
+        toBuilderMethods = ImmutableSet.copyOf(builder.toBuilderMethods());
+        java.util.Optional<ExecutableElement> build = builder.buildMethod();
+        buildMethod = build.isPresent()
+                ? Optional.of(build.get())
+                : Optional.<ExecutableElement>absent();
+        properties = Property.buildProperties(context);
+        ImmutableMap.Builder<String, ImmutableSet<ExecutableElement>> setters =
+                ImmutableMap.builder();
+        for (Map.Entry<String, Set<ExecutableElement>> entry : builder.setters().entrySet()) {
+            setters.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
+        }
+        this.setters = setters.build();
+        propertyBuilders = ImmutableMap.copyOf(builder.propertyBuilders());
+    }
+
+    /**
+     * The type annotated with {@code @AutoValue.Builder}.
+     */
+    public TypeElement builderType() {
+        return builderType;
+    }
+
+    /**
+     * Static methods of the AutoValue class that return a new builder.
+     */
+    public Set<ExecutableElement> builderMethods() {
+        return builderMethods;
+    }
+
+    /**
+     * Abstract methods of the AutoValue class that return a builder initialized with the values
+     * of an instance.
+     */
+    public Set<ExecutableElement> toBuilderMethods() {
+        return toBuilderMethods;
+    }
+
+    /**
+     * The abstract method of the builder that returns the AutoValue class. Absent if AutoValue
+     * couldn't determine a single build method.
+     */
+    public Optional<ExecutableElement> buildMethod() {
+        return buildMethod;
+    }
+
+    /**
+     * The properties of the AutoValue class in the same order as
+     * {@link Property#buildProperties(Context)}.
+     */
+    public ImmutableList<Property> properties() {
+        return properties;
+    }
+
+    /**
+     * The setters of the builder for {@code property}. There can be more than one setter if a
+     * property can be set from different types, for example from an array and an
+     * {@code ImmutableList}. Empty if the property is only set through a property builder.
+     */
+    public Set<ExecutableElement> setters(Property property) {
+        ImmutableSet<ExecutableElement> setters = this.setters.get(property.humanName());
+        return setters != null ? setters : ImmutableSet.<ExecutableElement>of();
+    }
+
+    /**
+     * The method of the builder that returns a builder for {@code property}, like
+     * {@code ImmutableList.Builder<String> namesBuilder()}.
+     */
+    public Optional<ExecutableElement> propertyBuilder(Property property) {
+        return Optional.fromNullable(propertyBuilders.get(property.humanName()));
+    }
+}
@@ -0,0 +1,266 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates columnar containers that store a sequence of AutoValue instances as one array per
+ * property instead of one object per instance.
+ */
+public final class ColumnarUtil {
+
+    /**
+     * Adds a static nested class called {@code className} to the given {@code builder} which was
+     * created with {@link AutoValueUtil#newTypeSpecBuilder}. The class is a growable container
+     * that stores each property in its own array:
+     *
+     * <pre>
+     * ClassName()
+     * ClassName(int initialCapacity)
+     * static ClassName from(Collection&lt;? extends AutoValueClass&gt; values)
+     * int size()
+     * void add(AutoValueClass value)
+     * void add(int a, String b)
+     * int a(int index)
+     * int[] aColumn()
+     * AutoValueClass get(int index)
+     * List&lt;AutoValueClass&gt; toList()
+     * void clear()
+     * </pre>
+     *
+     * Scanning a single property only touches its array, which avoids loading an object header and
+     * a pointer per element and lets primitive columns be processed in bulk. {@code add(a, b)}
+     * appends a row without creating an instance and applies the same null checks as the
+     * constructor of the AutoValue class. {@code get()} and {@code toList()} create instances with
+     * {@link AutoValueUtil#newFinalClassConstructorCall(Context, Object[])}.
+     *
+     * <p>{@code aColumn()} returns the backing array, of which only the first {@code size()}
+     * elements are valid. It's replaced by a larger array when the container grows, so it must not
+     * be held across calls to {@code add}. Properties whose type is not a primitive or a plain
+     * class, like type variables and parameterized types, are stored in an {@code Object[]}.
+     * Accessors that would have the name of one of the methods above, like the one of a property
+     * called {@code get()}, get a {@code _} suffix. Instances of the container are not
+     * thread-safe.
+     */
+    public static void addColumnarContainer(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeName autoValueClass = AutoValueUtil.getAutoValueClassTypeName(context);
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        ClassName containerName = ClassName.get("", className);
+        TypeName containerType = typeVariables.length == 0
+                ? containerName
+                : ParameterizedTypeName.get(containerName, typeVariables);
+
+        NameAllocator names = new NameAllocator();
+        for (Property property : properties) {
+            names.newName(property.humanName(), property);
+        }
+        String size = names.newName("size");
+        String ensureCapacity = names.newName("ensureCapacity");
+        String checkIndex = names.newName("checkIndex");
+        // parameters and locals of methods that read the columns without this.
+        String initialCapacity = names.newName("initialCapacity");
+        String minCapacity = names.newName("minCapacity");
+        String capacity = names.newName("capacity");
+        String newCapacity = names.newName("newCapacity");
+        String value = names.newName("value");
+        String index = names.newName("index");
+        // accessors that would clash with the methods of the container get a suffix
+        NameAllocator methods = new NameAllocator();
+        for (String method : Arrays.asList("from", "size", "add", "get", "toList", "clear",
+                ensureCapacity, checkIndex)) {
+            methods.newName(method);
+        }
+        List<String> accessorNames = new ArrayList<>();
+        for (Property property : properties) {
+            accessorNames.add(methods.newName(property.methodName()));
+        }
+
+        TypeSpec.Builder container = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .addField(int.class, size, PRIVATE);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameter(int.class, initialCapacity);
+        MethodSpec.Builder grow = MethodSpec.methodBuilder(ensureCapacity)
+                .addModifiers(PRIVATE)
+                .addParameter(int.class, minCapacity);
+        if (!properties.isEmpty()) {
+            grow.addStatement("int $N = $N.length", capacity, names.get(properties.get(0)))
+                    .beginControlFlow("if ($N > $N)", minCapacity, capacity)
+                    .addStatement("int $1N = $2T.max($3N, $4N + ($4N >> 1))",
+                            newCapacity, Math.class, minCapacity, capacity);
+        }
+        MethodSpec.Builder add = MethodSpec.methodBuilder("add")
+                .addParameter(autoValueClass, value)
+                .addStatement("$N($N + 1)", ensureCapacity, size);
+        MethodSpec.Builder addRow = MethodSpec.methodBuilder("add")
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        for (Property property : properties) {
+            addRow.addCode(ImplementationUtil.nullCheck(property, property.humanName()));
+        }
+        addRow.addStatement("$N($N + 1)", ensureCapacity, size);
+        MethodSpec.Builder clear = MethodSpec.methodBuilder("clear");
+        List<MethodSpec> accessors = new ArrayList<>();
+        boolean unchecked = false;
+        MethodSpec.Builder get = MethodSpec.methodBuilder("get")
+                .returns(autoValueClass)
+                .addParameter(int.class, index)
+                .addStatement("$N($N)", checkIndex, index);
+        NameAllocator locals = new NameAllocator();
+        locals.newName(index);
+        Object[] values = new Object[properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            String column = names.get(property);
+            TypeName type = property.type().withoutAnnotations();
+            TypeName elementType = columnType(type);
+            ArrayTypeName arrayType = ArrayTypeName.of(elementType);
+            boolean reference = !type.isPrimitive();
+            container.addField(arrayType, column, PRIVATE);
+            constructor.addStatement("this.$N = $L",
+                    column, newArray(elementType, initialCapacity));
+            grow.addStatement("$1N = $2T.copyOf($1N, $3N)", column, Arrays.class, newCapacity);
+            add.addStatement("$N[$N] = $N.$N()", column, size, value, property.methodName());
+            addRow.addStatement("this.$N[$N] = $N", column, size, property.humanName());
+            if (reference) {
+                clear.addStatement("$T.fill($N, 0, $N, null)", Arrays.class, column, size);
+            }
+            boolean cast = !elementType.equals(type);
+            unchecked |= cast;
+            values[i] = locals.newName(property.humanName());
+            if (cast) {
+                get.addStatement("$1T $2N = ($1T) this.$3N[$4N]",
+                        type, values[i], column, index);
+            } else {
+                get.addStatement("$T $N = this.$N[$N]", type, values[i], column, index);
+            }
+            accessors.add(MethodSpec.methodBuilder(accessorNames.get(i))
+                    .returns(type)
+                    .addParameter(int.class, index)
+                    .addStatement("$N($N)", checkIndex, index)
+                    .addStatement(cast
+                            ? CodeBlock.of("return ($T) $N[$N]", type, column, index)
+                            : CodeBlock.of("return $N[$N]", column, index))
+                    .build());
+            accessors.add(MethodSpec.methodBuilder(methods.newName(property.humanName() + "Column"))
+                    .returns(arrayType)
+                    .addStatement("return $N", column)
+                    .build());
+        }
+        if (!properties.isEmpty()) {
+            grow.endControlFlow();
+        }
+        add.addStatement("$N++", size);
+        addRow.addStatement("$N++", size);
+        clear.addStatement("$N = 0", size);
+        if (unchecked) {
+            container.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+
+        TypeName valuesType = ParameterizedTypeName.get(ClassName.get(Collection.class),
+                WildcardTypeName.subtypeOf(autoValueClass));
+        TypeName listType = ParameterizedTypeName.get(ClassName.get(List.class), autoValueClass);
+        container.addMethod(MethodSpec.constructorBuilder()
+                        .addStatement("this(16)")
+                        .build())
+                .addMethod(constructor.build())
+                .addMethod(MethodSpec.methodBuilder("from")
+                        .addModifiers(STATIC)
+                        .addTypeVariables(Arrays.asList(typeVariables))
+                        .returns(containerType)
+                        .addParameter(valuesType, "values")
+                        .addStatement(typeVariables.length == 0
+                                ? "$T container = new $T(values.size())"
+                                : "$T container = new $T<>(values.size())",
+                                containerType, containerName)
+                        .beginControlFlow("for ($T value : values)", autoValueClass)
+                        .addStatement("container.add(value)")
+                        .endControlFlow()
+                        .addStatement("return container")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("size")
+                        .returns(int.class)
+                        .addStatement("return $N", size)
+                        .build())
+                .addMethod(add.build())
+                .addMethod(addRow.build())
+                .addMethods(accessors)
+                .addMethod(get.addCode("return ")
+                        .addCode(AutoValueUtil.newFinalClassConstructorCall(context, values))
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("toList")
+                        .returns(listType)
+                        .addStatement("$T list = new $T<>($N)", listType, ArrayList.class, size)
+                        .beginControlFlow("for (int i = 0; i < $N; i++)", size)
+                        .addStatement("list.add(get(i))")
+                        .endControlFlow()
+                        .addStatement("return list")
+                        .build())
+                .addMethod(clear.build())
+                .addMethod(grow.build())
+                .addMethod(MethodSpec.methodBuilder(checkIndex)
+                        .addModifiers(PRIVATE)
+                        .addParameter(int.class, "index")
+                        .beginControlFlow("if (index < 0 || index >= $N)", size)
+                        .addStatement("throw new $T(\"Index: \" + index + \", Size: \" + $N)",
+                                IndexOutOfBoundsException.class, size)
+                        .endControlFlow()
+                        .build());
+        builder.addType(container.build());
+    }
+
+    /**
+     * Returns the element type of the array that stores a property of the given {@code type},
+     * which is {@code Object} for types that can't be used to create an array.
+     */
+    private static TypeName columnType(TypeName type) {
+        if (type.isPrimitive() || type instanceof ClassName) {
+            return type;
+        }
+        if (type instanceof ArrayTypeName
+                && columnType(((ArrayTypeName) type).componentType).equals(
+                        ((ArrayTypeName) type).componentType)) {
+            return type;
+        }
+        return TypeName.OBJECT;
+    }
+
+    private static CodeBlock newArray(TypeName elementType, String capacity) {
+        // new int[initialCapacity][] for an element type of int[]
+        StringBuilder dimensions = new StringBuilder();
+        TypeName component = elementType;
+        while (component instanceof ArrayTypeName) {
+            dimensions.append("[]");
+            component = ((ArrayTypeName) component).componentType;
+        }
+        return CodeBlock.of("new $T[$N]$L", component, capacity, dimensions);
+    }
+
+    private ColumnarUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,192 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates {@link Comparator} implementations for AutoValue classes that compare primitive
+ * properties without boxing.
+ */
+public final class ComparatorUtil {
+
+    /**
+     * Adds a static method called {@code methodName} to the given {@code builder} which was
+     * created with {@link AutoValueUtil#newTypeSpecBuilder}. The method returns a shared
+     * {@link Comparator} that compares the given {@code properties} in order until one of them is
+     * different.
+     *
+     * <pre>
+     * static Comparator&lt;AutoValueClass&gt; methodName()
+     * </pre>
+     *
+     * Primitives are compared with the static {@code compare} methods of their wrapper classes and
+     * all other properties with {@link Comparable#compareTo(Object)}. Null values of properties
+     * for which {@link Property#nullable()} is true are ordered before all other values if
+     * {@code nullsFirst} is true and after them otherwise. For generic classes the method has the
+     * same type variables as the AutoValue class.
+     *
+     * <p>Properties that are neither primitive nor {@link Comparable} will be reported with
+     * {@link AutoValueUtil#error(Context, Property, String)} and nothing is added.
+     */
+    public static void addComparator(Context context, TypeSpec.Builder builder,
+            String methodName, List<Property> properties, boolean nullsFirst) {
+        boolean supported = true;
+        for (Property property : properties) {
+            if (!isSupported(context, property)) {
+                AutoValueUtil.error(context, property,
+                        "Comparators only support primitive and Comparable properties");
+                supported = false;
+            }
+        }
+        if (!supported) {
+            return;
+        }
+
+        TypeVariableName[] typeVariables = AutoValueUtil.getTypeVariables(context.autoValueClass());
+        TypeName autoValueClass = AutoValueUtil.getAutoValueClassTypeName(context);
+        TypeName comparatorType =
+                ParameterizedTypeName.get(ClassName.get(Comparator.class), autoValueClass);
+        ClassName className = ClassName.get("",
+                CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, methodName) + "Comparator");
+        String fieldName = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, methodName);
+
+        MethodSpec.Builder compare = MethodSpec.methodBuilder("compare")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class)
+                .addParameter(autoValueClass, "left")
+                .addParameter(autoValueClass, "right");
+        if (!properties.isEmpty()) {
+            compare.addStatement("int result");
+        }
+        for (Property property : properties) {
+            addComparison(compare, property, nullsFirst);
+        }
+        builder.addType(TypeSpec.classBuilder(className)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .addSuperinterface(comparatorType)
+                .addMethod(compare.addStatement("return 0").build())
+                .build());
+
+        MethodSpec.Builder method = MethodSpec.methodBuilder(methodName)
+                .addModifiers(STATIC)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .returns(comparatorType);
+        if (typeVariables.length == 0) {
+            builder.addField(FieldSpec.builder(comparatorType, fieldName, PRIVATE, STATIC, FINAL)
+                    .initializer("new $T()", className)
+                    .build());
+            method.addStatement("return $N", fieldName);
+        } else {
+            // a single instance is shared for all type arguments, like Collections.emptyList()
+            TypeName wildcard = ParameterizedTypeName.get(
+                    ClassName.get(Comparator.class), WildcardTypeName.subtypeOf(Object.class));
+            builder.addField(FieldSpec.builder(wildcard, fieldName, PRIVATE, STATIC, FINAL)
+                    .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                            .addMember("value", "$S", "rawtypes")
+                            .build())
+                    .initializer("new $T()", className)
+                    .build());
+            method.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                            .addMember("value", "$S", "unchecked")
+                            .build())
+                    .addStatement("return ($T) $N", comparatorType, fieldName);
+        }
+        builder.addMethod(method.build());
+    }
+
+    private static void addComparison(
+            MethodSpec.Builder compare, Property property, boolean nullsFirst) {
+        String name = property.methodName();
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind().isPrimitive()) {
+            compare.addStatement("result = $L", primitiveComparison(property,
+                    CodeBlock.of("left.$N()", name), CodeBlock.of("right.$N()", name)));
+            returnIfDifferent(compare);
+            return;
+        }
+        if (!property.nullable()) {
+            compare.addStatement("result = left.$N().compareTo(right.$N())", name, name);
+            returnIfDifferent(compare);
+            return;
+        }
+        TypeName typeName = property.type().withoutAnnotations();
+        String left = name + "Left";
+        String right = name + "Right";
+        compare.addStatement("$T $N = left.$N()", typeName, left, name)
+                .addStatement("$T $N = right.$N()", typeName, right, name)
+                .beginControlFlow("if ($N != $N)", left, right)
+                .beginControlFlow("if ($N == null)", left)
+                .addStatement("return $L", nullsFirst ? -1 : 1)
+                .endControlFlow()
+                .beginControlFlow("if ($N == null)", right)
+                .addStatement("return $L", nullsFirst ? 1 : -1)
+                .endControlFlow()
+                .addStatement("result = $N.compareTo($N)", left, right);
+        returnIfDifferent(compare);
+        compare.endControlFlow();
+    }
+
+    private static CodeBlock primitiveComparison(
+            Property property, CodeBlock left, CodeBlock right) {
+        switch (property.element().getReturnType().getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("$T.compare($L, $L)", Boolean.class, left, right);
+            case LONG:
+                return CodeBlock.of("$T.compare($L, $L)", Long.class, left, right);
+            case FLOAT:
+                return CodeBlock.of("$T.compare($L, $L)", Float.class, left, right);
+            case DOUBLE:
+                return CodeBlock.of("$T.compare($L, $L)", Double.class, left, right);
+            default:
+                return CodeBlock.of("$T.compare($L, $L)", Integer.class, left, right);
+        }
+    }
+
+    private static void returnIfDifferent(MethodSpec.Builder compare) {
+        compare.beginControlFlow("if (result != 0)")
+                .addStatement("return result")
+                .endControlFlow();
+    }
+
+    private static boolean isSupported(Context context, Property property) {
+        TypeMirror type = property.element().getReturnType();
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() != TypeKind.DECLARED && type.getKind() != TypeKind.TYPEVAR) {
+            return false;
+        }
+        Types types = context.processingEnvironment().getTypeUtils();
+        TypeElement comparable = context.processingEnvironment().getElementUtils()
+                .getTypeElement(Comparable.class.getCanonicalName());
+        return types.isAssignable(type, types.erasure(comparable.asType()));
+    }
+
+    private ComparatorUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,193 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates the constructor and helper methods for
+ * {@link AutoValueUtil#newTypeSpecBuilderWithDefensiveCopies(Context, String, String, boolean)}.
+ */
+final class DefensiveCopies {
+
+    private static final String COPY = "immutableCopy";
+    static final String CAPACITY = "capacity";
+    private static final String IS_IMMUTABLE = "isJdkImmutable";
+    private static final String GUAVA_PACKAGE = "com.google.common.collect";
+
+    enum Kind {
+        LIST(List.class, "ImmutableList"),
+        SET(Set.class, "ImmutableSet"),
+        MAP(Map.class, "ImmutableMap");
+
+        final Class<?> type;
+        final String guavaType;
+
+        Kind(Class<?> type, String guavaType) {
+            this.type = type;
+            this.guavaType = guavaType;
+        }
+    }
+
+    /**
+     * Creates the constructor and adds the copy helpers that are needed by the properties of
+     * {@code context} to {@code builder}.
+     */
+    static MethodSpec newConstructor(Context context, TypeSpec.Builder builder) {
+        Map<String, ExecutableElement> properties = context.properties();
+        boolean guava = context.processingEnvironment().getElementUtils()
+                .getTypeElement(GUAVA_PACKAGE + ".ImmutableCollection") != null;
+        Set<Kind> kinds = EnumSet.noneOf(Kind.class);
+        CodeBlock.Builder call = CodeBlock.builder().add("super(");
+        boolean first = true;
+        for (Map.Entry<String, ExecutableElement> entry : properties.entrySet()) {
+            if (!first) call.add(", ");
+            first = false;
+            String name = entry.getKey();
+            Kind kind = kindOf(context, entry.getValue().getReturnType());
+            if (kind == null) {
+                call.add("$N", name);
+            } else if (new Property(name, entry.getValue()).nullable()) {
+                kinds.add(kind);
+                call.add("$N == null ? null : $N($N)", name, COPY, name);
+            } else {
+                kinds.add(kind);
+                call.add("$N($N)", COPY, name);
+            }
+        }
+        for (Kind kind : kinds) {
+            builder.addMethod(newCopyMethod(kind, guava));
+        }
+        if (kinds.contains(Kind.SET) || kinds.contains(Kind.MAP)) {
+            builder.addMethod(newCapacityMethod());
+        }
+        if (!kinds.isEmpty()) {
+            builder.addMethod(newIsImmutableMethod());
+        }
+        return MethodSpec.constructorBuilder()
+                .addParameters(AutoValueUtil.newPropertyParameters(properties))
+                .addStatement(call.add(")").build())
+                .build();
+    }
+
+    static Kind kindOf(Context context, TypeMirror type) {
+        Types types = context.processingEnvironment().getTypeUtils();
+        Elements elements = context.processingEnvironment().getElementUtils();
+        for (Kind kind : Kind.values()) {
+            TypeMirror collection =
+                    elements.getTypeElement(kind.type.getCanonicalName()).asType();
+            if (types.isSameType(types.erasure(type), types.erasure(collection))) {
+                return kind;
+            }
+        }
+        return null;
+    }
+
+    private static MethodSpec newCopyMethod(Kind kind, boolean guava) {
+        TypeVariableName e = TypeVariableName.get("E");
+        TypeVariableName k = TypeVariableName.get("K");
+        TypeVariableName v = TypeVariableName.get("V");
+        TypeName type = kind == Kind.MAP
+                ? ParameterizedTypeName.get(ClassName.get(Map.class), k, v)
+                : ParameterizedTypeName.get(ClassName.get(kind.type), e);
+        String name = kind.name().toLowerCase(Locale.US);
+        MethodSpec.Builder copy = MethodSpec.methodBuilder(COPY)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(type)
+                .addParameter(type, name);
+        if (kind == Kind.MAP) {
+            copy.addTypeVariable(k).addTypeVariable(v);
+        } else {
+            copy.addTypeVariable(e);
+        }
+        CodeBlock immutable = guava
+                ? CodeBlock.of("$N instanceof $T || $N($N)",
+                        name, ClassName.get(GUAVA_PACKAGE, kind.guavaType), IS_IMMUTABLE, name)
+                : CodeBlock.of("$N($N)", IS_IMMUTABLE, name);
+        copy.beginControlFlow("if ($L)", immutable)
+                .addStatement("return $N", name)
+                .endControlFlow();
+        switch (kind) {
+            case LIST:
+                copy.beginControlFlow("if ($N.isEmpty())", name)
+                        .addStatement("return $T.emptyList()", Collections.class)
+                        .endControlFlow()
+                        .addStatement("return $T.unmodifiableList(new $T<>($N))",
+                                Collections.class, ArrayList.class, name);
+                break;
+            case SET:
+                copy.beginControlFlow("if ($N.isEmpty())", name)
+                        .addStatement("return $T.emptySet()", Collections.class)
+                        .endControlFlow()
+                        .addStatement("$T copy = new $T<>($N($N.size()))",
+                                type, LinkedHashSet.class, CAPACITY, name)
+                        .addStatement("copy.addAll($N)", name)
+                        .addStatement("return $T.unmodifiableSet(copy)", Collections.class);
+                break;
+            case MAP:
+                copy.beginControlFlow("if ($N.isEmpty())", name)
+                        .addStatement("return $T.emptyMap()", Collections.class)
+                        .endControlFlow()
+                        .addStatement("$T copy = new $T<>($N($N.size()))",
+                                type, LinkedHashMap.class, CAPACITY, name)
+                        .addStatement("copy.putAll($N)", name)
+                        .addStatement("return $T.unmodifiableMap(copy)", Collections.class);
+                break;
+            default:
+                throw new AssertionError(kind);
+        }
+        return copy.build();
+    }
+
+    static MethodSpec newCapacityMethod() {
+        // the same expected size calculation as Guava's Maps.capacity()
+        return MethodSpec.methodBuilder(CAPACITY)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(int.class)
+                .addParameter(int.class, "expectedSize")
+                .beginControlFlow("if (expectedSize < 3)")
+                .addStatement("return expectedSize + 1")
+                .endControlFlow()
+                .addStatement("return (int) (expectedSize / 0.75f + 1.0f)")
+                .build();
+    }
+
+    private static MethodSpec newIsImmutableMethod() {
+        return MethodSpec.methodBuilder(IS_IMMUTABLE)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(boolean.class)
+                .addParameter(Object.class, "collection")
+                .addStatement("$T name = collection.getClass().getName()", String.class)
+                .addStatement("return name.startsWith($S)\n|| name.startsWith($S)\n"
+                                + "|| name.startsWith($S)",
+                        "java.util.ImmutableCollections$",
+                        "java.util.Collections$Empty",
+                        "java.util.Collections$Singleton")
+                .build();
+    }
+
+    private DefensiveCopies() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -136,7 +136,8 @@ public final class ElementUtil {
 
     /**
      * If the given {@code element} is annotated with an {@link Annotation} of class {@code clazz}
-     * it's value for {@code key} will be returned. Otherwise it will return null.
+     * it's value for {@code key} will be returned. Otherwise it will return null. Use
+     * {@link AnnotationBinding} to read several typed values of an annotation.
      *
      * @throws IllegalArgumentException if no element is defined with the given key.
      */
@@ -0,0 +1,351 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+
+/**
+ * Generates {@code equals(Object)} and {@code hashCode()} implementations from a list of
+ * {@link Property}. Extensions can add these to the class created by
+ * {@link AutoValueUtil#newTypeSpecBuilder} to override the implementations of AutoValue.
+ */
+public final class EqualsHashCodeUtil {
+
+    private static final int COST_PRIMITIVE = 0;
+    private static final int COST_FLOATING_POINT = 1;
+    private static final int COST_ENUM = 2;
+    private static final int COST_STRING = 3;
+    private static final int COST_OBJECT = 4;
+    private static final int COST_COLLECTION = 5;
+
+    /**
+     * Returns a copy of {@code properties} sorted by how expensive it is to compare them. Integral
+     * primitives and booleans come first, followed by floating point primitives, enums, strings
+     * and boxed primitives, other objects and finally collections, maps and arrays. The order of
+     * properties with the same cost is kept.
+     */
+    public static ImmutableList<Property> sortByComparisonCost(
+            Context context, List<Property> properties) {
+        final Types types = context.processingEnvironment().getTypeUtils();
+        final Elements elements = context.processingEnvironment().getElementUtils();
+        List<Property> sorted = new ArrayList<>(properties);
+        Collections.sort(sorted, new Comparator<Property>() {
+            @Override
+            public int compare(Property left, Property right) {
+                int leftCost = comparisonCost(types, elements, left);
+                int rightCost = comparisonCost(types, elements, right);
+                return leftCost < rightCost ? -1 : (leftCost == rightCost ? 0 : 1);
+            }
+        });
+        return ImmutableList.copyOf(sorted);
+    }
+
+    private static int comparisonCost(Types types, Elements elements, Property property) {
+        TypeMirror type = property.element().getReturnType();
+        switch (type.getKind()) {
+            case FLOAT:
+            case DOUBLE:
+                return COST_FLOATING_POINT;
+            case ARRAY:
+                return COST_COLLECTION;
+            case DECLARED:
+                break;
+            default:
+                return type.getKind().isPrimitive() ? COST_PRIMITIVE : COST_OBJECT;
+        }
+        if (types.asElement(type).getKind() == ElementKind.ENUM) {
+            return COST_ENUM;
+        }
+        TypeName typeName = property.type().withoutAnnotations();
+        if (typeName.equals(ClassName.get(String.class)) || typeName.isBoxedPrimitive()) {
+            return COST_STRING;
+        }
+        if (isSubtypeOf(types, elements, type, "java.lang.Iterable")
+                || isSubtypeOf(types, elements, type, "java.util.Map")) {
+            return COST_COLLECTION;
+        }
+        return COST_OBJECT;
+    }
+
+    private static boolean isSubtypeOf(
+            Types types, Elements elements, TypeMirror type, String className) {
+        TypeElement element = elements.getTypeElement(className);
+        return element != null
+                && types.isAssignable(types.erasure(type), types.erasure(element.asType()));
+    }
+
+    /**
+     * Creates an {@code equals(Object)} method that compares the given {@code properties}. They
+     * are compared in the order returned by {@link #sortByComparisonCost(Context, List)}, so that
+     * cheap checks can fail fast before expensive ones run. Primitives are compared without boxing.
+     */
+    public static MethodSpec newEqualsMethod(Context context, List<Property> properties) {
+        return newEqualsMethod(context, comparisons(context, properties), null);
+    }
+
+    /**
+     * Adds the method created by {@link #newEqualsMethod(Context, List)} to {@code builder}. If it
+     * would be larger than {@link MethodSizeUtil#FREQ_INLINE_SIZE} the comparisons are split
+     * across a chain of private methods {@code equals$1(that)}, {@code equals$2(that)}, ... that
+     * are called as the last operand of the previous one, which is reported with a
+     * {@link javax.tools.Diagnostic.Kind#NOTE}.
+     */
+    public static void addEqualsMethod(
+            Context context, TypeSpec.Builder builder, List<Property> properties) {
+        List<CodeBlock> comparisons = comparisons(context, properties);
+        MethodSpec equals = newEqualsMethod(context, comparisons, null);
+        if (MethodSizeUtil.estimateBytecodeSize(equals) <= MethodSizeUtil.FREQ_INLINE_SIZE) {
+            builder.addMethod(equals);
+            return;
+        }
+        int overhead = MethodSizeUtil.estimateBytecodeSize(newEqualsMethod(context,
+                Collections.<CodeBlock>emptyList(), nextEquals(1)));
+        // each comparison is followed by &&
+        List<List<CodeBlock>> chunks = MethodSizeUtil.chunk(comparisons, 1, overhead);
+        if (chunks.size() < 2) {
+            builder.addMethod(equals);
+            return;
+        }
+        builder.addMethod(newEqualsMethod(context, chunks.get(0), nextEquals(1)));
+        TypeName autoValueClass = getWildcardAutoValueClassTypeName(context);
+        for (int i = 1; i < chunks.size(); i++) {
+            builder.addMethod(MethodSpec.methodBuilder(MethodSizeUtil.helperName("equals", i))
+                    .addModifiers(PRIVATE)
+                    .returns(boolean.class)
+                    .addParameter(autoValueClass, "that")
+                    .addStatement(conjunction(chunks.get(i),
+                            i + 1 < chunks.size() ? nextEquals(i + 1) : null))
+                    .build());
+        }
+        MethodSizeUtil.noteSplit(context, equals, chunks.size());
+    }
+
+    private static List<CodeBlock> comparisons(Context context, List<Property> properties) {
+        List<CodeBlock> comparisons = new ArrayList<>();
+        for (Property property : sortByComparisonCost(context, properties)) {
+            CodeBlock thisValue = CodeBlock.of("this.$N()", property.methodName());
+            CodeBlock thatValue = CodeBlock.of("that.$N()", property.methodName());
+            comparisons.add(equalsOf(context, property, thisValue, thatValue));
+        }
+        return comparisons;
+    }
+
+    private static MethodSpec newEqualsMethod(
+            Context context, List<CodeBlock> comparisons, CodeBlock next) {
+        MethodSpec.Builder equals = MethodSpec.methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(boolean.class)
+                .addParameter(Object.class, "o")
+                .beginControlFlow("if (o == this)")
+                .addStatement("return true")
+                .endControlFlow();
+
+        TypeName autoValueClass = getWildcardAutoValueClassTypeName(context);
+        return equals.beginControlFlow("if (o instanceof $T)",
+                        ClassName.get(context.autoValueClass()))
+                .addStatement("$T that = ($T) o", autoValueClass, autoValueClass)
+                .addStatement(conjunction(comparisons, next))
+                .endControlFlow()
+                .addStatement("return false")
+                .build();
+    }
+
+    private static CodeBlock nextEquals(int index) {
+        return CodeBlock.of("$N(that)", MethodSizeUtil.helperName("equals", index));
+    }
+
+    // returns true if all comparisons and next, if it isn't null, are true
+    private static CodeBlock conjunction(List<CodeBlock> comparisons, CodeBlock next) {
+        List<CodeBlock> operands = new ArrayList<>(comparisons);
+        if (next != null) {
+            operands.add(next);
+        }
+        if (operands.isEmpty()) {
+            return CodeBlock.of("return true");
+        }
+        CodeBlock.Builder conjunction = CodeBlock.builder().add("return ");
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0) conjunction.add("\n&& ");
+            conjunction.add(operands.get(i));
+        }
+        return conjunction.build();
+    }
+
+    private static TypeName getWildcardAutoValueClassTypeName(Context context) {
+        TypeElement autoValueClass = context.autoValueClass();
+        ClassName className = ClassName.get(autoValueClass);
+        int typeParameters = autoValueClass.getTypeParameters().size();
+        if (typeParameters == 0) {
+            return className;
+        }
+        TypeName[] wildcards = new TypeName[typeParameters];
+        Arrays.fill(wildcards, WildcardTypeName.subtypeOf(Object.class));
+        return ParameterizedTypeName.get(className, wildcards);
+    }
+
+    /**
+     * Creates a {@code hashCode()} method for the given {@code properties}. The properties are
+     * hashed in the given order with the same algorithm AutoValue uses, so the result is equal to
+     * the one of the AutoValue generated implementation when all properties are passed in their
+     * original order.
+     */
+    public static MethodSpec newHashCodeMethod(Context context, List<Property> properties) {
+        return newHashCodeMethod(hashes(context, properties), null);
+    }
+
+    /**
+     * Adds the method created by {@link #newHashCodeMethod(Context, List)} to {@code builder}. If
+     * it would be larger than {@link MethodSizeUtil#FREQ_INLINE_SIZE} the properties are hashed
+     * by a chain of private methods {@code hashCode$1(h$)}, {@code hashCode$2(h$)}, ... that each
+     * receive the hash code so far, which is reported with a
+     * {@link javax.tools.Diagnostic.Kind#NOTE}.
+     */
+    public static void addHashCodeMethod(
+            Context context, TypeSpec.Builder builder, List<Property> properties) {
+        List<CodeBlock> hashes = hashes(context, properties);
+        MethodSpec hashCode = newHashCodeMethod(hashes, null);
+        if (MethodSizeUtil.estimateBytecodeSize(hashCode) <= MethodSizeUtil.FREQ_INLINE_SIZE) {
+            builder.addMethod(hashCode);
+            return;
+        }
+        int overhead = MethodSizeUtil.estimateBytecodeSize(
+                newHashCodeMethod(Collections.<CodeBlock>emptyList(), nextHashCode(1)));
+        List<List<CodeBlock>> chunks = MethodSizeUtil.chunk(hashes, 0, overhead);
+        if (chunks.size() < 2) {
+            builder.addMethod(hashCode);
+            return;
+        }
+        builder.addMethod(newHashCodeMethod(chunks.get(0), nextHashCode(1)));
+        for (int i = 1; i < chunks.size(); i++) {
+            MethodSpec.Builder helper = MethodSpec.methodBuilder(
+                            MethodSizeUtil.helperName("hashCode", i))
+                    .addModifiers(PRIVATE)
+                    .returns(int.class)
+                    .addParameter(int.class, "h$");
+            for (CodeBlock hash : chunks.get(i)) {
+                helper.addCode(hash);
+            }
+            builder.addMethod(helper
+                    .addStatement("return $L",
+                            i + 1 < chunks.size() ? nextHashCode(i + 1) : CodeBlock.of("h$$"))
+                    .build());
+        }
+        MethodSizeUtil.noteSplit(context, hashCode, chunks.size());
+    }
+
+    private static List<CodeBlock> hashes(Context context, List<Property> properties) {
+        List<CodeBlock> hashes = new ArrayList<>();
+        for (Property property : properties) {
+            CodeBlock value = CodeBlock.of("$N()", property.methodName());
+            hashes.add(CodeBlock.builder()
+                    .addStatement("h$$ *= 1000003")
+                    .addStatement("h$$ ^= $L", hashCodeOf(context, property, value))
+                    .build());
+        }
+        return hashes;
+    }
+
+    private static MethodSpec newHashCodeMethod(List<CodeBlock> hashes, CodeBlock next) {
+        MethodSpec.Builder hashCode = MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class)
+                .addStatement("int h$$ = 1");
+        for (CodeBlock hash : hashes) {
+            hashCode.addCode(hash);
+        }
+        return hashCode.addStatement("return $L", next != null ? next : CodeBlock.of("h$$"))
+                .build();
+    }
+
+    private static CodeBlock nextHashCode(int index) {
+        return CodeBlock.of("$N(h$$)", MethodSizeUtil.helperName("hashCode", index));
+    }
+
+    /**
+     * Returns an expression that is true if {@code left} and {@code right}, two values of
+     * {@code property}, are equal.
+     */
+    static CodeBlock equalsOf(Context context, Property property, CodeBlock left, CodeBlock right) {
+        TypeMirror type = property.element().getReturnType();
+        switch (type.getKind()) {
+            case FLOAT:
+                return CodeBlock.of("Float.floatToIntBits($L) == Float.floatToIntBits($L)",
+                        left, right);
+            case DOUBLE:
+                return CodeBlock.of("Double.doubleToLongBits($L) == Double.doubleToLongBits($L)",
+                        left, right);
+            case ARRAY:
+                return CodeBlock.of("$T.equals($L, $L)", Arrays.class, left, right);
+            default:
+                if (type.getKind().isPrimitive() || isEnum(context, type)) {
+                    return CodeBlock.of("$L == $L", left, right);
+                }
+                if (property.nullable()) {
+                    return CodeBlock.of("($L == null ? $L == null : $L.equals($L))",
+                            left, right, left, right);
+                }
+                return CodeBlock.of("$L.equals($L)", left, right);
+        }
+    }
+
+    /**
+     * Returns an expression that computes the hash code of {@code value} for {@code property}
+     * without boxing primitives.
+     */
+    static CodeBlock hashCodeOf(Context context, Property property, CodeBlock value) {
+        TypeMirror type = property.element().getReturnType();
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("$L ? 1231 : 1237", value);
+            case LONG:
+                return CodeBlock.of("(int) (($L >>> 32) ^ $L)", value, value);
+            case FLOAT:
+                return CodeBlock.of("Float.floatToIntBits($L)", value);
+            case DOUBLE:
+                return CodeBlock.of("(int) ((Double.doubleToLongBits($L) >>> 32) "
+                        + "^ Double.doubleToLongBits($L))", value, value);
+            case ARRAY:
+                return CodeBlock.of("$T.hashCode($L)", Arrays.class, value);
+            default:
+                if (type.getKind().isPrimitive()) {
+                    return value;
+                }
+                if (property.nullable()) {
+                    return CodeBlock.of("($L == null) ? 0 : $L.hashCode()", value, value);
+                }
+                return CodeBlock.of("$L.hashCode()", value);
+        }
+    }
+
+    private static boolean isEnum(Context context, TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && context.processingEnvironment().getTypeUtils().asElement(type).getKind()
+                        == ElementKind.ENUM;
+    }
+
+    private EqualsHashCodeUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
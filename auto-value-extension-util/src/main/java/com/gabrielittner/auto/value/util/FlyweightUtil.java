@@ -0,0 +1,213 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.lang.model.type.TypeKind;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates flyweight views that read the properties of primitive-only AutoValue classes directly
+ * from a {@link ByteBuffer} without creating an instance per record.
+ */
+public final class FlyweightUtil {
+
+    /**
+     * Adds a static nested class called {@code className} to the given {@code builder} which was
+     * created with {@link AutoValueUtil#newTypeSpecBuilder}. The class is a mutable view of one
+     * record in a {@link ByteBuffer} that stores fixed size records back to back:
+     *
+     * <pre>
+     * static final int SIZE
+     * static final int A_OFFSET
+     * ClassName wrap(ByteBuffer buffer, int index)
+     * int a()
+     * AutoValueClass toValue()
+     * static void write(AutoValueClass value, ByteBuffer buffer, int index)
+     * </pre>
+     *
+     * A single view can be moved over all records of a heap, direct or memory-mapped buffer with
+     * {@code wrap} and reads the properties with absolute gets, so the position and limit of the
+     * buffer are never changed. Properties are laid out by decreasing size, so that each one is
+     * aligned to its size, and {@code SIZE} is padded to a multiple of the largest property.
+     * {@code toValue()} creates a regular instance with
+     * {@link AutoValueUtil#newFinalClassConstructorCall(Context, Object[])}.
+     *
+     * <p>Only primitive properties are supported. Other properties will be reported with
+     * {@link AutoValueUtil#error(Context, Property, String)} and no class is added.
+     */
+    public static void addFlyweightView(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        boolean supported = true;
+        for (Property property : properties) {
+            if (!property.element().getReturnType().getKind().isPrimitive()) {
+                AutoValueUtil.error(context, property,
+                        "Flyweight views only support primitive properties");
+                supported = false;
+            }
+        }
+        if (!supported) {
+            return;
+        }
+
+        List<Property> layout = new ArrayList<>(properties);
+        Collections.sort(layout, new Comparator<Property>() {
+            @Override
+            public int compare(Property left, Property right) {
+                return Integer.compare(sizeOf(right), sizeOf(left));
+            }
+        });
+        NameAllocator names = new NameAllocator();
+        String size = names.newName("SIZE");
+        Map<Property, String> offsets = new LinkedHashMap<>();
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        TypeSpec.Builder view = TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables));
+        int offset = 0;
+        for (Property property : layout) {
+            String name = names.newName(CaseFormat.LOWER_CAMEL
+                    .to(CaseFormat.UPPER_UNDERSCORE, property.humanName()) + "_OFFSET");
+            offsets.put(property, name);
+            view.addField(FieldSpec.builder(int.class, name, STATIC, FINAL)
+                    .initializer("$L", offset)
+                    .build());
+            offset += sizeOf(property);
+        }
+        int alignment = layout.isEmpty() ? 1 : sizeOf(layout.get(0));
+        int paddedSize = (offset + alignment - 1) / alignment * alignment;
+        view.addField(FieldSpec.builder(int.class, size, STATIC, FINAL)
+                .initializer("$L", paddedSize)
+                .build());
+
+        String buffer = names.newName("buffer");
+        String base = names.newName("offset");
+        view.addField(ByteBuffer.class, buffer, PRIVATE)
+                .addField(int.class, base, PRIVATE);
+
+        ClassName viewName = ClassName.get("", className);
+        TypeName viewType = typeVariables.length == 0
+                ? viewName
+                : ParameterizedTypeName.get(viewName, typeVariables);
+        view.addMethod(MethodSpec.methodBuilder("wrap")
+                .returns(viewType)
+                .addParameter(ByteBuffer.class, "buffer")
+                .addParameter(int.class, "index")
+                .addStatement("this.$N = buffer", buffer)
+                .addStatement("this.$N = index * $N", base, size)
+                .addStatement("return this")
+                .build());
+
+        for (Property property : properties) {
+            CodeBlock value = read(property, buffer, base, offsets.get(property));
+            view.addMethod(MethodSpec.methodBuilder(property.methodName())
+                    .returns(property.type().withoutAnnotations())
+                    .addStatement("return $L", value)
+                    .build());
+        }
+
+        Object[] values = new Object[properties.size()];
+        MethodSpec.Builder toValue = MethodSpec.methodBuilder("toValue")
+                .returns(AutoValueUtil.getAutoValueClassTypeName(context));
+        NameAllocator locals = new NameAllocator();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            values[i] = locals.newName(property.humanName());
+            toValue.addStatement("$T $N = $N()",
+                    property.type().withoutAnnotations(), values[i], property.methodName());
+        }
+        view.addMethod(toValue.addCode("return ")
+                .addCode(AutoValueUtil.newFinalClassConstructorCall(context, values))
+                .build());
+
+        MethodSpec.Builder write = MethodSpec.methodBuilder("write")
+                .addModifiers(STATIC)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .addParameter(AutoValueUtil.getAutoValueClassTypeName(context), "value")
+                .addParameter(ByteBuffer.class, "buffer")
+                .addParameter(int.class, "index")
+                .addStatement("int $N = index * $N", base, size);
+        for (Property property : layout) {
+            write.addStatement("$L", write(property, base, offsets.get(property)));
+        }
+        builder.addType(view.addMethod(write.build()).build());
+    }
+
+    private static CodeBlock read(Property property, String buffer, String base, String offset) {
+        switch (property.element().getReturnType().getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("$N.get($N + $N) != 0", buffer, base, offset);
+            case BYTE:
+                return CodeBlock.of("$N.get($N + $N)", buffer, base, offset);
+            default:
+                return CodeBlock.of("$N.get$L($N + $N)",
+                        buffer, accessorSuffix(property), base, offset);
+        }
+    }
+
+    private static CodeBlock write(Property property, String base, String offset) {
+        CodeBlock value = CodeBlock.of("value.$N()", property.methodName());
+        switch (property.element().getReturnType().getKind()) {
+            case BOOLEAN:
+                return CodeBlock.of("buffer.put($N + $N, (byte) ($L ? 1 : 0))",
+                        base, offset, value);
+            case BYTE:
+                return CodeBlock.of("buffer.put($N + $N, $L)", base, offset, value);
+            default:
+                return CodeBlock.of("buffer.put$L($N + $N, $L)",
+                        accessorSuffix(property), base, offset, value);
+        }
+    }
+
+    private static String accessorSuffix(Property property) {
+        String name = property.element().getReturnType().getKind().name();
+        return name.charAt(0) + name.substring(1).toLowerCase(Locale.US);
+    }
+
+    private static int sizeOf(Property property) {
+        TypeKind kind = property.element().getReturnType().getKind();
+        switch (kind) {
+            case BOOLEAN:
+            case BYTE:
+                return 1;
+            case SHORT:
+            case CHAR:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Not a primitive: " + kind);
+        }
+    }
+
+    private FlyweightUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,174 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates implementations of AutoValue classes that move rarely used properties into a side
+ * object which is only allocated when one of them has a value.
+ */
+public final class HotColdSplitUtil {
+
+    /**
+     * Adds a static nested class called {@code className} that extends the AutoValue class to the
+     * given {@code builder} which was created with {@link AutoValueUtil#newTypeSpecBuilder}.
+     * Instances are created with {@code new AutoValue_Foo.ClassName(...)} using the same
+     * parameters as the constructor of the generated AutoValue class.
+     *
+     * <p>Properties annotated with an annotation called {@code coldAnnotation}, as checked by
+     * {@link ElementUtil#hasAnnotationWithName}, are stored in a private nested class {@code Cold}
+     * instead of fields of the instance. The instance only has fields for the other properties and
+     * a single reference to the side object, which stays null as long as all cold properties are
+     * null, {@code 0} or {@code false}. Accessors of cold properties return that default without
+     * touching the side object when it's absent. {@code float} and {@code double} values are
+     * compared by their bits, so {@code -0.0} is kept.
+     *
+     * <p>Cold properties must be {@code @Nullable} or primitive, otherwise the side object would
+     * always be allocated. Other cold properties are reported with
+     * {@link AutoValueUtil#error(Context, Property, String)} and no class is added.
+     *
+     * <p>The class is a nested implementation as described in {@link ImplementationUtil}, so
+     * AutoValue classes with abstract methods that aren't properties are reported as errors.
+     */
+    public static void addSplitClass(Context context, TypeSpec.Builder builder,
+            String className, String coldAnnotation) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        List<Property> cold = new ArrayList<>();
+        boolean supported = true;
+        for (Property property : properties) {
+            if (!ElementUtil.hasAnnotationWithName(property.element(), coldAnnotation)) {
+                continue;
+            }
+            if (!property.type().isPrimitive() && !property.nullable()) {
+                AutoValueUtil.error(context, property,
+                        "Cold properties must be @Nullable or primitive");
+                supported = false;
+            }
+            cold.add(property);
+        }
+        if (!supported) {
+            return;
+        }
+
+        NameAllocator names = new NameAllocator();
+        for (Property property : properties) {
+            names.newName(property.humanName(), property);
+        }
+        String coldField = names.newName("cold");
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        ClassName coldName = ClassName.get("", "Cold");
+        TypeName coldType = typeVariables.length == 0
+                ? coldName
+                : ParameterizedTypeName.get(coldName, typeVariables);
+
+        TypeSpec.Builder implementation =
+                ImplementationUtil.newImplementationBuilder(context, className);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        for (Property property : properties) {
+            constructor.addCode(ImplementationUtil.nullCheck(property, property.humanName()));
+        }
+        TypeSpec.Builder coldClass = TypeSpec.classBuilder(coldName.simpleName())
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables));
+        MethodSpec.Builder coldConstructor = MethodSpec.constructorBuilder();
+        CodeBlock.Builder present = CodeBlock.builder();
+        CodeBlock.Builder arguments = CodeBlock.builder();
+        for (Property property : properties) {
+            String field = names.get(property);
+            TypeName type = property.type().withoutAnnotations();
+            if (!cold.contains(property)) {
+                implementation.addField(type, field, PRIVATE, FINAL);
+                constructor.addStatement("this.$N = $N", field, property.humanName());
+                implementation.addMethod(ImplementationUtil.newAccessor(property)
+                        .addStatement("return $N", field)
+                        .build());
+                continue;
+            }
+            coldClass.addField(type, field, FINAL);
+            coldConstructor.addParameter(type, field)
+                    .addStatement("this.$1N = $1N", field);
+            if (!arguments.isEmpty()) {
+                present.add("\n|| ");
+                arguments.add(", ");
+            }
+            present.add(isPresent(type, property.humanName()));
+            arguments.add("$N", property.humanName());
+            implementation.addMethod(ImplementationUtil.newAccessor(property)
+                    .addStatement("return $N == null ? $L : $N.$N",
+                            coldField, defaultValue(type), coldField, field)
+                    .build());
+        }
+        if (!cold.isEmpty()) {
+            implementation.addField(coldType, coldField, PRIVATE, FINAL);
+            constructor.addStatement(typeVariables.length == 0
+                            ? "this.$N = $L\n? new $T($L)\n: null"
+                            : "this.$N = $L\n? new $T<>($L)\n: null",
+                    coldField, present.build(), coldName, arguments.build());
+        }
+        implementation.addMethod(constructor.build());
+        ImplementationUtil.addValueMethods(context, implementation, properties);
+        if (!cold.isEmpty()) {
+            implementation.addType(coldClass.addMethod(coldConstructor.build()).build());
+        }
+        if (ImplementationUtil.implementsAbstractMethods(context, implementation, className)) {
+            builder.addType(implementation.build());
+        }
+    }
+
+    private static CodeBlock isPresent(TypeName type, String name) {
+        if (type.equals(TypeName.BOOLEAN)) {
+            return CodeBlock.of("$N", name);
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return CodeBlock.of("$T.doubleToLongBits($N) != 0L", Double.class, name);
+        }
+        if (type.equals(TypeName.FLOAT)) {
+            return CodeBlock.of("$T.floatToIntBits($N) != 0", Float.class, name);
+        }
+        if (type.isPrimitive()) {
+            return CodeBlock.of("$N != 0", name);
+        }
+        return CodeBlock.of("$N != null", name);
+    }
+
+    private static String defaultValue(TypeName type) {
+        if (type.equals(TypeName.BOOLEAN)) {
+            return "false";
+        }
+        if (type.equals(TypeName.LONG)) {
+            return "0L";
+        }
+        if (type.equals(TypeName.FLOAT)) {
+            return "0f";
+        }
+        if (type.equals(TypeName.DOUBLE)) {
+            return "0d";
+        }
+        if (type.equals(TypeName.BYTE) || type.equals(TypeName.SHORT)
+                || type.equals(TypeName.CHAR)) {
+            return "(" + type + ") 0";
+        }
+        return type.isPrimitive() ? "0" : "null";
+    }
+
+    private HotColdSplitUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
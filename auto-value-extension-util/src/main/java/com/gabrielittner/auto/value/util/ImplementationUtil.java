@@ -0,0 +1,126 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Arrays;
+import java.util.List;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.VariableElement;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Helpers for generating nested classes that directly extend the AutoValue class instead of being
+ * part of the chain of generated classes, like the ones added by
+ * {@link BitPackingUtil#addPackedClass}, {@link HotColdSplitUtil#addSplitClass},
+ * {@link PrimitiveArrayUtil#addPrimitiveArrayClass}, {@link SparseUtil#addSparseClass} and
+ * {@link BinaryCodecUtil#addLazyDecoding}.
+ *
+ * <p>Unlike the classes in the chain they don't extend the generated AutoValue implementation and
+ * don't inherit its fields, which allows them to store properties differently. The generated
+ * {@code equals()}, {@code hashCode()} and {@code toString()} only use the property accessors and
+ * behave like the ones generated by AutoValue, so instances are interchangeable with the ones of
+ * the final generated class.
+ *
+ * <p>Such a class can only implement the properties and the methods its util adds. Other abstract
+ * methods of the AutoValue class, like {@code toBuilder()} or methods that another extension
+ * implements in the chain, are reported with {@link AutoValueUtil#error(Context, Property, String)}
+ * by {@link #implementsAbstractMethods} and the class isn't added.
+ */
+final class ImplementationUtil {
+
+    /**
+     * Creates a builder for a static final class called {@code className} that extends the
+     * AutoValue class and has the same type variables.
+     */
+    static TypeSpec.Builder newImplementationBuilder(Context context, String className) {
+        return TypeSpec.classBuilder(className)
+                .addModifiers(STATIC, FINAL)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .superclass(AutoValueUtil.getAutoValueClassTypeName(context));
+    }
+
+    /**
+     * Creates a builder for a method overriding the accessor of {@code property}.
+     */
+    static MethodSpec.Builder newAccessor(Property property) {
+        return MethodSpec.overriding(property.element());
+    }
+
+    /**
+     * Returns a statement that throws a {@link NullPointerException} like AutoValue does if the
+     * parameter {@code name} of the non-null {@code property} is null. Returns an empty block for
+     * primitive and nullable properties.
+     */
+    static CodeBlock nullCheck(Property property, String name) {
+        if (property.element().getReturnType().getKind().isPrimitive() || property.nullable()) {
+            return CodeBlock.of("");
+        }
+        return CodeBlock.builder()
+                .beginControlFlow("if ($N == null)", name)
+                .addStatement("throw new $T($S)", NullPointerException.class, "Null " + name)
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Adds {@code equals()}, {@code hashCode()} and {@code toString()} for all {@code properties}
+     * to {@code builder}, split into helpers if they are too large to be inlined.
+     */
+    static void addValueMethods(
+            Context context, TypeSpec.Builder builder, List<Property> properties) {
+        EqualsHashCodeUtil.addEqualsMethod(context, builder, properties);
+        EqualsHashCodeUtil.addHashCodeMethod(context, builder, properties);
+        ToStringUtil.addToString(context, builder, properties, false);
+    }
+
+    /**
+     * Reports every abstract method of the AutoValue class that {@code implementation}, the class
+     * called {@code className}, doesn't override with
+     * {@link AutoValueUtil#error(Context, Property, String)} and returns false if there is any.
+     * These are for example {@code toBuilder()} or methods that another extension implements in
+     * the chain of generated classes. The class wouldn't compile then and must not be added.
+     */
+    static boolean implementsAbstractMethods(
+            Context context, TypeSpec.Builder implementation, String className) {
+        boolean complete = true;
+        for (ExecutableElement method : context.abstractMethods()) {
+            if (!overrides(implementation.methodSpecs, method)) {
+                String name = method.getSimpleName().toString();
+                AutoValueUtil.error(context, new Property(name, method),
+                        "Can't generate %s because it can't implement the abstract method %s()",
+                        className, name);
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    private static boolean overrides(List<MethodSpec> methods, ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (MethodSpec spec : methods) {
+            if (!spec.name.equals(method.getSimpleName().toString())
+                    || spec.parameters.size() != parameters.size()) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < parameters.size(); i++) {
+                TypeName type = TypeName.get(parameters.get(i).asType()).withoutAnnotations();
+                matches &= spec.parameters.get(i).type.withoutAnnotations().equals(type);
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ImplementationUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,147 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates canonicalizing factories that return one shared instance for all equal values of an
+ * AutoValue class.
+ */
+public final class InternerUtil {
+
+    private static final String INTERNED = "INTERNED";
+    private static final String QUEUE = "INTERNED_QUEUE";
+    private static final ClassName KEY = ClassName.get("", "InternKey");
+
+    /**
+     * Adds a static factory method called {@code methodName} to the given {@code builder} which was
+     * created with {@link AutoValueUtil#newTypeSpecBuilder}. The method takes the same parameters
+     * as the constructor, creates a new instance with
+     * {@link AutoValueUtil#newFinalClassConstructorCall(Context, Object[])} and returns a
+     * previously created equal instance instead if one is still reachable.
+     *
+     * <p>Instances are held in a {@link ConcurrentHashMap} through weak references, so interned
+     * values that are no longer used elsewhere can be garbage collected. Cleared entries are
+     * removed on the next call of the factory.
+     */
+    public static void addInterningFactory(
+            Context context, TypeSpec.Builder builder, String methodName) {
+        builder.addType(newInternKey())
+                .addField(FieldSpec.builder(
+                        ParameterizedTypeName.get(ClassName.get(ConcurrentMap.class), KEY, KEY),
+                        INTERNED, PRIVATE, STATIC, FINAL)
+                        .initializer("new $T<>()", ConcurrentHashMap.class)
+                        .build())
+                .addField(FieldSpec.builder(
+                        ParameterizedTypeName.get(ReferenceQueue.class, Object.class),
+                        QUEUE, PRIVATE, STATIC, FINAL)
+                        .initializer("new $T<>()", ReferenceQueue.class)
+                        .build())
+                .addMethod(newInterningFactory(context, methodName));
+    }
+
+    private static MethodSpec newInterningFactory(Context context, String methodName) {
+        TypeName autoValueClass = AutoValueUtil.getAutoValueClassTypeName(context);
+        Object[] names = context.properties().keySet().toArray();
+        MethodSpec.Builder factory = MethodSpec.methodBuilder(methodName)
+                .addModifiers(STATIC)
+                .addTypeVariables(
+                        Arrays.asList(AutoValueUtil.getTypeVariables(context.autoValueClass())))
+                .returns(autoValueClass)
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        if (autoValueClass instanceof ParameterizedTypeName) {
+            factory.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+        }
+        // the locals must not shadow the parameters, which are named like the properties
+        NameAllocator locals = new NameAllocator();
+        for (Object name : names) {
+            locals.newName((String) name);
+        }
+        String candidate = locals.newName("candidate");
+        String stale = locals.newName("stale");
+        String key = locals.newName("key");
+        String existing = locals.newName("existing");
+        String value = locals.newName("value");
+        return factory
+                .addCode("$T $N = ", autoValueClass, candidate)
+                .addCode(AutoValueUtil.newFinalClassConstructorCall(context, names))
+                .addStatement("$T $N", KEY, stale)
+                .beginControlFlow("while (($N = ($T) $N.poll()) != null)", stale, KEY, QUEUE)
+                .addStatement("$N.remove($N)", INTERNED, stale)
+                .endControlFlow()
+                .addStatement("$T $N = new $T($N, $N)", KEY, key, KEY, candidate, QUEUE)
+                .beginControlFlow("while (true)")
+                .addStatement("$T $N = $N.putIfAbsent($N, $N)", KEY, existing, INTERNED, key, key)
+                .beginControlFlow("if ($N == null)", existing)
+                .addStatement("return $N", candidate)
+                .endControlFlow()
+                .addStatement("$T $N = $N.get()", Object.class, value, existing)
+                .beginControlFlow("if ($N != null)", value)
+                .addStatement("return ($T) $N", autoValueClass, value)
+                .endControlFlow()
+                .addStatement("$N.remove($N, $N)", INTERNED, existing, existing)
+                .endControlFlow()
+                .build();
+    }
+
+    private static TypeSpec newInternKey() {
+        TypeName queueType = ParameterizedTypeName.get(ReferenceQueue.class, Object.class);
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addParameter(Object.class, "referent")
+                .addParameter(queueType, "queue")
+                .addStatement("super(referent, queue)")
+                .addStatement("this.hash = referent.hashCode()")
+                .build();
+        MethodSpec hashCode = MethodSpec.methodBuilder("hashCode")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class)
+                .addStatement("return hash")
+                .build();
+        MethodSpec equals = MethodSpec.methodBuilder("equals")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(boolean.class)
+                .addParameter(Object.class, "o")
+                .beginControlFlow("if (o == this)")
+                .addStatement("return true")
+                .endControlFlow()
+                .beginControlFlow("if (!(o instanceof $T))", KEY)
+                .addStatement("return false")
+                .endControlFlow()
+                .addStatement("$T value = get()", Object.class)
+                .addStatement("return value != null && value.equals((($T) o).get())", KEY)
+                .build();
+        return TypeSpec.classBuilder(KEY)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .superclass(ParameterizedTypeName.get(WeakReference.class, Object.class))
+                .addField(int.class, "hash", PRIVATE, FINAL)
+                .addMethod(constructor)
+                .addMethod(hashCode)
+                .addMethod(equals)
+                .build();
+    }
+
+    private InternerUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
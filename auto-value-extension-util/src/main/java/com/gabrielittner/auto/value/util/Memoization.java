@@ -0,0 +1,35 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.TypeSpec;
+
+/**
+ * The strategies that
+ * {@link AutoValueUtil#addMemoizedMethod(Context, TypeSpec.Builder, Property, Memoization)} can
+ * use to cache the result of a method. All of them are safe to use from multiple threads.
+ */
+public enum Memoization {
+
+    /**
+     * The result is stored in a volatile field that is checked again while holding the lock of the
+     * instance. The method of the super class is called exactly once. Nullable results are marked
+     * with a sentinel value and primitives with an additional volatile flag.
+     */
+    DOUBLE_CHECKED,
+
+    /**
+     * The result is stored in a plain field without any locking, like {@link String#hashCode()}.
+     * Only supported for primitives. The method of the super class might be called more than once
+     * under contention and will be called again whenever it returns the default value of the type.
+     * {@code long} and {@code double} fields are volatile to avoid word tearing.
+     */
+    RACY_SINGLE_CHECK,
+
+    /**
+     * The result is wrapped in an immutable holder object with a final field, which is safely
+     * published through a plain field without any locking. The method of the super class might be
+     * called more than once under contention, but every caller sees a completely initialized
+     * result. Null results don't need a sentinel because the holder is never null once set.
+     */
+    HOLDER
+}
@@ -0,0 +1,198 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.base.CaseFormat;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import java.util.Arrays;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.type.TypeKind;
+
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.element.Modifier.TRANSIENT;
+import static javax.lang.model.element.Modifier.VOLATILE;
+
+/**
+ * Generates the fields and overriding methods for
+ * {@link AutoValueUtil#addMemoizedMethod(Context, TypeSpec.Builder, Property, Memoization)}.
+ */
+final class MemoizedMethods {
+
+    private static final String UNSET = "MEMOIZED_UNSET";
+
+    static void addDoubleChecked(TypeSpec.Builder builder, Property property) {
+        String name = property.methodName();
+        TypeName type = property.type().withoutAnnotations();
+        MethodSpec.Builder method = newOverride(property);
+        if (type.isPrimitive()) {
+            String flag = name + "$Memoized";
+            builder.addField(type, name, PRIVATE, TRANSIENT)
+                    .addField(boolean.class, flag, PRIVATE, TRANSIENT, VOLATILE);
+            method.beginControlFlow("if (!$N)", flag)
+                    .beginControlFlow("synchronized (this)")
+                    .beginControlFlow("if (!$N)", flag)
+                    .addStatement("$N = super.$N()", name, name)
+                    .addStatement("$N = true", flag)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return $N", name);
+        } else if (property.nullable()) {
+            addUnsetSentinel(builder);
+            builder.addField(FieldSpec.builder(Object.class, name, PRIVATE, TRANSIENT, VOLATILE)
+                    .initializer("$N", UNSET)
+                    .build());
+            if (needsUncheckedCast(type)) {
+                method.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                        .addMember("value", "$S", "unchecked")
+                        .build());
+            }
+            method.addStatement("$T result = $N", Object.class, name)
+                    .beginControlFlow("if (result == $N)", UNSET)
+                    .beginControlFlow("synchronized (this)")
+                    .addStatement("result = $N", name)
+                    .beginControlFlow("if (result == $N)", UNSET)
+                    .addStatement("result = super.$N()", name)
+                    .addStatement("$N = result", name)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return ($T) result", type);
+        } else {
+            builder.addField(type, name, PRIVATE, TRANSIENT, VOLATILE);
+            method.addStatement("$T result = $N", type, name)
+                    .beginControlFlow("if (result == null)")
+                    .beginControlFlow("synchronized (this)")
+                    .addStatement("result = $N", name)
+                    .beginControlFlow("if (result == null)")
+                    .addStatement("result = super.$N()", name)
+                    .beginControlFlow("if (result == null)")
+                    .addStatement("throw new $T($S)",
+                            NullPointerException.class, name + "() cannot return null")
+                    .endControlFlow()
+                    .addStatement("$N = result", name)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return result");
+        }
+        builder.addMethod(method.build());
+    }
+
+    static void addRacySingleCheck(TypeSpec.Builder builder, Property property) {
+        String name = property.methodName();
+        TypeName type = property.type().withoutAnnotations();
+        TypeKind kind = property.element().getReturnType().getKind();
+        FieldSpec.Builder field = FieldSpec.builder(type, name, PRIVATE, TRANSIENT);
+        if (kind == TypeKind.LONG || kind == TypeKind.DOUBLE) {
+            field.addModifiers(VOLATILE);
+        }
+        builder.addField(field.build());
+        String unset = kind == TypeKind.BOOLEAN ? "false" : "0";
+        builder.addMethod(newOverride(property)
+                .addStatement("$T result = $N", type, name)
+                .beginControlFlow("if (result == $L)", unset)
+                .addStatement("result = super.$N()", name)
+                .addStatement("$N = result", name)
+                .endControlFlow()
+                .addStatement("return result")
+                .build());
+    }
+
+    static void addHolder(Context context, TypeSpec.Builder builder, Property property) {
+        String name = property.methodName();
+        TypeName type = property.type().withoutAnnotations();
+        TypeVariableName[] typeVariables =
+                AutoValueUtil.getTypeVariables(context.autoValueClass());
+        ClassName holderName = ClassName.get("",
+                CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, name) + "Holder");
+        TypeName holderType = typeVariables.length == 0
+                ? holderName
+                : ParameterizedTypeName.get(holderName, typeVariables);
+
+        builder.addType(TypeSpec.classBuilder(holderName)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addTypeVariables(Arrays.asList(typeVariables))
+                .addField(type, "value", FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(type, "value")
+                        .addStatement("this.value = value")
+                        .build())
+                .build());
+        builder.addField(holderType, name, PRIVATE, TRANSIENT);
+
+        MethodSpec.Builder method = newOverride(property)
+                .addStatement("$T holder = $N", holderType, name)
+                .beginControlFlow("if (holder == null)");
+        if (type.isPrimitive() || property.nullable()) {
+            method.addStatement("holder = new $T(super.$N())", holderType, name);
+        } else {
+            method.addStatement("$T result = super.$N()", type, name)
+                    .beginControlFlow("if (result == null)")
+                    .addStatement("throw new $T($S)",
+                            NullPointerException.class, name + "() cannot return null")
+                    .endControlFlow()
+                    .addStatement("holder = new $T(result)", holderType);
+        }
+        builder.addMethod(method.addStatement("$N = holder", name)
+                .endControlFlow()
+                .addStatement("return holder.value")
+                .build());
+    }
+
+    private static MethodSpec.Builder newOverride(Property property) {
+        return MethodSpec.overriding(property.element());
+    }
+
+    private static void addUnsetSentinel(TypeSpec.Builder builder) {
+        for (FieldSpec field : builder.fieldSpecs) {
+            if (field.name.equals(UNSET)) {
+                return;
+            }
+        }
+        builder.addField(FieldSpec.builder(Object.class, UNSET, PRIVATE, STATIC, FINAL)
+                .initializer("new $T()", Object.class)
+                .build());
+    }
+
+    private static boolean needsUncheckedCast(TypeName type) {
+        return type instanceof ParameterizedTypeName || type instanceof TypeVariableName;
+    }
+
+    /**
+     * Returns an error message if {@code method} can't be memoized with {@code memoization} or
+     * null otherwise.
+     */
+    static String check(ExecutableElement method, Memoization memoization) {
+        if (!method.getParameters().isEmpty()) {
+            return "Memoized methods can't have parameters";
+        }
+        if (method.getReturnType().getKind() == TypeKind.VOID) {
+            return "Memoized methods can't return void";
+        }
+        if (ElementUtil.hasModifier(method, PRIVATE)
+                || ElementUtil.hasModifier(method, FINAL)
+                || ElementUtil.hasModifier(method, STATIC)
+                || ElementUtil.hasModifier(method, ABSTRACT)) {
+            return "Memoized methods must be non-private, non-final, non-static and non-abstract";
+        }
+        if (memoization == Memoization.RACY_SINGLE_CHECK
+                && !method.getReturnType().getKind().isPrimitive()) {
+            return "RACY_SINGLE_CHECK can only be used for methods returning a primitive";
+        }
+        return null;
+    }
+
+    private MemoizedMethods() {
+        throw new AssertionError("No instances.");
+    }
+}
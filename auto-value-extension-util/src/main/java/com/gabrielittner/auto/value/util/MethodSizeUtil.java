@@ -0,0 +1,278 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+import javax.tools.Diagnostic;
+
+/**
+ * Estimates the bytecode size of generated methods. HotSpot only inlines hot methods up to
+ * {@link #FREQ_INLINE_SIZE} bytes and doesn't compile methods larger than
+ * {@link #HUGE_METHOD_LIMIT} bytes at all, which affects {@code equals()}, {@code hashCode()} and
+ * {@code toString()} of classes with many properties. The methods added by
+ * {@link EqualsHashCodeUtil#addEqualsMethod}, {@link EqualsHashCodeUtil#addHashCodeMethod} and
+ * {@link ToStringUtil#addToString} are split into chained private helpers when they would be
+ * larger than {@link #FREQ_INLINE_SIZE}.
+ */
+public final class MethodSizeUtil {
+
+    /** The default of HotSpot's {@code -XX:FreqInlineSize} on 64-bit platforms. */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    /** HotSpot's {@code HugeMethodLimit}, larger methods are only interpreted. */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    /**
+     * Returns a rough estimate of the number of bytes of bytecode javac generates for
+     * {@code method}. It's computed from the tokens of the rendered code, counting for example 3
+     * bytes per method call, 2 per literal or variable access and 3 per comparison, and is meant
+     * to compare methods against limits like {@link #FREQ_INLINE_SIZE}, not to be exact.
+     */
+    public static int estimateBytecodeSize(MethodSpec method) {
+        int size = estimateBytecodeSize(method.code);
+        if (method.code.isEmpty()) {
+            return size;
+        }
+        // the implicit return of void methods and constructors
+        return method.isConstructor() || method.returnType.equals(TypeName.VOID) ? size + 1 : size;
+    }
+
+    static int estimateBytecodeSize(CodeBlock code) {
+        if (code.isEmpty()) {
+            return 0;
+        }
+        SourceTokens tokens = new SourceTokens(code.toString());
+        return estimate(tokens, 0, tokens.size());
+    }
+
+    /**
+     * Reports a {@link Diagnostic.Kind#WARNING} for every method of {@code builder} and of its
+     * nested classes whose {@link #estimateBytecodeSize(MethodSpec)} is larger than
+     * {@link #HUGE_METHOD_LIMIT}. Methods are never changed, bodies that are built from many
+     * similar parts should be split while they are generated like the ones of
+     * {@link EqualsHashCodeUtil} and {@link ToStringUtil}. Should be called after all methods were
+     * added.
+     */
+    public static void checkMethodSizes(Context context, TypeSpec.Builder builder) {
+        checkMethodSizes(context, builder.methodSpecs, builder.typeSpecs, "");
+    }
+
+    private static void checkMethodSizes(
+            Context context, List<MethodSpec> methods, List<TypeSpec> types, String prefix) {
+        for (MethodSpec method : methods) {
+            int size = estimateBytecodeSize(method);
+            if (size > HUGE_METHOD_LIMIT) {
+                print(context, Diagnostic.Kind.WARNING, String.format("%s%s() has an estimated "
+                                + "%d bytes of bytecode, methods larger than %d bytes are not "
+                                + "compiled by HotSpot",
+                        prefix, method.name, size, HUGE_METHOD_LIMIT));
+            }
+        }
+        for (TypeSpec type : types) {
+            checkMethodSizes(context, type.methodSpecs, type.typeSpecs, prefix + type.name + ".");
+        }
+    }
+
+    /**
+     * Groups {@code parts}, which are emitted in order with code of {@code separatorSize} bytes
+     * between them, into chunks that each stay below {@link #FREQ_INLINE_SIZE} together with the
+     * {@code overhead} of the method they are emitted in. A part that doesn't fit on its own gets
+     * a chunk of its own.
+     */
+    static List<List<CodeBlock>> chunk(List<CodeBlock> parts, int separatorSize, int overhead) {
+        List<List<CodeBlock>> chunks = new ArrayList<>();
+        List<CodeBlock> chunk = new ArrayList<>();
+        int size = overhead;
+        for (CodeBlock part : parts) {
+            int partSize = estimateBytecodeSize(part) + separatorSize;
+            if (!chunk.isEmpty() && size + partSize > FREQ_INLINE_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                size = overhead;
+            }
+            chunk.add(part);
+            size += partSize;
+        }
+        chunks.add(chunk);
+        return chunks;
+    }
+
+    /** Returns the name of the helper at {@code index} that a part of {@code method} moved to. */
+    static String helperName(String method, int index) {
+        return method + "$" + index;
+    }
+
+    /** Reports that {@code method} was split into {@code methods} methods. */
+    static void noteSplit(Context context, MethodSpec method, int methods) {
+        print(context, Diagnostic.Kind.NOTE, String.format("Split %s() with an estimated %d "
+                        + "bytes of bytecode into %d methods to stay below %d bytes",
+                method.name, estimateBytecodeSize(method), methods, FREQ_INLINE_SIZE));
+    }
+
+    private static void print(Context context, Diagnostic.Kind kind, String message) {
+        context.processingEnvironment().getMessager()
+                .printMessage(kind, message, context.autoValueClass());
+    }
+
+
+    static int estimate(SourceTokens tokens, int from, int to) {
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            String text = tokens.text(i);
+            String next = tokens.text(i + 1);
+            switch (tokens.kind(i)) {
+                case LITERAL:
+                    size += 2;
+                    break;
+                case IDENTIFIER:
+                    if (text.equals("new")) {
+                        // new, dup and invokespecial, the type isn't counted
+                        size += 7;
+                        int end = tokens.typeEnd(i + 1);
+                        i = end < 0 ? i : end - 1;
+                    } else if (SourceTokens.KEYWORDS.contains(text)) {
+                        size += keywordSize(text);
+                        if (next.equals("(") && (text.equals("this") || text.equals("super"))) {
+                            size += 3;
+                        }
+                    } else if (next.equals("(")) {
+                        size += 3;
+                    } else if (next.equals("<") && tokens.typeArgumentsEnd(i + 1) > 0) {
+                        // a generic type or explicit type arguments
+                        i = tokens.typeArgumentsEnd(i + 1) - 1;
+                    } else if (!next.equals(".") && !tokens.isName(i + 1)
+                            && !SourceTokens.PRIMITIVES.contains(text)
+                            && !(next.equals("[") && tokens.is(i + 2, "]"))) {
+                        // a load or store, names followed by "." or another name are types
+                        size += 2;
+                    }
+                    break;
+                case OPERATOR:
+                    int castEnd = castEnd(tokens, i, to);
+                    if (castEnd > 0) {
+                        size += SourceTokens.PRIMITIVES.contains(tokens.text(i + 1)) ? 1 : 3;
+                        i = castEnd - 1;
+                    } else {
+                        size += operatorSize(text, next);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(tokens.kind(i));
+            }
+        }
+        return size;
+    }
+
+    private static int keywordSize(String keyword) {
+        switch (keyword) {
+            case "return":
+            case "throw":
+            case "this":
+            case "super":
+            case "null":
+            case "true":
+            case "false":
+                return 1;
+            case "instanceof":
+                return 3;
+            case "catch":
+                return 4;
+            case "for":
+            case "while":
+            case "do":
+                return 6;
+            case "synchronized":
+            case "assert":
+                return 8;
+            case "switch":
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    private static int operatorSize(String operator, String next) {
+        switch (operator) {
+            case "==":
+            case "!=":
+            case "<":
+            case ">":
+            case "<=":
+            case ">=":
+            case "!":
+            case "?":
+            case "+=":
+            case "-=":
+            case "*=":
+            case "/=":
+            case "%=":
+            case "&=":
+            case "|=":
+            case "^=":
+            case "<<=":
+            case ">>=":
+            case ">>>=":
+            case "++":
+            case "--":
+                return 3;
+            case "->":
+            case "::":
+                return 5;
+            case "[":
+                return next.equals("]") ? 0 : 1;
+            case "=":
+            case "&&":
+            case "||":
+            case "+":
+            case "-":
+            case "*":
+            case "/":
+            case "%":
+            case "&":
+            case "|":
+            case "^":
+            case "~":
+            case "<<":
+            case ">>":
+            case ">>>":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the index after a cast like {@code (String)} that starts at {@code index} or
+     * {@code -1} if the {@code (} doesn't start a cast.
+     */
+    private static int castEnd(SourceTokens tokens, int index, int to) {
+        // calls, conditions of statements and nested parentheses aren't casts
+        String previous = tokens.text(index - 1);
+        if (!tokens.is(index, "(") || tokens.isName(index - 1)
+                || SourceTokens.PRIMITIVES.contains(previous) || previous.equals(")")
+                || previous.equals("]") || previous.equals(">") || previous.equals("if")
+                || previous.equals("while") || previous.equals("for")
+                || previous.equals("switch") || previous.equals("synchronized")
+                || previous.equals("catch") || previous.equals("try")) {
+            return -1;
+        }
+        int close = tokens.closing(index, to);
+        if (close < 0 || tokens.typeEnd(index + 1) != close || close + 1 >= to) {
+            return -1;
+        }
+        String next = tokens.text(close + 1);
+        boolean operand = tokens.kind(close + 1) == SourceTokens.Kind.LITERAL
+                || tokens.isName(close + 1) || next.equals("(") || next.equals("this")
+                || next.equals("new") || next.equals("null") || next.equals("super")
+                || next.equals("true") || next.equals("false");
+        return operand ? close + 1 : -1;
+    }
+
+    private MethodSizeUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,349 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+import static javax.lang.model.element.Modifier.TRANSIENT;
+
+/**
+ * Generates implementations of AutoValue classes that store {@code List} and {@code Set}
+ * properties of {@link Integer}, {@link Long} and {@link Double} as primitive arrays.
+ */
+public final class PrimitiveArrayUtil {
+
+    private enum Element {
+        INT(Integer.class, TypeName.INT, "Int"),
+        LONG(Long.class, TypeName.LONG, "Long"),
+        DOUBLE(Double.class, TypeName.DOUBLE, "Double");
+
+        final ClassName boxed;
+        final TypeName primitive;
+        final String prefix;
+
+        Element(Class<?> boxed, TypeName primitive, String prefix) {
+            this.boxed = ClassName.get(boxed);
+            this.primitive = primitive;
+            this.prefix = prefix;
+        }
+
+        ArrayTypeName arrayType() {
+            return ArrayTypeName.of(primitive);
+        }
+    }
+
+    private enum Container {
+        LIST("List"),
+        SET("Set");
+
+        final String suffix;
+
+        Container(String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * Adds a static nested class called {@code className} that extends the AutoValue class to the
+     * given {@code builder} which was created with {@link AutoValueUtil#newTypeSpecBuilder}.
+     * Instances are created with {@code new AutoValue_Foo.ClassName(...)} using the same
+     * parameters as the constructor of the generated AutoValue class.
+     *
+     * <p>Properties whose {@link Property#type()} is {@code List} or {@code Set} of
+     * {@link Integer}, {@link Long} or {@link Double} are copied into an {@code int[]},
+     * {@code long[]} or {@code double[]}, which takes a fraction of the memory of the boxed
+     * elements. Their accessors return a read-only view of the array, which is created on first
+     * use and cached. {@code Set}s are stored sorted, so their views iterate in ascending order and
+     * {@code contains()} is a binary search. Null elements are rejected with a
+     * {@link NullPointerException}. All other properties are stored in regular fields.
+     *
+     * <p>For each such property {@code x} the class has public methods like
+     * {@code int xSize()} and {@code int xIntAt(int index)} that read the array directly, so that
+     * hot loops can iterate without unboxing or copying, and {@code int[] xAsIntArray()} that
+     * returns a copy of the array. For a nullable property that is null {@code xAsIntArray()}
+     * returns null while the other two throw a {@link NullPointerException}. They can be
+     * declared as abstract methods of the AutoValue class if the extension consumes them.
+     *
+     * <p>The class is a nested implementation as described in {@link ImplementationUtil}, so
+     * AutoValue classes with abstract methods that aren't properties are reported as errors.
+     */
+    public static void addPrimitiveArrayClass(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        NameAllocator names = new NameAllocator();
+        for (Property property : properties) {
+            names.newName(property.humanName(), property);
+        }
+        String view = names.newName("view");
+        String index = names.newName("index");
+        Map<Property, Element> elements = new LinkedHashMap<>();
+        Map<Property, Container> containers = new LinkedHashMap<>();
+        for (Property property : properties) {
+            TypeName type = property.type().withoutAnnotations();
+            if (!(type instanceof ParameterizedTypeName)) {
+                continue;
+            }
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            Container container = containerOf(parameterized.rawType);
+            Element element = elementOf(parameterized.typeArguments.get(0));
+            if (container != null && element != null) {
+                elements.put(property, element);
+                containers.put(property, container);
+            }
+        }
+
+        TypeSpec.Builder implementation =
+                ImplementationUtil.newImplementationBuilder(context, className);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        for (Property property : properties) {
+            constructor.addCode(ImplementationUtil.nullCheck(property, property.humanName()));
+        }
+        Set<Element> usedElements = EnumSet.noneOf(Element.class);
+        Set<String> views = new LinkedHashSet<>();
+        for (Property property : properties) {
+            String field = names.get(property);
+            String name = property.humanName();
+            Element element = elements.get(property);
+            if (element == null) {
+                implementation.addField(property.type().withoutAnnotations(), field,
+                        PRIVATE, FINAL);
+                constructor.addStatement("this.$N = $N", field, name);
+                implementation.addMethod(ImplementationUtil.newAccessor(property)
+                        .addStatement("return $N", field)
+                        .build());
+                continue;
+            }
+            Container container = containers.get(property);
+            String viewClass = element.prefix + container.suffix;
+            usedElements.add(element);
+            views.add(viewClass);
+            String viewField = names.newName(property.humanName() + "View");
+            implementation.addField(element.arrayType(), field, PRIVATE, FINAL)
+                    .addField(FieldSpec.builder(property.type().withoutAnnotations(), viewField,
+                            PRIVATE, TRANSIENT)
+                            .build());
+            String toArray = "to" + element.prefix + "Array";
+            if (property.nullable()) {
+                constructor.addStatement("this.$1N = $2N == null ? null : $3N($2N)",
+                        field, name, toArray);
+            } else {
+                constructor.addStatement("this.$N = $N($N)", field, toArray, name);
+            }
+            if (container == Container.SET) {
+                if (property.nullable()) {
+                    constructor.beginControlFlow("if (this.$N != null)", field)
+                            .addStatement("$T.sort(this.$N)", Arrays.class, field)
+                            .endControlFlow();
+                } else {
+                    constructor.addStatement("$T.sort(this.$N)", Arrays.class, field);
+                }
+            }
+
+            // the view only has final fields, so it's safe to publish without synchronization
+            TypeName viewType = property.type().withoutAnnotations();
+            MethodSpec.Builder accessor = ImplementationUtil.newAccessor(property)
+                    .addStatement("$T $N = $N", viewType, view, viewField);
+            if (property.nullable()) {
+                accessor.beginControlFlow("if ($N == null && $N != null)", view, field);
+            } else {
+                accessor.beginControlFlow("if ($N == null)", view);
+            }
+            accessor.addStatement("$N = new $N($N)", view, viewClass, field)
+                    .addStatement("$N = $N", viewField, view)
+                    .endControlFlow()
+                    .addStatement("return $N", view);
+            implementation.addMethod(accessor.build());
+            implementation.addMethod(MethodSpec
+                    .methodBuilder(name + "As" + element.prefix + "Array")
+                    .addModifiers(PUBLIC)
+                    .returns(element.arrayType())
+                    .addStatement(property.nullable()
+                            ? "return $1N == null ? null : $1N.clone()"
+                            : "return $1N.clone()", field)
+                    .build());
+            implementation.addMethod(MethodSpec.methodBuilder(name + "Size")
+                    .addModifiers(PUBLIC)
+                    .returns(int.class)
+                    .addStatement("return $N.length", field)
+                    .build());
+            implementation.addMethod(MethodSpec
+                    .methodBuilder(name + element.prefix + "At")
+                    .addModifiers(PUBLIC)
+                    .returns(element.primitive)
+                    .addParameter(int.class, index)
+                    .addStatement("return $N[$N]", field, index)
+                    .build());
+        }
+        implementation.addMethod(constructor.build());
+        ImplementationUtil.addValueMethods(context, implementation, properties);
+        for (Element element : usedElements) {
+            implementation.addMethod(newToArrayMethod(element));
+        }
+        for (Element element : Element.values()) {
+            for (Container container : Container.values()) {
+                if (views.contains(element.prefix + container.suffix)) {
+                    implementation.addType(container == Container.LIST
+                            ? newListView(element)
+                            : newSetView(element));
+                }
+            }
+        }
+        if (ImplementationUtil.implementsAbstractMethods(context, implementation, className)) {
+            builder.addType(implementation.build());
+        }
+    }
+
+    private static Container containerOf(ClassName rawType) {
+        if (rawType.equals(ClassName.get(List.class))) {
+            return Container.LIST;
+        }
+        if (rawType.equals(ClassName.get(Set.class))) {
+            return Container.SET;
+        }
+        return null;
+    }
+
+    private static Element elementOf(TypeName type) {
+        for (Element element : Element.values()) {
+            if (element.boxed.equals(type.withoutAnnotations())) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static MethodSpec newToArrayMethod(Element element) {
+        ParameterizedTypeName collection =
+                ParameterizedTypeName.get(ClassName.get(Collection.class), element.boxed);
+        return MethodSpec.methodBuilder("to" + element.prefix + "Array")
+                .addModifiers(PRIVATE, STATIC)
+                .returns(element.arrayType())
+                .addParameter(collection, "values")
+                .addStatement("$T array = new $T[values.size()]", element.arrayType(),
+                        element.primitive)
+                .addStatement("int i = 0")
+                .beginControlFlow("for ($T value : values)", element.boxed)
+                .beginControlFlow("if (value == null)")
+                .addStatement("throw new $T($S)", NullPointerException.class, "Null element")
+                .endControlFlow()
+                .addStatement("array[i++] = value")
+                .endControlFlow()
+                .addStatement("return array")
+                .build();
+    }
+
+    private static TypeSpec newListView(Element element) {
+        return TypeSpec.classBuilder(element.prefix + Container.LIST.suffix)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .superclass(ParameterizedTypeName.get(
+                        ClassName.get(AbstractList.class), element.boxed))
+                .addSuperinterface(RandomAccess.class)
+                .addField(element.arrayType(), "values", PRIVATE, FINAL)
+                .addMethod(newViewConstructor(element))
+                .addMethod(MethodSpec.methodBuilder("get")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(element.boxed)
+                        .addParameter(int.class, "index")
+                        .addStatement("return values[index]")
+                        .build())
+                .addMethod(newSizeMethod())
+                .build();
+    }
+
+    private static TypeSpec newSetView(Element element) {
+        ParameterizedTypeName iterator =
+                ParameterizedTypeName.get(ClassName.get(Iterator.class), element.boxed);
+        TypeSpec anonymousIterator = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(iterator)
+                .addField(int.class, "index", PRIVATE)
+                .addMethod(MethodSpec.methodBuilder("hasNext")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return index < values.length")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("next")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(element.boxed)
+                        .beginControlFlow("if (index >= values.length)")
+                        .addStatement("throw new $T()", NoSuchElementException.class)
+                        .endControlFlow()
+                        .addStatement("return values[index++]")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("remove")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .addStatement("throw new $T()", UnsupportedOperationException.class)
+                        .build())
+                .build();
+        return TypeSpec.classBuilder(element.prefix + Container.SET.suffix)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .superclass(ParameterizedTypeName.get(
+                        ClassName.get(AbstractSet.class), element.boxed))
+                .addField(element.arrayType(), "values", PRIVATE, FINAL)
+                .addMethod(newViewConstructor(element))
+                .addMethod(MethodSpec.methodBuilder("contains")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(Object.class, "o")
+                        .addStatement("return o instanceof $T\n&& $T.binarySearch(values, ($T) o)"
+                                + " >= 0", element.boxed, Arrays.class, element.boxed)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("iterator")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(iterator)
+                        .addStatement("return $L", anonymousIterator)
+                        .build())
+                .addMethod(newSizeMethod())
+                .build();
+    }
+
+    private static MethodSpec newViewConstructor(Element element) {
+        return MethodSpec.constructorBuilder()
+                .addParameter(element.arrayType(), "values")
+                .addStatement("this.values = values")
+                .build();
+    }
+
+    private static MethodSpec newSizeMethod() {
+        return MethodSpec.methodBuilder("size")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class)
+                .addStatement("return values.length")
+                .build();
+    }
+
+    private PrimitiveArrayUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
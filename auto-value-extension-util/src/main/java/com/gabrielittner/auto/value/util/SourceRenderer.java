@@ -0,0 +1,139 @@
+package com.gabrielittner.auto.value.util;
+
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.Name;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Renders {@link JavaFile}s to source code on background threads, so that an extension can
+ * continue working with the javac model while the source of a class it already built is created.
+ *
+ * <pre>
+ * Future&lt;String&gt; source = SourceRenderer.shared().submit(context.packageName(), typeSpec);
+ * // other work that uses Elements or TypeMirrors
+ * return SourceRenderer.join(source);
+ * </pre>
+ *
+ * Only the immutable {@link JavaFile} is handed to the background thread. JavaPoet converts
+ * {@code $T}, {@code $N} and {@code $S} arguments when a {@link CodeBlock} is built, but
+ * {@code $L} arguments only when it's rendered, by calling their {@code toString()}. Because
+ * javac's model isn't thread-safe, {@code $L} arguments of a submitted file must not be an
+ * {@link Element}, {@link TypeMirror}, {@link AnnotationMirror}, {@link AnnotationValue} or
+ * {@link Name}. Convert them with {@code toString()} before passing them in. This isn't checked.
+ * The code blocks built by the other utils of this library only use strings, numbers and other
+ * code blocks as {@code $L} arguments.
+ *
+ * <p>The number of threads and of waiting files are bounded. When all threads are busy and the
+ * queue is full, files are rendered on the calling thread instead.
+ */
+public final class SourceRenderer {
+
+    private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+
+    /**
+     * Returns a renderer that is shared by all extensions in the current class loader. It uses
+     * one thread less than the number of available processors, leaving one for javac, but at
+     * least one thread.
+     */
+    public static SourceRenderer shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static final class SharedHolder {
+        static final SourceRenderer INSTANCE =
+                new SourceRenderer(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a renderer with {@code threads} daemon threads. Idle threads are stopped after a
+     * few seconds, so an unused renderer doesn't need to be shut down.
+     */
+    public SourceRenderer(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1: " + threads);
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_CAPACITY_PER_THREAD),
+                new RendererThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts rendering {@code typeSpec} as a top level class in {@code packageName} with the
+     * default {@link JavaFile} settings.
+     */
+    public Future<String> submit(String packageName, TypeSpec typeSpec) {
+        return submit(JavaFile.builder(packageName, typeSpec).build());
+    }
+
+    /**
+     * Starts rendering {@code javaFile}. The returned future completes with the same string that
+     * {@link JavaFile#toString()} returns. {@code $L} arguments of the file must not be part of
+     * javac's model, see {@link SourceRenderer}.
+     */
+    public Future<String> submit(final JavaFile javaFile) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return javaFile.toString();
+            }
+        });
+    }
+
+    /**
+     * Waits for {@code source} and returns it. Exceptions thrown while rendering are rethrown on
+     * the calling thread.
+     */
+    public static String join(Future<String> source) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return source.get();
+                } catch (InterruptedException e) {
+                    // generateClass can't be interrupted, so finish and restore the flag
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException("Rendering failed", cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class RendererThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "source-renderer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
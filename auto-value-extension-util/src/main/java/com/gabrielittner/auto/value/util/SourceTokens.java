@@ -0,0 +1,212 @@
+package com.gabrielittner.auto.value.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A minimal tokenizer for code rendered by JavaPoet. It only distinguishes identifiers, literals
+ * and operators and knows where brackets and types end, which is enough to estimate the size of
+ * generated code without a full Java parser. Comments and whitespace are skipped.
+ */
+final class SourceTokens {
+
+    enum Kind {
+        IDENTIFIER, LITERAL, OPERATOR
+    }
+
+    // longest first, so that the first match is the right one
+    private static final String[] OPERATORS = {
+            ">>>=", "<<=", ">>=", ">>>", "...", "->", "::", "==", "!=", "<=", ">=", "&&", "||",
+            "++", "--", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=", "<<", ">>"
+    };
+
+    static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "abstract", "assert", "break", "case", "catch", "class", "const", "continue",
+            "default", "do", "else", "enum", "extends", "false", "final", "finally", "for", "goto",
+            "if", "implements", "import", "instanceof", "interface", "native", "new", "null",
+            "package", "private", "protected", "public", "return", "static", "strictfp", "super",
+            "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try",
+            "volatile", "while"));
+
+    static final Set<String> PRIMITIVES = new HashSet<>(Arrays.asList(
+            "boolean", "byte", "char", "double", "float", "int", "long", "short", "void"));
+
+    private final String source;
+    private final List<Kind> kinds = new ArrayList<>();
+    private final List<Integer> starts = new ArrayList<>();
+    private final List<Integer> ends = new ArrayList<>();
+
+    SourceTokens(String source) {
+        this.source = source;
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? length : end;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+                add(Kind.IDENTIFIER, start, i);
+            } else if (Character.isDigit(c)
+                    || (c == '.' && i + 1 < length && Character.isDigit(source.charAt(i + 1)))) {
+                int start = i;
+                while (i < length && isNumberPart(source, start, i)) {
+                    i++;
+                }
+                add(Kind.LITERAL, start, i);
+            } else if (c == '"' || c == '\'') {
+                int start = i++;
+                while (i < length && source.charAt(i) != c) {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+                i = Math.min(i + 1, length);
+                add(Kind.LITERAL, start, i);
+            } else {
+                int start = i;
+                i += operatorLength(source, i);
+                add(Kind.OPERATOR, start, i);
+            }
+        }
+    }
+
+    private static boolean isNumberPart(String source, int start, int i) {
+        char c = source.charAt(i);
+        if (Character.isLetterOrDigit(c) || c == '.' || c == '_') {
+            return true;
+        }
+        // the sign of an exponent like 1e-5, hex literals can't have one
+        char previous = source.charAt(i - 1);
+        return (c == '+' || c == '-') && (previous == 'e' || previous == 'E')
+                && !source.startsWith("0x", start) && !source.startsWith("0X", start);
+    }
+
+    private static int operatorLength(String source, int i) {
+        for (String operator : OPERATORS) {
+            if (source.startsWith(operator, i)) {
+                return operator.length();
+            }
+        }
+        return 1;
+    }
+
+    private void add(Kind kind, int start, int end) {
+        kinds.add(kind);
+        starts.add(start);
+        ends.add(end);
+    }
+
+    int size() {
+        return kinds.size();
+    }
+
+    Kind kind(int index) {
+        return kinds.get(index);
+    }
+
+    /** Returns the text of the token at {@code index} or an empty string if there is none. */
+    String text(int index) {
+        if (index < 0 || index >= kinds.size()) {
+            return "";
+        }
+        return source.substring(starts.get(index), ends.get(index));
+    }
+
+    boolean is(int index, String text) {
+        return text(index).equals(text);
+    }
+
+    boolean isName(int index) {
+        return index >= 0 && index < kinds.size() && kinds.get(index) == Kind.IDENTIFIER
+                && !KEYWORDS.contains(text(index)) && !PRIMITIVES.contains(text(index));
+    }
+
+    /**
+     * Returns the index of the bracket that closes the one at {@code index}, or {@code -1} if it
+     * isn't closed before {@code to}.
+     */
+    int closing(int index, int to) {
+        int depth = 0;
+        for (int i = index; i < to; i++) {
+            if (isOpening(i)) {
+                depth++;
+            } else if (isClosing(i) && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isOpening(int index) {
+        return kinds.get(index) == Kind.OPERATOR
+                && (is(index, "(") || is(index, "[") || is(index, "{"));
+    }
+
+    private boolean isClosing(int index) {
+        return kinds.get(index) == Kind.OPERATOR
+                && (is(index, ")") || is(index, "]") || is(index, "}"));
+    }
+
+    /**
+     * Returns the index after the type that starts at {@code index}, like
+     * {@code java.util.Map<String, ? extends List<T>>[]}, or {@code -1} if there is none.
+     */
+    int typeEnd(int index) {
+        if (!isName(index) && !PRIMITIVES.contains(text(index))) {
+            return -1;
+        }
+        int i = index + 1;
+        while (is(i, ".") && isName(i + 1)) {
+            i += 2;
+        }
+        if (is(i, "<")) {
+            i = typeArgumentsEnd(i);
+            if (i < 0) {
+                return -1;
+            }
+        }
+        while (is(i, "[") && is(i + 1, "]")) {
+            i += 2;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after the type arguments that start with the {@code <} at
+     * {@code index} or {@code -1} if the tokens can't be type arguments.
+     */
+    int typeArgumentsEnd(int index) {
+        int depth = 0;
+        for (int i = index; i < kinds.size(); i++) {
+            String text = text(i);
+            if (text.equals("<")) {
+                depth++;
+            } else if (text.equals(">") || text.equals(">>") || text.equals(">>>")) {
+                depth -= text.length();
+                if (depth == 0) {
+                    return i + 1;
+                }
+                if (depth < 0) {
+                    return -1;
+                }
+            } else if (!isName(i) && !PRIMITIVES.contains(text) && !text.equals(".")
+                    && !text.equals(",") && !text.equals("?") && !text.equals("[")
+                    && !text.equals("]") && !text.equals("&") && !text.equals("extends")
+                    && !text.equals("super")) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,155 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.NameAllocator;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+/**
+ * Generates implementations of AutoValue classes that only store the non-null values of their
+ * nullable properties.
+ */
+public final class SparseUtil {
+
+    private static final int MAX_SPARSE_PROPERTIES = 64;
+
+    /**
+     * Adds a static nested class called {@code className} that extends the AutoValue class to the
+     * given {@code builder} which was created with {@link AutoValueUtil#newTypeSpecBuilder}.
+     * Instances are created with {@code new AutoValue_Foo.ClassName(...)} using the same
+     * parameters as the constructor of the generated AutoValue class.
+     *
+     * <p>Every {@link Property#nullable()} property gets a bit in a {@code long} presence mask and
+     * only non-null values are stored, in property order, in an {@code Object[]} that is exactly as
+     * long as the number of set bits. The index of a value is the number of set bits below its own
+     * bit, which the accessor computes with {@link Long#bitCount(long)}. Instances where all of
+     * them are null share an empty array. All other properties are stored in regular fields.
+     *
+     * <p>Compared to one field per property this saves memory when most nullable properties are
+     * null, at the cost of an array per instance and a bit count per access. Classes with more
+     * than 64 nullable properties are reported with
+     * {@link AutoValueUtil#error(Context, Property, String)} and no class is added.
+     *
+     * <p>The class is a nested implementation as described in {@link ImplementationUtil}, so
+     * AutoValue classes with abstract methods that aren't properties are reported as errors.
+     */
+    public static void addSparseClass(
+            Context context, TypeSpec.Builder builder, String className) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        List<Property> sparse = new ArrayList<>();
+        for (Property property : properties) {
+            if (property.nullable() && !property.type().isPrimitive()) {
+                sparse.add(property);
+            }
+        }
+        if (sparse.size() > MAX_SPARSE_PROPERTIES) {
+            AutoValueUtil.error(context, sparse.get(MAX_SPARSE_PROPERTIES),
+                    "Sparse classes support at most %d nullable properties",
+                    MAX_SPARSE_PROPERTIES);
+            return;
+        }
+
+        NameAllocator names = new NameAllocator();
+        for (Property property : properties) {
+            names.newName(property.humanName(), property);
+        }
+        String present = names.newName("present");
+        String values = names.newName("values");
+        String empty = names.newName("EMPTY");
+        String index = names.newName("i");
+
+        TypeSpec.Builder implementation =
+                ImplementationUtil.newImplementationBuilder(context, className);
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameters(AutoValueUtil.newPropertyParameters(context.properties()));
+        for (Property property : properties) {
+            constructor.addCode(ImplementationUtil.nullCheck(property, property.humanName()));
+        }
+        if (!sparse.isEmpty()) {
+            implementation.addField(FieldSpec.builder(Object[].class, empty, PRIVATE, STATIC, FINAL)
+                            .initializer("{}")
+                            .build())
+                    .addField(long.class, present, PRIVATE, FINAL)
+                    .addField(Object[].class, values, PRIVATE, FINAL);
+            constructor.addStatement("long $N = 0L", present);
+            for (int i = 0; i < sparse.size(); i++) {
+                constructor.beginControlFlow("if ($N != null)", sparse.get(i).humanName())
+                        .addStatement("$N |= $L", present, mask(i))
+                        .endControlFlow();
+            }
+            constructor.addStatement("$T $N = $N == 0L ? $N : new $T[$T.bitCount($N)]",
+                    Object[].class, values, present, empty, Object.class, Long.class, present)
+                    .addStatement("int $N = 0", index);
+            for (Property property : sparse) {
+                constructor.beginControlFlow("if ($N != null)", property.humanName())
+                        .addStatement("$N[$N++] = $N", values, index, property.humanName())
+                        .endControlFlow();
+            }
+            constructor.addStatement("this.$1N = $1N", present)
+                    .addStatement("this.$1N = $1N", values);
+        }
+        for (Property property : properties) {
+            TypeName type = property.type().withoutAnnotations();
+            MethodSpec.Builder accessor = ImplementationUtil.newAccessor(property);
+            int bit = sparse.indexOf(property);
+            if (bit < 0) {
+                String field = names.get(property);
+                implementation.addField(type, field, PRIVATE, FINAL);
+                constructor.addStatement("this.$N = $N", field, property.humanName());
+                implementation.addMethod(accessor.addStatement("return $N", field).build());
+                continue;
+            }
+            if (!isCheckedCast(type)) {
+                accessor.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                        .addMember("value", "$S", "unchecked")
+                        .build());
+            }
+            // the values of all set bits below this one come before this value in the array
+            if (bit == 0) {
+                accessor.addStatement("return ($N & $L) == 0 ? null : ($T) $N[0]",
+                        present, mask(bit), type, values);
+            } else {
+                accessor.addStatement(
+                        "return ($N & $L) == 0\n? null\n: ($T) $N[$T.bitCount($N & $L)]",
+                        present, mask(bit), type, values, Long.class, present, lowerMask(bit));
+            }
+            implementation.addMethod(accessor.build());
+        }
+        implementation.addMethod(constructor.build());
+        ImplementationUtil.addValueMethods(context, implementation, properties);
+        if (ImplementationUtil.implementsAbstractMethods(context, implementation, className)) {
+            builder.addType(implementation.build());
+        }
+    }
+
+    private static String mask(int bit) {
+        return "0x" + Long.toHexString(1L << bit) + "L";
+    }
+
+    private static String lowerMask(int bit) {
+        return "0x" + Long.toHexString((1L << bit) - 1) + "L";
+    }
+
+    private static boolean isCheckedCast(TypeName type) {
+        if (type instanceof ArrayTypeName) {
+            return isCheckedCast(((ArrayTypeName) type).componentType);
+        }
+        return type.isPrimitive() || type instanceof ClassName;
+    }
+
+    private SparseUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
@@ -0,0 +1,206 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+
+/**
+ * Generates {@code toString()} implementations that produce the same output as the ones of
+ * AutoValue, but append to a single presized {@link StringBuilder} without boxing primitives.
+ */
+public final class ToStringUtil {
+
+    private static final int DEFAULT_LENGTH = 16;
+
+    /**
+     * Creates a {@code toString()} method for the given {@code properties}. The
+     * {@link StringBuilder} is created with a capacity that is estimated from the names and types
+     * of the properties, so that typical values don't need to grow it.
+     */
+    public static MethodSpec newToStringMethod(Context context, List<Property> properties) {
+        CodeBlock chain = chain(newStringBuilder(context, properties),
+                appends(context, properties));
+        return newToStringBuilder()
+                .addStatement("return $L\n.toString()", chain)
+                .build();
+    }
+
+    /**
+     * Adds a {@code toString()} method for the given {@code properties} to {@code builder}. If
+     * {@code appendTo} is true the properties are appended by an additional public method
+     *
+     * <pre>
+     * StringBuilder appendTo(StringBuilder builder)
+     * </pre>
+     *
+     * which returns the given {@code builder}, so that many values can be rendered into the same
+     * buffer. It can be declared as an abstract method of the AutoValue class if the extension
+     * consumes it. {@code toString()} delegates to it with a presized {@link StringBuilder}.
+     *
+     * <p>If the method that appends the properties would be larger than
+     * {@link MethodSizeUtil#FREQ_INLINE_SIZE} the appends are split across a chain of private
+     * methods like {@code toString$1(StringBuilder builder)} that each append some of the
+     * properties and pass the builder on, which is reported with a
+     * {@link javax.tools.Diagnostic.Kind#NOTE}.
+     */
+    public static void addToString(Context context, TypeSpec.Builder builder,
+            List<Property> properties, boolean appendTo) {
+        List<CodeBlock> appends = appends(context, properties);
+        if (!appendTo) {
+            addAppendChain(context, builder, newToStringBuilder().build(),
+                    "return $L\n.toString()", newStringBuilder(context, properties), appends);
+            return;
+        }
+        builder.addMethod(newToStringBuilder()
+                .addStatement("return appendTo($L).toString()",
+                        newStringBuilder(context, properties))
+                .build());
+        addAppendChain(context, builder, MethodSpec.methodBuilder("appendTo")
+                        .addModifiers(PUBLIC)
+                        .returns(StringBuilder.class)
+                        .addParameter(StringBuilder.class, "builder")
+                        .build(),
+                "return $L", CodeBlock.of("builder"), appends);
+    }
+
+    /**
+     * Adds {@code method} with a statement of {@code format} for the {@code appends} to
+     * {@code target}, or if that's too large one that passes the first ones to a chain of
+     * helpers.
+     */
+    private static void addAppendChain(Context context, TypeSpec.Builder builder,
+            MethodSpec method, String format, CodeBlock target, List<CodeBlock> appends) {
+        MethodSpec whole = method.toBuilder()
+                .addStatement(format, chain(target, appends))
+                .build();
+        if (MethodSizeUtil.estimateBytecodeSize(whole) <= MethodSizeUtil.FREQ_INLINE_SIZE) {
+            builder.addMethod(whole);
+            return;
+        }
+        int overhead = MethodSizeUtil.estimateBytecodeSize(method.toBuilder()
+                .addStatement(format, nextAppends(method, 1, target))
+                .build());
+        List<List<CodeBlock>> chunks = MethodSizeUtil.chunk(appends, 0, overhead);
+        if (chunks.size() < 2) {
+            builder.addMethod(whole);
+            return;
+        }
+        builder.addMethod(method.toBuilder()
+                .addStatement(format, nextAppends(method, 1, chain(target, chunks.get(0))))
+                .build());
+        CodeBlock helperTarget = CodeBlock.of("builder");
+        for (int i = 1; i < chunks.size(); i++) {
+            CodeBlock chain = chain(helperTarget, chunks.get(i));
+            builder.addMethod(MethodSpec.methodBuilder(MethodSizeUtil.helperName(method.name, i))
+                    .addModifiers(PRIVATE)
+                    .returns(StringBuilder.class)
+                    .addParameter(StringBuilder.class, "builder")
+                    .addStatement("return $L",
+                            i + 1 < chunks.size() ? nextAppends(method, i + 1, chain) : chain)
+                    .build());
+        }
+        MethodSizeUtil.noteSplit(context, whole, chunks.size());
+    }
+
+    private static CodeBlock nextAppends(MethodSpec method, int index, CodeBlock builder) {
+        return CodeBlock.of("$N($L)", MethodSizeUtil.helperName(method.name, index), builder);
+    }
+
+    private static MethodSpec.Builder newToStringBuilder() {
+        return MethodSpec.methodBuilder("toString")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(ClassName.get(String.class));
+    }
+
+    private static CodeBlock newStringBuilder(Context context, List<Property> properties) {
+        return CodeBlock.of("new $T($L)", StringBuilder.class,
+                estimateLength(context, properties));
+    }
+
+    private static List<CodeBlock> appends(Context context, List<Property> properties) {
+        String simpleName = context.autoValueClass().getSimpleName().toString();
+        List<CodeBlock> appends = new ArrayList<>();
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            String prefix = (i == 0 ? simpleName + "{" : ", ") + property.humanName() + "=";
+            appends.add(CodeBlock.of("\n.append($S).append($L)", prefix, valueOf(property)));
+        }
+        if (properties.isEmpty()) {
+            appends.add(CodeBlock.of("\n.append($S)", simpleName + "{}"));
+        } else {
+            appends.add(CodeBlock.of("\n.append('}')"));
+        }
+        return appends;
+    }
+
+    private static CodeBlock chain(CodeBlock target, List<CodeBlock> appends) {
+        CodeBlock.Builder chain = CodeBlock.builder().add("$L", target);
+        for (CodeBlock append : appends) {
+            chain.add(append);
+        }
+        return chain.build();
+    }
+
+    private static CodeBlock valueOf(Property property) {
+        if (property.element().getReturnType().getKind() == TypeKind.ARRAY) {
+            return CodeBlock.of("$T.toString($N())", Arrays.class, property.methodName());
+        }
+        return CodeBlock.of("$N()", property.methodName());
+    }
+
+    /**
+     * Returns the expected length of the result of {@code toString()} for {@code properties}.
+     */
+    private static int estimateLength(Context context, List<Property> properties) {
+        int length = context.autoValueClass().getSimpleName().length() + 2;
+        for (Property property : properties) {
+            length += property.humanName().length() + 3;
+            length += estimateValueLength(context, property);
+        }
+        return length;
+    }
+
+    private static int estimateValueLength(Context context, Property property) {
+        TypeMirror type = property.element().getReturnType();
+        if (property.type().withoutAnnotations().isBoxedPrimitive()) {
+            type = context.processingEnvironment().getTypeUtils().unboxedType(type);
+        }
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return 5;
+            case BYTE:
+                return 4;
+            case SHORT:
+                return 6;
+            case CHAR:
+                return 1;
+            case INT:
+                return 11;
+            case LONG:
+                return 20;
+            case FLOAT:
+                return 15;
+            case DOUBLE:
+                return 24;
+            case ARRAY:
+                return 4 * DEFAULT_LENGTH;
+            default:
+                return DEFAULT_LENGTH;
+        }
+    }
+
+    private ToStringUtil() {
+        throw new AssertionError("No instances.");
+    }
+}
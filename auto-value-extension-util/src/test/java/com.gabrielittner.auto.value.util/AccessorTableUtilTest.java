@@ -0,0 +1,183 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.AccessorTableExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class AccessorTableUtilTest {
+
+    @Test
+    public void accessorTable() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract long b();\n"
+                + "  public abstract List<T> c();\n"
+                + "  public abstract int values();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Class;\n"
+                + "import java.lang.IllegalArgumentException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.SuppressWarnings;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  static final String[] PROPERTY_NAMES = {\"a\", \"b\", \"c\", \"values\"};\n"
+                + "  static final Class<?>[] PROPERTY_TYPES = "
+                + "{int.class, long.class, List.class, int.class};\n"
+                + "  AutoValue_Test(int a, long b, List<T> c, int values) {\n"
+                + "    super(a, b, c, values);\n"
+                + "  }\n"
+                + "  static <T> Object get(Test<T> value, int index) {\n"
+                + "    switch (index) {\n"
+                + "      case 0:\n"
+                + "        return value.a();\n"
+                + "      case 1:\n"
+                + "        return value.b();\n"
+                + "      case 2:\n"
+                + "        return value.c();\n"
+                + "      case 3:\n"
+                + "        return value.values();\n"
+                + "      default:\n"
+                + "        throw new IllegalArgumentException(\"No property at index \" + index);\n"
+                + "    }\n"
+                + "  }\n"
+                + "  static <T> int getInt(Test<T> value, int index) {\n"
+                + "    switch (index) {\n"
+                + "      case 0:\n"
+                + "        return value.a();\n"
+                + "      case 3:\n"
+                + "        return value.values();\n"
+                + "      default:\n"
+                + "        throw new IllegalArgumentException(\"Property at index \" + index"
+                + " + \" is not of type int\");\n"
+                + "    }\n"
+                + "  }\n"
+                + "  static <T> long getLong(Test<T> value, int index) {\n"
+                + "    switch (index) {\n"
+                + "      case 1:\n"
+                + "        return value.b();\n"
+                + "      default:\n"
+                + "        throw new IllegalArgumentException(\"Property at index \" + index"
+                + " + \" is not of type long\");\n"
+                + "    }\n"
+                + "  }\n"
+                + "  @SuppressWarnings(\"unchecked\")\n"
+                + "  static <T> Test<T> fromArray(Object[] values) {\n"
+                + "    if (values.length != 4) {\n"
+                + "      throw new IllegalArgumentException(\"Expected 4 values but got \""
+                + " + values.length);\n"
+                + "    }\n"
+                + "    int a = (int) values[0];\n"
+                + "    long b = (long) values[1];\n"
+                + "    List<T> c = (List<T>) values[2];\n"
+                + "    int values_ = (int) values[3];\n"
+                + "    return new AutoValue_Test<>(a, b, c, values_);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void readAndCreateByIndex() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract double b();\n"
+                + "  @Nullable public abstract String c();\n"
+                + "  public abstract List<String> d();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        Class<?> generated = new CompilationClassLoader(compilation)
+                .loadClass("test.AutoValue_Test");
+        List<String> list = Arrays.asList("x", "y");
+        Object value = invoke(generated, "fromArray",
+                (Object) new Object[] { true, 1.5d, null, list });
+
+        assertThat(value.toString()).isEqualTo("Test{a=true, b=1.5, c=null, d=[x, y]}");
+        assertThat((String[]) field(generated, "PROPERTY_NAMES"))
+                .asList().containsExactly("a", "b", "c", "d").inOrder();
+        assertThat((Class<?>[]) field(generated, "PROPERTY_TYPES"))
+                .asList().containsExactly(boolean.class, double.class, String.class, List.class)
+                .inOrder();
+        assertThat(invoke(generated, "get", value, 0)).isEqualTo(true);
+        assertThat(invoke(generated, "get", value, 2)).isNull();
+        assertThat(invoke(generated, "get", value, 3)).isSameInstanceAs(list);
+        assertThat(invoke(generated, "getBoolean", value, 0)).isEqualTo(true);
+        assertThat(invoke(generated, "getDouble", value, 1)).isEqualTo(1.5d);
+
+        try {
+            invoke(generated, "getDouble", value, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Property at index 0 is not of type double");
+        }
+        try {
+            invoke(generated, "fromArray", (Object) new Object[] { true });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Expected 4 values but got 1");
+        }
+    }
+
+    private static Object field(Class<?> cls, String name) throws Exception {
+        Field field = cls.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static Object invoke(Class<?> cls, String name, Object... args) throws Exception {
+        for (Method method : cls.getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                method.setAccessible(true);
+                try {
+                    return method.invoke(null, args);
+                } catch (InvocationTargetException e) {
+                    throw (Exception) e.getCause();
+                }
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    private AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new AccessorTableExtension()));
+    }
+}
@@ -0,0 +1,73 @@
+package com.gabrielittner.auto.value.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the number of bytes the current thread allocates in a call, so that tests can fail
+ * when a method starts to allocate more than it used to. Relies on
+ * {@link com.sun.management.ThreadMXBean}, which is available on HotSpot based JVMs.
+ */
+final class AllocationBudget {
+
+    private static final int WARM_UP_CALLS = 2000;
+    private static final int CALLS_PER_ROUND = 200;
+    private static final int ROUNDS = 5;
+
+    interface Call {
+        Object run();
+    }
+
+    // keeps results reachable so that the JIT can't remove the allocations of a call
+    @SuppressWarnings("unused")
+    private static volatile Object sink;
+
+    /**
+     * Returns true if the JVM can measure the allocated bytes of a thread.
+     */
+    static boolean isSupported() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Runs {@code call} until the JIT had a chance to compile it and returns the number of bytes
+     * allocated by a single call. The lowest value of several rounds is used, which excludes
+     * allocations of the JIT and of the measurement itself.
+     */
+    static long bytesPerCall(Call call) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            sink = call.run();
+        }
+        long overhead = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            overhead = Math.min(overhead, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        long lowest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CALLS_PER_ROUND; i++) {
+                sink = call.run();
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+            lowest = Math.min(lowest, Math.max(0, allocated));
+        }
+        sink = null;
+        return lowest / CALLS_PER_ROUND;
+    }
+
+    private AllocationBudget() {
+        throw new AssertionError("No instances.");
+    }
+}
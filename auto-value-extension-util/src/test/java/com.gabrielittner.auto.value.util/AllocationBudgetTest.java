@@ -0,0 +1,180 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ContextExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.util.Collections;
+import javax.lang.model.element.ExecutableElement;
+import javax.tools.JavaFileObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Fails when one of the main util methods allocates more bytes per call than its budget. The
+ * budgets leave room for differences between JVMs but catch new per call collections, boxing or
+ * string building.
+ */
+public class AllocationBudgetTest {
+
+    private static final JavaFileObject SOURCE = JavaFileObjects.forSourceString("test.Test", ""
+            + "package test;\n"
+            + "import com.google.auto.value.AutoValue;\n"
+            + "import java.util.List;\n"
+            + "import javax.annotation.Nullable;\n"
+            + "@AutoValue public abstract class Test {\n"
+            + "  public abstract int a();\n"
+            + "  @Nullable public abstract String b();\n"
+            + "  public abstract List<String> c();\n"
+            + "}\n");
+
+    /**
+     * Looks up everything a call needs outside of the measurement and returns the call.
+     */
+    private interface CallFactory {
+        AllocationBudget.Call create(Context context);
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue(AllocationBudget.isSupported());
+    }
+
+    @Test
+    public void buildProperties() {
+        assertBudget(5000, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(final Context context) {
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return Property.buildProperties(context);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void newProperty() {
+        assertBudget(1500, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(Context context) {
+                final ExecutableElement b = context.properties().get("b");
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return new Property("b", b);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void hasAnnotationWithName() {
+        assertBudget(256, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(Context context) {
+                final ExecutableElement b = context.properties().get("b");
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return ElementUtil.hasAnnotationWithName(b, "Nullable");
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void buildAnnotations() {
+        assertBudget(400, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(Context context) {
+                final ExecutableElement b = context.properties().get("b");
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return ElementUtil.buildAnnotations(b);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void getAutoValueClassTypeName() {
+        assertBudget(1000, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(final Context context) {
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return AutoValueUtil.getAutoValueClassTypeName(context);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void newFinalClassConstructorCall() {
+        final Object[] names = { "a", "b", "c" };
+        assertBudget(5000, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(final Context context) {
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return AutoValueUtil.newFinalClassConstructorCall(context, names);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void newTypeSpecBuilder() {
+        assertBudget(16000, new CallFactory() {
+            @Override
+            public AllocationBudget.Call create(final Context context) {
+                return new AllocationBudget.Call() {
+                    @Override
+                    public Object run() {
+                        return AutoValueUtil.newTypeSpecBuilder(
+                                context, "AutoValue_Test", "$AutoValue_Test", true);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Measures the call created by {@code factory} while {@link #SOURCE} is processed and asserts
+     * that it allocates at most {@code budget} bytes.
+     */
+    private static void assertBudget(long budget, final CallFactory factory) {
+        final long[] bytes = { -1 };
+        AutoValueExtension extension = new ContextExtension(new ContextExtension.Callback() {
+            @Override
+            public void onContext(Context context) {
+                bytes[0] = AllocationBudget.bytesPerCall(factory.create(context));
+            }
+        });
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(SOURCE);
+        assertThat(compilation).succeeded();
+        // -1 means the callback never ran and nothing was measured
+        assertThat(bytes[0]).isAtLeast(0L);
+        assertThat(bytes[0]).isAtMost(budget);
+    }
+}
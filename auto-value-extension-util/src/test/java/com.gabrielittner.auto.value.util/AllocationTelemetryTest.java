@@ -0,0 +1,160 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.AllocationTelemetryExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class AllocationTelemetryTest {
+
+    private static final String OPTION =
+            "-A" + AutoValueUtil.ALLOCATION_TELEMETRY_OPTION + "=true";
+
+    @Test
+    public void allocationCounter() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "  public abstract int b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import com.gabrielittner.auto.value.util.AllocationTelemetry;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private static final AllocationTelemetry.Counter ALLOCATION_COUNTER =\n"
+                + "      AllocationTelemetry.counter(\"test.Test\");\n"
+                + "  AutoValue_Test(String a, int b) {\n"
+                + "    super(a, b);\n"
+                + "    ALLOCATION_COUNTER.increment();\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .withCompilerOptions(OPTION)
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void noAllocationCounterWithoutOption() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "}\n");
+
+        for (String option : new String[] {
+                "-Adummy", "-A" + AutoValueUtil.ALLOCATION_TELEMETRY_OPTION + "=false"}) {
+            assertAbout(javaSources())
+                    .that(Collections.singletonList(source))
+                    .withCompilerOptions(option)
+                    .processedWith(newProcessor())
+                    .compilesWithoutError()
+                    .and()
+                    .generatesSources(expected);
+        }
+    }
+
+    @Test
+    public void countsInstances() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Counted", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Counted {\n"
+                + "  public abstract int a();\n"
+                + "}\n");
+        Compilation compilation = javac()
+                .withOptions(OPTION)
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+        Constructor<?> constructor =
+                constructor(new CompilationClassLoader(compilation), "test.AutoValue_Counted");
+
+        long before = AllocationTelemetry.counter("test.Counted").sum();
+        for (int i = 0; i < 3; i++) {
+            constructor.newInstance(i);
+        }
+
+        assertThat(AllocationTelemetry.counter("test.Counted").sum()).isEqualTo(before + 3);
+        assertThat(AllocationTelemetry.snapshot()).containsEntry("test.Counted", before + 3);
+    }
+
+    @Test
+    public void counterSumsIncrementsOfAllThreads() throws Exception {
+        final AllocationTelemetry.Counter counter = new AllocationTelemetry.Counter();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(counter.sum()).isEqualTo(80000L);
+        counter.reset();
+        assertThat(counter.sum()).isEqualTo(0L);
+    }
+
+    @Test
+    public void mbean() throws Exception {
+        AllocationTelemetry.counter("test.MBean").increment();
+
+        ObjectName name = AllocationTelemetry.registerMBean();
+        assertThat(AllocationTelemetry.registerMBean()).isEqualTo(name);
+        AllocationTelemetry.AllocationsMXBean proxy = JMX.newMXBeanProxy(
+                ManagementFactory.getPlatformMBeanServer(), name,
+                AllocationTelemetry.AllocationsMXBean.class);
+
+        assertThat(proxy.getAllocations()).containsKey("test.MBean");
+        assertThat(proxy.getAllocations().get("test.MBean")).isAtLeast(1L);
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(
+                Collections.singletonList(new AllocationTelemetryExtension()));
+    }
+}
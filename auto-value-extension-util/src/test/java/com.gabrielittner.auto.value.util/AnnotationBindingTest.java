@@ -0,0 +1,246 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.base.Optional;
+import com.google.testing.compile.CompilationRule;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import static org.junit.Assert.fail;
+
+public class AnnotationBindingTest {
+
+    @Rule public CompilationRule compilationRule = new CompilationRule();
+
+    private Elements elements;
+    private AnnotationBinding bindings;
+
+    @Before
+    public void setUp() {
+        this.elements = compilationRule.getElements();
+        this.bindings = new AnnotationBinding();
+    }
+
+    @Retention(RUNTIME)
+    @Target(METHOD)
+    private @interface Inner {
+        String value();
+    }
+
+    @Retention(RUNTIME)
+    @Target(METHOD)
+    private @interface Values {
+        int number() default 1;
+        String name();
+        String[] names() default { "a", "b" };
+        Class<?> type() default Object.class;
+        TimeUnit unit() default TimeUnit.SECONDS;
+        Inner inner() default @Inner("default");
+        Inner[] inners() default {};
+    }
+
+    private interface ValuesBinding {
+        int number();
+        String name();
+        String[] names();
+        TypeMirror type();
+        TimeUnit unit();
+        InnerBinding inner();
+        List<InnerBinding> inners();
+    }
+
+    private interface NamesBinding {
+        String name();
+        List<String> names();
+    }
+
+    private interface InnerBinding {
+        String value();
+    }
+
+    private interface UnitNameBinding {
+        String unit();
+    }
+
+    private interface UnitElementBinding {
+        VariableElement unit();
+    }
+
+    private interface InnerMirrorBinding {
+        AnnotationMirror inner();
+    }
+
+    private interface ArrayBinding {
+        String[] names();
+    }
+
+    private interface MissingBinding {
+        String missing();
+    }
+
+    private interface WrongTypeBinding {
+        int name();
+    }
+
+    @SuppressWarnings("unused")
+    private static abstract class AnnotationTestClass {
+        abstract String a();
+
+        @Values(name = "b")
+        abstract String b();
+
+        @Values(number = 3, name = "c", names = "x", type = String.class, unit = TimeUnit.DAYS,
+                inner = @Inner("c"), inners = { @Inner("1"), @Inner("2") })
+        abstract String c();
+    }
+
+    @Test
+    public void absentWithoutAnnotation() {
+        Optional<NamesBinding> binding =
+                bindings.bind(element("a"), Values.class, NamesBinding.class);
+        assertThat(binding.isPresent()).isFalse();
+    }
+
+    @Test
+    public void defaultValues() {
+        NamesBinding binding =
+                bindings.bind(element("b"), Values.class, NamesBinding.class).get();
+        assertThat(binding.name()).isEqualTo("b");
+        assertThat(binding.names()).containsExactly("a", "b").inOrder();
+        ValuesBinding values =
+                bindings.bind(element("b"), Values.class, ValuesBinding.class).get();
+        assertThat(values.number()).isEqualTo(1);
+        assertThat(values.unit()).isEqualTo(TimeUnit.SECONDS);
+        assertThat(values.inner().value()).isEqualTo("default");
+        assertThat(values.inners()).isEmpty();
+    }
+
+    @Test
+    public void explicitValues() {
+        TypeElement string = elements.getTypeElement(String.class.getCanonicalName());
+        ValuesBinding binding =
+                bindings.bind(element("c"), Values.class, ValuesBinding.class).get();
+        assertThat(binding.number()).isEqualTo(3);
+        assertThat(binding.name()).isEqualTo("c");
+        assertThat(binding.names()).asList().containsExactly("x");
+        assertThat(binding.type().toString()).isEqualTo(string.getQualifiedName().toString());
+        assertThat(binding.unit()).isEqualTo(TimeUnit.DAYS);
+        assertThat(binding.inner().value()).isEqualTo("c");
+        assertThat(binding.inners()).hasSize(2);
+        assertThat(binding.inners().get(0).value()).isEqualTo("1");
+        assertThat(binding.inners().get(1).value()).isEqualTo("2");
+    }
+
+    @Test
+    public void qualifiedName() {
+        String name = Values.class.getCanonicalName();
+        NamesBinding binding =
+                bindings.bind(element("c"), name, NamesBinding.class).get();
+        assertThat(binding.name()).isEqualTo("c");
+        assertThat(bindings.bind(element("c"), name + "2", NamesBinding.class).isPresent())
+                .isFalse();
+    }
+
+    @Test
+    public void enumValues() {
+        assertThat(bindings.bind(element("c"), Values.class, UnitNameBinding.class)
+                .get().unit()).isEqualTo("DAYS");
+        VariableElement unit =
+                bindings.bind(element("c"), Values.class, UnitElementBinding.class).get().unit();
+        assertThat(unit.getSimpleName().toString()).isEqualTo("DAYS");
+    }
+
+    @Test
+    public void annotationValues() {
+        InnerMirrorBinding binding =
+                bindings.bind(element("b"), Values.class, InnerMirrorBinding.class).get();
+        assertThat(binding.inner().getAnnotationType().asElement().getSimpleName().toString())
+                .isEqualTo("Inner");
+    }
+
+    @Test
+    public void cached() {
+        Element c = element("c");
+        NamesBinding first = bindings.bind(c, Values.class, NamesBinding.class).get();
+        NamesBinding second = bindings.bind(c, Values.class, NamesBinding.class).get();
+        assertThat(second).isSameInstanceAs(first);
+    }
+
+    @Test
+    public void notSharedBetweenInstances() {
+        Element c = element("c");
+        NamesBinding first = bindings.bind(c, Values.class, NamesBinding.class).get();
+        NamesBinding second =
+                new AnnotationBinding().bind(c, Values.class, NamesBinding.class).get();
+        assertThat(second).isNotSameInstanceAs(first);
+        assertThat(second.names()).isEqualTo(first.names());
+    }
+
+    @Test
+    public void returnsArrayCopies() {
+        ArrayBinding binding =
+                bindings.bind(element("c"), Values.class, ArrayBinding.class).get();
+        binding.names()[0] = "changed";
+        assertThat(binding.names()).asList().containsExactly("x");
+    }
+
+    @Test
+    public void toStringContainsValues() {
+        ArrayBinding binding =
+                bindings.bind(element("c"), Values.class, ArrayBinding.class).get();
+        assertThat(binding.toString()).endsWith("Values(names=[x])");
+    }
+
+    @Test
+    public void missingMember() {
+        try {
+            bindings.bind(element("c"), Values.class, MissingBinding.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("has no member missing");
+        }
+    }
+
+    @Test
+    public void wrongType() {
+        try {
+            bindings.bind(element("c"), Values.class, WrongTypeBinding.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Can't bind c to int name()");
+        }
+    }
+
+    @Test
+    public void notAnInterface() {
+        try {
+            bindings.bind(element("c"), Values.class, String.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("is not an interface");
+        }
+    }
+
+    private Element element(String name) {
+        TypeElement type = elements.getTypeElement(AnnotationTestClass.class.getCanonicalName());
+        for (Element element : type.getEnclosedElements()) {
+            if (element.getSimpleName().contentEquals(name)) {
+                return element;
+            }
+        }
+        throw new IllegalArgumentException("Element with name '" + name + "' not found");
+    }
+}
@@ -3,6 +3,7 @@ package com.gabrielittner.auto.value.util;
 import com.gabrielittner.auto.value.util.extensions.CallConstructorExtension;
 import com.gabrielittner.auto.value.util.extensions.ErrorExtension;
 import com.gabrielittner.auto.value.util.extensions.AbstractExtension;
+import com.gabrielittner.auto.value.util.extensions.CachedHashCodeExtension;
 import com.gabrielittner.auto.value.util.extensions.FinalExtension;
 import com.google.auto.value.extension.AutoValueExtension;
 import com.google.auto.value.processor.AutoValueProcessor;
@@ -224,6 +225,76 @@ public class AutoValueUtilTest {
                 .generatesSources(expected);
     }
 
+    @Test
+    public void lazyCachedHashCode() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract String b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private transient int cachedHashCode;\n"
+                + "  AutoValue_Test(int a, String b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int hashCode() {\n"
+                + "    int h = cachedHashCode;\n"
+                + "    if (h == 0) {\n"
+                + "      h = super.hashCode();\n"
+                + "      cachedHashCode = h;\n"
+                + "    }\n"
+                + "    return h;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new CachedHashCodeExtension(false)))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void eagerCachedHashCodeGeneric() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T t();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  private final transient int cachedHashCode;\n"
+                + "  AutoValue_Test(T t) {\n"
+                + "    super(t);\n"
+                + "    this.cachedHashCode = super.hashCode();\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int hashCode() {\n"
+                + "    return cachedHashCode;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new CachedHashCodeExtension(true)))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
     @Test
     public void error() {
         JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
@@ -0,0 +1,327 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.BinaryCodecExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class BinaryCodecUtilTest {
+
+    @Test
+    public void primitives() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract boolean b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.io.DataInput;\n"
+                + "import java.io.DataOutput;\n"
+                + "import java.io.IOException;\n"
+                + "import java.nio.ByteBuffer;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, boolean b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "  static void writeTo(Test value, DataOutput output) throws IOException {\n"
+                + "    output.writeInt(value.a());\n"
+                + "    output.writeBoolean(value.b());\n"
+                + "  }\n"
+                + "  static Test readFrom(DataInput input) throws IOException {\n"
+                + "    int a = input.readInt();\n"
+                + "    boolean b = input.readBoolean();\n"
+                + "    return new AutoValue_Test(a, b);\n"
+                + "  }\n"
+                + "  static void writeTo(Test value, ByteBuffer buffer) {\n"
+                + "    buffer.putInt(value.a());\n"
+                + "    buffer.put(value.b() ? (byte) 1 : (byte) 0);\n"
+                + "  }\n"
+                + "  static Test readFrom(ByteBuffer buffer) {\n"
+                + "    int a = buffer.getInt();\n"
+                + "    boolean b = buffer.get() != 0;\n"
+                + "    return new AutoValue_Test(a, b);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void unsupportedType() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract List<String> a();\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .failsToCompile()
+                .withErrorContaining(
+                        "Binary encoding is not supported for java.util.List<java.lang.String>");
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        JavaFileObject outer = JavaFileObjects.forSourceString("test.Outer", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Outer {\n"
+                + "  public abstract long a();\n"
+                + "  public abstract double b();\n"
+                + "  public abstract String c();\n"
+                + "  @Nullable public abstract String d();\n"
+                + "  @Nullable public abstract Integer e();\n"
+                + "  public abstract TimeUnit f();\n"
+                + "  public abstract byte[] g();\n"
+                + "  public abstract Inner h();\n"
+                + "  public static Outer create(long a, double b, String c, String d, Integer e,\n"
+                + "      TimeUnit f, byte[] g, Inner h) {\n"
+                + "    return new AutoValue_Outer(a, b, c, d, e, f, g, h);\n"
+                + "  }\n"
+                + "}\n");
+        JavaFileObject inner = JavaFileObjects.forSourceString("test.Inner", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Inner {\n"
+                + "  public abstract char a();\n"
+                + "  public abstract String b();\n"
+                + "  public static Inner create(char a, String b) {\n"
+                + "    return new AutoValue_Inner(a, b);\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac().withProcessors(newProcessor()).compile(outer, inner);
+        assertThat(compilation).succeeded();
+
+        ClassLoader loader = new CompilationClassLoader(compilation);
+        Class<?> outerClass = loader.loadClass("test.Outer");
+        Class<?> innerClass = loader.loadClass("test.Inner");
+        Object innerValue = innerClass.getMethod("create", char.class, String.class)
+                .invoke(null, 'x', "\u00fcnic\u00f6de");
+        Method create = outerClass.getMethod("create", long.class, double.class, String.class,
+                String.class, Integer.class, TimeUnit.class, byte[].class, innerClass);
+        Object value = create.invoke(null, Long.MAX_VALUE, 1.5, "c", null, 42,
+                TimeUnit.SECONDS, new byte[] {1, 2, 3}, innerValue);
+
+        Class<?> codec = loader.loadClass("test.AutoValue_Outer");
+        Method writeToStream = codec.getDeclaredMethod("writeTo", outerClass, DataOutput.class);
+        Method readFromStream = codec.getDeclaredMethod("readFrom", DataInput.class);
+        Method writeToBuffer = codec.getDeclaredMethod("writeTo", outerClass, ByteBuffer.class);
+        Method readFromBuffer = codec.getDeclaredMethod("readFrom", ByteBuffer.class);
+        writeToStream.setAccessible(true);
+        readFromStream.setAccessible(true);
+        writeToBuffer.setAccessible(true);
+        readFromBuffer.setAccessible(true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeToStream.invoke(null, value, new DataOutputStream(bytes));
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object decoded = readFromStream.invoke(null, input);
+        assertThat(input.available()).isEqualTo(0);
+        assertThat(outerClass.getMethod("c").invoke(decoded)).isEqualTo("c");
+        assertThat(outerClass.getMethod("d").invoke(decoded)).isNull();
+        assertThat(outerClass.getMethod("g").invoke(decoded)).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(outerClass.getMethod("h").invoke(decoded)).isEqualTo(innerValue);
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.size());
+        writeToBuffer.invoke(null, value, buffer);
+        assertThat(buffer.array()).isEqualTo(bytes.toByteArray());
+        buffer.flip();
+        Object decodedFromBuffer = readFromBuffer.invoke(null, buffer);
+        assertThat(buffer.remaining()).isEqualTo(0);
+        assertThat(decodedFromBuffer.toString()).isEqualTo(decoded.toString());
+    }
+
+    @Test
+    public void lazyDecoding() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new BinaryCodecExtension(true))))
+                .compile(source);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "  static Test readLazilyFrom(ByteBuffer buffer) {\n"
+                        + "    int aOffset = buffer.position();\n"
+                        + "    buffer.position(aOffset + 4);\n"
+                        + "    int bOffset = buffer.get() != 0 ? buffer.position() : -1;\n"
+                        + "    if (bOffset >= 0) {\n"
+                        + "      buffer.position(bOffset + 4 + buffer.getInt(bOffset));\n"
+                        + "    }\n"
+                        + "    return new Lazy(buffer, aOffset, bOffset);\n"
+                        + "  }\n");
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "    @Override\n"
+                        + "    public int a() {\n"
+                        + "      return buffer.getInt(aOffset);\n"
+                        + "    }\n"
+                        + "    @Override\n"
+                        + "    public String b() {\n"
+                        + "      String value = b;\n"
+                        + "      if (value == null && bOffset >= 0) {\n"
+                        + "        value = readString(at(bOffset));\n"
+                        + "        b = value;\n"
+                        + "      }\n"
+                        + "      return value;\n"
+                        + "    }\n");
+    }
+
+    @Test
+    public void lazyDecodingRejectsAbstractMethodsThatArentProperties() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Item", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Item {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder a(int a);\n"
+                + "    public abstract Item build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new BinaryCodecExtension(true))))
+                .compile(source);
+
+        assertThat(compilation).hadErrorCount(1);
+        assertThat(compilation).hadErrorContaining(
+                "Can't generate Lazy because it can't implement the abstract method toBuilder()");
+    }
+
+    @Test
+    public void lazyRoundTrip() throws Exception {
+        JavaFileObject outer = JavaFileObjects.forSourceString("test.Outer", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Outer {\n"
+                + "  public abstract long a();\n"
+                + "  public abstract String b();\n"
+                + "  @Nullable public abstract String c();\n"
+                + "  @Nullable public abstract Integer d();\n"
+                + "  public abstract TimeUnit e();\n"
+                + "  public abstract byte[] f();\n"
+                + "  @Nullable public abstract Inner g();\n"
+                + "  public abstract boolean h();\n"
+                + "  @Nullable public abstract TimeUnit i();\n"
+                + "  public static Outer create(long a, String b, String c, Integer d,\n"
+                + "      TimeUnit e, byte[] f, Inner g, boolean h, TimeUnit i) {\n"
+                + "    return new AutoValue_Outer(a, b, c, d, e, f, g, h, i);\n"
+                + "  }\n"
+                + "}\n");
+        JavaFileObject inner = JavaFileObjects.forSourceString("test.Inner", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Inner {\n"
+                + "  public abstract String a();\n"
+                + "  public static Inner create(String a) {\n"
+                + "    return new AutoValue_Inner(a);\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new BinaryCodecExtension(true))))
+                .compile(outer, inner);
+        assertThat(compilation).succeeded();
+
+        ClassLoader loader = new CompilationClassLoader(compilation);
+        Class<?> outerClass = loader.loadClass("test.Outer");
+        Class<?> innerClass = loader.loadClass("test.Inner");
+        Object innerValue = innerClass.getMethod("create", String.class).invoke(null, "inner");
+        Method create = outerClass.getMethod("create", long.class, String.class, String.class,
+                Integer.class, TimeUnit.class, byte[].class, innerClass, boolean.class,
+                TimeUnit.class);
+        Object first = create.invoke(null, -1L, "b\u00fc", null, 7, TimeUnit.DAYS,
+                new byte[] {4, 5}, innerValue, true, TimeUnit.SECONDS);
+        Object second = create.invoke(null, 2L, "", "c", null, TimeUnit.NANOSECONDS,
+                new byte[0], null, false, null);
+
+        Class<?> codec = loader.loadClass("test.AutoValue_Outer");
+        Method writeTo = codec.getDeclaredMethod("writeTo", outerClass, ByteBuffer.class);
+        Method readLazilyFrom = codec.getDeclaredMethod("readLazilyFrom", ByteBuffer.class);
+        writeTo.setAccessible(true);
+        readLazilyFrom.setAccessible(true);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        writeTo.invoke(null, first, buffer);
+        writeTo.invoke(null, second, buffer);
+        buffer.flip();
+
+        Object lazyFirst = readLazilyFrom.invoke(null, buffer);
+        Object lazySecond = readLazilyFrom.invoke(null, buffer);
+        assertThat(buffer.remaining()).isEqualTo(0);
+        assertThat(lazyFirst.getClass().getName()).isEqualTo("test.AutoValue_Outer$Lazy");
+        assertThat(outerClass.getMethod("b").invoke(lazyFirst)).isEqualTo("b\u00fc");
+        assertThat(outerClass.getMethod("b").invoke(lazyFirst))
+                .isSameInstanceAs(outerClass.getMethod("b").invoke(lazyFirst));
+        assertThat(outerClass.getMethod("c").invoke(lazyFirst)).isNull();
+        assertThat(outerClass.getMethod("d").invoke(lazySecond)).isNull();
+        assertThat(outerClass.getMethod("g").invoke(lazySecond)).isNull();
+        assertThat(outerClass.getMethod("i").invoke(lazyFirst)).isEqualTo(TimeUnit.SECONDS);
+        assertThat(outerClass.getMethod("i").invoke(lazySecond)).isNull();
+
+        assertThat(lazyFirst).isEqualTo(first);
+        assertThat(lazySecond).isEqualTo(second);
+        assertThat(second).isEqualTo(lazySecond);
+        assertThat(lazyFirst.hashCode()).isEqualTo(first.hashCode());
+        assertThat(lazySecond.toString()).isEqualTo(second.toString());
+
+        // properties are decoded from the buffer when they are first accessed
+        ByteBuffer single = ByteBuffer.allocate(256);
+        writeTo.invoke(null, first, single);
+        single.flip();
+        Object lazy = readLazilyFrom.invoke(null, single);
+        single.put(8 + 4, (byte) 'x');
+        assertThat(outerClass.getMethod("b").invoke(lazy)).isEqualTo("x\u00fc");
+    }
+
+    private AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new BinaryCodecExtension()));
+    }
+}
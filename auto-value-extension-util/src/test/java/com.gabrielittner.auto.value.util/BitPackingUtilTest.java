@@ -0,0 +1,251 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.BitPackingExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.bytesPerInstance;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.newInstance;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class BitPackingUtilTest {
+
+    @Test
+    public void packedClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract byte b();\n"
+                + "  @Nullable public abstract TimeUnit c();\n"
+                + "  public abstract String d();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalArgumentException;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(boolean a, byte b, TimeUnit c, String d) {\n"
+                + "    super(a, b, c, d);\n"
+                + "  }\n"
+                + "  static final class Packed extends Test {\n"
+                + "    private static final TimeUnit[] C_VALUES = TimeUnit.values();\n"
+                + "    private final int bits;\n"
+                + "    private final String d;\n"
+                + "    Packed(boolean a, byte b, TimeUnit c, String d) {\n"
+                + "      if (d == null) {\n"
+                + "        throw new NullPointerException(\"Null d\");\n"
+                + "      }\n"
+                + "      if (c != null && c.ordinal() >= 7) {\n"
+                + "        throw new IllegalArgumentException(\n"
+                + "            \"Ordinal of c doesn't fit into 3 bits: \" + c);\n"
+                + "      }\n"
+                + "      this.d = d;\n"
+                + "      this.bits = (a ? 1 : 0)\n"
+                + "          | (b & 0xFF) << 1\n"
+                + "          | (c == null ? 0 : c.ordinal() + 1) << 9;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean a() {\n"
+                + "      return (bits & 0x1) != 0;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public byte b() {\n"
+                + "      return (byte) (bits >>> 1);\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public TimeUnit c() {\n"
+                + "      int ordinal = (bits >>> 9) & 0x7;\n"
+                + "      return ordinal == 0 ? null : C_VALUES[ordinal - 1];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String d() {\n"
+                + "      return d;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return this.a() == that.a()\n"
+                + "            && this.b() == that.b()\n"
+                + "            && this.c() == that.c()\n"
+                + "            && this.d().equals(that.d());\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h$ = 1;\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= a() ? 1231 : 1237;\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= b();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= (c() == null) ? 0 : c().hashCode();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= d().hashCode();\n"
+                + "      return h$;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return new StringBuilder(63)\n"
+                + "          .append(\"Test{a=\").append(a())\n"
+                + "          .append(\", b=\").append(b())\n"
+                + "          .append(\", c=\").append(c())\n"
+                + "          .append(\", d=\").append(d())\n"
+                + "          .append('}')\n"
+                + "          .toString();\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void packedInstancesMatchAutoValueInstances() throws Exception {
+        ClassLoader loader = compileFlagsClass();
+        Object[] args = flagsArgs();
+        Object regularValue = newInstance(constructor(loader, "test.AutoValue_Flags"), args);
+        Object packedValue = newInstance(constructor(loader, "test.AutoValue_Flags$Packed"), args);
+
+        assertThat(packedValue).isEqualTo(regularValue);
+        assertThat(regularValue).isEqualTo(packedValue);
+        assertThat(packedValue.hashCode()).isEqualTo(regularValue.hashCode());
+        assertThat(packedValue.toString()).isEqualTo(regularValue.toString());
+    }
+
+    @Test
+    public void packedInstancesAreSmaller() throws Exception {
+        assumeTrue(AllocationBudget.isSupported());
+        ClassLoader loader = compileFlagsClass();
+        Object[] args = flagsArgs();
+        long regular = bytesPerInstance(constructor(loader, "test.AutoValue_Flags"), args);
+        long packed = bytesPerInstance(constructor(loader, "test.AutoValue_Flags$Packed"), args);
+
+        // 40 booleans, a byte and an enum with 7 constants take 51 bits of a single long instead
+        // of 42 fields
+        assertThat(packed * 2).isLessThan(regular);
+    }
+
+    @Test
+    public void rejectsOrdinalsAddedAfterGeneration() throws Exception {
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(JavaFileObjects.forSourceString("test.Level", ""
+                        + "package test;\n"
+                        + "public enum Level { A, B, C, D }\n"),
+                        JavaFileObjects.forSourceString("test.Test", ""
+                        + "package test;\n"
+                        + "import com.google.auto.value.AutoValue;\n"
+                        + "@AutoValue public abstract class Test {\n"
+                        + "  public abstract Level level();\n"
+                        + "}\n"));
+        assertThat(compilation).succeeded();
+        // a newer version of the enum with a constant that needs a third bit
+        Compilation newer = javac().compile(JavaFileObjects.forSourceString("test.Level", ""
+                + "package test;\n"
+                + "public enum Level { A, B, C, D, E }\n"));
+        assertThat(newer).succeeded();
+
+        ClassLoader loader = new CompilationClassLoader(
+                compilation, new CompilationClassLoader(newer));
+        Constructor<?> packed = constructor(loader, "test.AutoValue_Test$Packed");
+        Object[] levels = loader.loadClass("test.Level").getEnumConstants();
+        assertThat(levels).hasLength(5);
+        Object value = newInstance(packed, levels[3]);
+        assertThat(loader.loadClass("test.Test").getMethod("level").invoke(value))
+                .isSameInstanceAs(levels[3]);
+        try {
+            newInstance(packed, levels[4]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageThat()
+                    .isEqualTo("Ordinal of level doesn't fit into 2 bits: E");
+        }
+    }
+
+    @Test
+    public void abstractMethodsThatArentPropertiesAreRejected() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Item", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Item {\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder a(boolean a);\n"
+                + "    public abstract Item build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+
+        assertThat(compilation).hadErrorCount(1);
+        assertThat(compilation).hadErrorContaining(
+                "Can't generate Packed because it can't implement the abstract method toBuilder()");
+    }
+
+    private ClassLoader compileFlagsClass() {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import java.util.concurrent.TimeUnit;\n")
+                .append("@AutoValue public abstract class Flags {\n");
+        for (int i = 0; i < 40; i++) {
+            source.append("  public abstract boolean flag").append(i).append("();\n");
+        }
+        source.append("  public abstract byte level();\n")
+                .append("  public abstract TimeUnit unit();\n")
+                .append("}\n");
+        return compile(newProcessor(),
+                JavaFileObjects.forSourceString("test.Flags", source.toString()));
+    }
+
+    private static Object[] flagsArgs() {
+        Object[] args = new Object[42];
+        for (int i = 0; i < 40; i++) {
+            args[i] = i % 3 == 0;
+        }
+        args[40] = (byte) -7;
+        args[41] = TimeUnit.MINUTES;
+        return args;
+    }
+
+    private AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new BitPackingExtension()));
+    }
+}
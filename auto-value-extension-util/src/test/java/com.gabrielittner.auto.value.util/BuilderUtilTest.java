@@ -0,0 +1,329 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.BuilderExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class BuilderUtilTest {
+
+    @Test
+    public void builder() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  public abstract List<String> c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IllegalStateException;\n"
+                + "import java.lang.Math;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, String b, List<String> c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  public static final class Builder {\n"
+                + "    private int a;\n"
+                + "    private String b;\n"
+                + "    private List<String> c;\n"
+                + "    private long set$;\n"
+                + "    private long owned$;\n"
+                + "    public Builder a(int a) {\n"
+                + "      this.a = a;\n"
+                + "      set$ |= 0x1L;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public Builder b(String b) {\n"
+                + "      this.b = b;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public Builder c(List<String> c) {\n"
+                + "      if (c == null) {\n"
+                + "        throw new NullPointerException(\"Null c\");\n"
+                + "      }\n"
+                + "      this.c = c;\n"
+                + "      owned$ &= ~0x1L;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public Builder cExpectedSize(int expectedSize) {\n"
+                + "      if ((owned$ & 0x1L) == 0) {\n"
+                + "        int size = this.c == null\n"
+                + "            ? expectedSize : Math.max(expectedSize, this.c.size());\n"
+                + "        List<String> copy = new ArrayList<>(size);\n"
+                + "        if (this.c != null) {\n"
+                + "          copy.addAll(this.c);\n"
+                + "        }\n"
+                + "        this.c = copy;\n"
+                + "        owned$ |= 0x1L;\n"
+                + "      }\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public Builder addC(String element) {\n"
+                + "      if ((owned$ & 0x1L) == 0) {\n"
+                + "        this.c = this.c == null\n"
+                + "            ? new ArrayList<String>() : new ArrayList<>(this.c);\n"
+                + "        owned$ |= 0x1L;\n"
+                + "      }\n"
+                + "      this.c.add(element);\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    public Test build() {\n"
+                + "      if (set$ != 0x1L) {\n"
+                + "        StringBuilder missing = new StringBuilder();\n"
+                + "        if ((set$ & 0x1L) == 0) {\n"
+                + "          missing.append(\" a\");\n"
+                + "        }\n"
+                + "        throw new IllegalStateException(\"Missing required properties:\""
+                + " + missing);\n"
+                + "      }\n"
+                + "      List<String> c = this.c;\n"
+                + "      if (c == null) {\n"
+                + "        c = Collections.emptyList();\n"
+                + "      } else if ((owned$ & 0x1L) != 0) {\n"
+                + "        c = Collections.unmodifiableList(c);\n"
+                + "      }\n"
+                + "      owned$ = 0L;\n"
+                + "      return new AutoValue_Test(a, b, c);\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(false))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void builderSetterNames() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract String b();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder setA(int a);\n"
+                + "    public abstract Builder setB(String b);\n"
+                + "    public abstract Test build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Class<?> builder =
+                compile(newProcessor(true), source).loadClass("test.AutoValue_Test$Builder");
+        assertThat(builder.getMethod("setA", int.class)).isNotNull();
+        assertThat(builder.getMethod("setB", String.class)).isNotNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void buildsValues() throws Exception {
+        Object builder = newBuilder();
+        call(builder, "a", int.class, 1);
+        call(builder, "cExpectedSize", int.class, 2);
+        call(builder, "addC", String.class, "x");
+        call(builder, "addC", String.class, "y");
+        call(builder, "putD", String.class, Integer.class, "k", 3);
+        call(builder, "addE", Long.class, 4L);
+        Object value = call(builder, "build");
+
+        assertThat(get(value, "a")).isEqualTo(1);
+        assertThat(get(value, "b")).isNull();
+        List<String> c = (List<String>) get(value, "c");
+        assertThat(c).containsExactly("x", "y").inOrder();
+        assertThat((Map<String, Integer>) get(value, "d")).containsExactly("k", 3);
+        assertThat((Set<Long>) get(value, "e")).containsExactly(4L);
+        try {
+            c.add("z");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        // adding after build() must not change the built value
+        call(builder, "addC", String.class, "z");
+        assertThat(c).containsExactly("x", "y").inOrder();
+        assertThat((List<String>) get(call(builder, "build"), "c"))
+                .containsExactly("x", "y", "z").inOrder();
+    }
+
+    @Test
+    public void defaultsAndSetters() throws Exception {
+        Object builder = newBuilder();
+        List<String> list = Arrays.asList("x");
+        call(builder, "a", int.class, 1);
+        call(builder, "c", List.class, list);
+        Object value = call(builder, "build");
+
+        assertThat(get(value, "c")).isSameInstanceAs(list);
+        assertThat(get(value, "d")).isEqualTo(Collections.emptyMap());
+        assertThat(get(value, "e")).isNull();
+
+        // adding to a collection that was passed to a setter copies it first
+        call(builder, "addC", String.class, "y");
+        assertThat(list).containsExactly("x");
+    }
+
+    @Test
+    public void missingRequiredProperties() throws Exception {
+        Object builder = newBuilder();
+        try {
+            call(builder, "build");
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Missing required properties: a");
+        }
+    }
+
+    @Test
+    public void nullChecks() throws Exception {
+        Object builder = newBuilder();
+        call(builder, "b", String.class, null);
+        try {
+            call(builder, "c", List.class, null);
+            fail();
+        } catch (NullPointerException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Null c");
+        }
+    }
+
+    @Test
+    public void resetMethod() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract boolean b();\n"
+                + "  public abstract List<String> c();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor(true))
+                .compile(source);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "    public Builder reset() {\n"
+                        + "      this.a = 0;\n"
+                        + "      this.b = false;\n"
+                        + "      this.c = null;\n"
+                        + "      set$ = 0L;\n"
+                        + "      owned$ = 0L;\n"
+                        + "      return this;\n"
+                        + "    }\n");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void reusesBuilderAfterReset() throws Exception {
+        Object builder = newBuilder();
+        call(builder, "a", int.class, 1);
+        call(builder, "b", String.class, "b");
+        call(builder, "addC", String.class, "x");
+        Object first = call(builder, "build");
+
+        assertThat(call(builder, "reset")).isSameInstanceAs(builder);
+        try {
+            call(builder, "build");
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Missing required properties: a");
+        }
+        call(builder, "a", int.class, 2);
+        call(builder, "addC", String.class, "y");
+        Object second = call(builder, "build");
+
+        assertThat(get(second, "a")).isEqualTo(2);
+        assertThat(get(second, "b")).isNull();
+        assertThat((List<String>) get(second, "c")).containsExactly("y");
+        assertThat((List<String>) get(first, "c")).containsExactly("x");
+        assertThat(get(first, "b")).isEqualTo("b");
+    }
+
+    private static Object newBuilder() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "import java.util.Set;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  public abstract List<String> c();\n"
+                + "  public abstract Map<String, Integer> d();\n"
+                + "  @Nullable public abstract Set<Long> e();\n"
+                + "}\n");
+        Constructor<?> constructor = compile(newProcessor(true), source)
+                .loadClass("test.AutoValue_Test$Builder")
+                .getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private static Object call(Object target, String name, Object... typesAndArgs)
+            throws Exception {
+        int count = typesAndArgs.length / 2;
+        Class<?>[] types = new Class<?>[count];
+        Object[] args = new Object[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = (Class<?>) typesAndArgs[i];
+            args[i] = typesAndArgs[count + i];
+        }
+        Method method = target.getClass().getMethod(name, types);
+        method.setAccessible(true);
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static Object get(Object value, String property) throws Exception {
+        Method method = value.getClass().getMethod(property);
+        method.setAccessible(true);
+        return method.invoke(value);
+    }
+
+    private static AutoValueProcessor newProcessor(boolean recyclable) {
+        return new AutoValueProcessor(
+                Collections.singletonList(new BuilderExtension(recyclable)));
+    }
+}
@@ -0,0 +1,108 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ContextExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.common.base.Optional;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.lang.model.element.ExecutableElement;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+public class BuilderViewTest {
+
+    @Test
+    public void builder() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract ImmutableList<String> b();\n"
+                + "  public abstract String c();\n"
+                + "  public static Builder builder() {\n"
+                + "    return new AutoValue_Test.Builder();\n"
+                + "  }\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder setA(int a);\n"
+                + "    public abstract Builder setB(String[] b);\n"
+                + "    public abstract Builder setB(ImmutableList<String> b);\n"
+                + "    public abstract ImmutableList.Builder<String> bBuilder();\n"
+                + "    public abstract Builder setC(String c);\n"
+                + "    public abstract Test build();\n"
+                + "  }\n"
+                + "}\n");
+
+        final List<BuilderView> views = new ArrayList<>();
+        compile(source, new ContextExtension.Callback() {
+            @Override
+            public void onContext(Context context) {
+                BuilderView view = BuilderView.of(context).get();
+                assertThat(BuilderView.of(context).get()).isSameInstanceAs(view);
+                views.add(view);
+            }
+        });
+
+        BuilderView view = views.get(0);
+        assertThat(view.builderType().getQualifiedName().toString()).isEqualTo("test.Test.Builder");
+        assertThat(names(view.builderMethods())).containsExactly("builder");
+        assertThat(names(view.toBuilderMethods())).containsExactly("toBuilder");
+        assertThat(view.buildMethod().get().getSimpleName().toString()).isEqualTo("build");
+
+        List<Property> properties = view.properties();
+        assertThat(properties).hasSize(3);
+        Property a = properties.get(0);
+        Property b = properties.get(1);
+        assertThat(names(view.setters(a))).containsExactly("setA");
+        assertThat(view.propertyBuilder(a).isPresent()).isFalse();
+        assertThat(names(view.setters(b))).containsExactly("setB", "setB");
+        assertThat(view.propertyBuilder(b).get().getSimpleName().toString())
+                .isEqualTo("bBuilder");
+    }
+
+    @Test
+    public void noBuilder() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "}\n");
+
+        final List<Optional<BuilderView>> views = new ArrayList<>();
+        compile(source, new ContextExtension.Callback() {
+            @Override
+            public void onContext(Context context) {
+                views.add(BuilderView.of(context));
+            }
+        });
+
+        assertThat(views.get(0).isPresent()).isFalse();
+    }
+
+    private static List<String> names(Iterable<ExecutableElement> methods) {
+        List<String> names = new ArrayList<>();
+        for (ExecutableElement method : methods) {
+            names.add(method.getSimpleName().toString());
+        }
+        return names;
+    }
+
+    private static void compile(JavaFileObject source, ContextExtension.Callback callback) {
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new ContextExtension(callback))))
+                .compile(source);
+        assertThat(compilation).succeeded();
+    }
+}
@@ -0,0 +1,319 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ColumnarExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class ColumnarUtilTest {
+
+    private static final Class<?>[] INDEX = {int.class};
+    private static final Class<?>[] ROW = {int.class, double.class, String.class, String.class};
+
+    @Test
+    public void columnarContainer() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.IndexOutOfBoundsException;\n"
+                + "import java.lang.Math;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Arrays;\n"
+                + "import java.util.Collection;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, String b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "  static final class Columns {\n"
+                + "    private int size;\n"
+                + "    private int[] a;\n"
+                + "    private String[] b;\n"
+                + "    Columns() {\n"
+                + "      this(16);\n"
+                + "    }\n"
+                + "    Columns(int initialCapacity) {\n"
+                + "      this.a = new int[initialCapacity];\n"
+                + "      this.b = new String[initialCapacity];\n"
+                + "    }\n"
+                + "    static Columns from(Collection<? extends Test> values) {\n"
+                + "      Columns container = new Columns(values.size());\n"
+                + "      for (Test value : values) {\n"
+                + "        container.add(value);\n"
+                + "      }\n"
+                + "      return container;\n"
+                + "    }\n"
+                + "    int size() {\n"
+                + "      return size;\n"
+                + "    }\n"
+                + "    void add(Test value) {\n"
+                + "      ensureCapacity(size + 1);\n"
+                + "      a[size] = value.a();\n"
+                + "      b[size] = value.b();\n"
+                + "      size++;\n"
+                + "    }\n"
+                + "    void add(int a, String b) {\n"
+                + "      ensureCapacity(size + 1);\n"
+                + "      this.a[size] = a;\n"
+                + "      this.b[size] = b;\n"
+                + "      size++;\n"
+                + "    }\n"
+                + "    int a(int index) {\n"
+                + "      checkIndex(index);\n"
+                + "      return a[index];\n"
+                + "    }\n"
+                + "    int[] aColumn() {\n"
+                + "      return a;\n"
+                + "    }\n"
+                + "    String b(int index) {\n"
+                + "      checkIndex(index);\n"
+                + "      return b[index];\n"
+                + "    }\n"
+                + "    String[] bColumn() {\n"
+                + "      return b;\n"
+                + "    }\n"
+                + "    Test get(int index) {\n"
+                + "      checkIndex(index);\n"
+                + "      int a = this.a[index];\n"
+                + "      String b = this.b[index];\n"
+                + "      return new AutoValue_Test(a, b);\n"
+                + "    }\n"
+                + "    List<Test> toList() {\n"
+                + "      List<Test> list = new ArrayList<>(size);\n"
+                + "      for (int i = 0; i < size; i++) {\n"
+                + "        list.add(get(i));\n"
+                + "      }\n"
+                + "      return list;\n"
+                + "    }\n"
+                + "    void clear() {\n"
+                + "      Arrays.fill(b, 0, size, null);\n"
+                + "      size = 0;\n"
+                + "    }\n"
+                + "    private void ensureCapacity(int minCapacity) {\n"
+                + "      int capacity = a.length;\n"
+                + "      if (minCapacity > capacity) {\n"
+                + "        int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1));\n"
+                + "        a = Arrays.copyOf(a, newCapacity);\n"
+                + "        b = Arrays.copyOf(b, newCapacity);\n"
+                + "      }\n"
+                + "    }\n"
+                + "    private void checkIndex(int index) {\n"
+                + "      if (index < 0 || index >= size) {\n"
+                + "        throw new IndexOutOfBoundsException(\"Index: \" + index"
+                + " + \", Size: \" + size);\n"
+                + "      }\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void genericClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T a();\n"
+                + "  public abstract List<String> b();\n"
+                + "  @SuppressWarnings(\"mutable\") public abstract int[] c();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "    Columns(int initialCapacity) {\n"
+                        + "      this.a = new Object[initialCapacity];\n"
+                        + "      this.b = new Object[initialCapacity];\n"
+                        + "      this.c = new int[initialCapacity][];\n"
+                        + "    }\n");
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "    T a(int index) {\n"
+                        + "      checkIndex(index);\n"
+                        + "      return (T) a[index];\n"
+                        + "    }\n");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void roundTrip() throws Exception {
+        ClassLoader loader = compileTestClass();
+        Constructor<?> constructor = constructor(loader, "test.AutoValue_Test");
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            values.add(constructor.newInstance(i, i * 0.5, i % 2 == 0 ? null : "c" + i, "d"));
+        }
+
+        Class<?> columns = loader.loadClass("test.AutoValue_Test$Columns");
+        Method from = columns.getDeclaredMethod("from", Collection.class);
+        from.setAccessible(true);
+        Object container = from.invoke(null, values.subList(0, 10));
+        Class<?> autoValueClass = loader.loadClass("test.Test");
+        for (Object value : values.subList(10, 40)) {
+            call(container, "add", new Class<?>[] {autoValueClass}, value);
+        }
+
+        assertThat(call(container, "size")).isEqualTo(40);
+        assertThat((List<Object>) call(container, "toList")).isEqualTo(values);
+        assertThat(call(container, "get", INDEX, 7)).isEqualTo(values.get(7));
+        assertThat(call(container, "c", INDEX, 7)).isEqualTo("c7");
+        int[] a = (int[]) call(container, "aColumn");
+        long sum = 0;
+        for (int i = 0; i < 40; i++) {
+            sum += a[i];
+        }
+        assertThat(sum).isEqualTo(780);
+
+        call(container, "add", ROW, 40, 20.0, "c40", "d");
+        assertThat(call(container, "get", INDEX, 40))
+                .isEqualTo(constructor.newInstance(40, 20.0, "c40", "d"));
+
+        call(container, "clear");
+        assertThat(call(container, "size")).isEqualTo(0);
+        assertThat(((Object[]) call(container, "cColumn"))[7]).isNull();
+    }
+
+    @Test
+    public void checksIndexAndNulls() throws Exception {
+        Class<?> columns = compileTestClass().loadClass("test.AutoValue_Test$Columns");
+        Constructor<?> constructor = columns.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object container = constructor.newInstance();
+        try {
+            call(container, "a", INDEX, 0);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Index: 0, Size: 0");
+        }
+        try {
+            call(container, "add", ROW, 1, 1.0, null, null);
+            fail();
+        } catch (NullPointerException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Null d");
+        }
+        assertThat(call(container, "size")).isEqualTo(0);
+    }
+
+    @Test
+    public void propertiesNamedLikeContainerMethods() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String get();\n"
+                + "  public abstract int add();\n"
+                + "  public abstract long getColumn();\n"
+                + "}\n");
+
+        Class<?> columns =
+                compile(newProcessor(), source).loadClass("test.AutoValue_Test$Columns");
+        Constructor<?> constructor = columns.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object container = constructor.newInstance();
+        call(container, "add", new Class<?>[] {String.class, int.class, long.class}, "a", 1, 2L);
+        assertThat(call(container, "get_", INDEX, 0)).isEqualTo("a");
+        assertThat(call(container, "add_", INDEX, 0)).isEqualTo(1);
+        assertThat(call(container, "getColumn", INDEX, 0)).isEqualTo(2L);
+        assertThat(((String[]) call(container, "getColumn_"))[0]).isEqualTo("a");
+        assertThat(((long[]) call(container, "getColumnColumn"))[0]).isEqualTo(2L);
+    }
+
+    @Test
+    public void propertiesNamedLikeParameters() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Col", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Col {\n"
+                + "  public abstract int value();\n"
+                + "  public abstract int index();\n"
+                + "  public abstract long capacity();\n"
+                + "}\n");
+
+        ClassLoader loader = compile(newProcessor(), source);
+        Class<?> columns = loader.loadClass("test.AutoValue_Col$Columns");
+        Constructor<?> constructor = columns.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        Object container = constructor.newInstance(1);
+        call(container, "add", new Class<?>[] {int.class, int.class, long.class}, 1, 2, 3L);
+        Object row = call(container, "get", INDEX, 0);
+        call(container, "add", new Class<?>[] {loader.loadClass("test.Col")}, row);
+        assertThat(call(container, "size")).isEqualTo(2);
+        assertThat(call(container, "value", INDEX, 1)).isEqualTo(1);
+        assertThat(call(container, "index", INDEX, 1)).isEqualTo(2);
+        assertThat(call(container, "capacity", INDEX, 1)).isEqualTo(3L);
+    }
+
+    private static ClassLoader compileTestClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract double b();\n"
+                + "  @Nullable public abstract String c();\n"
+                + "  public abstract String d();\n"
+                + "}\n");
+        return compile(newProcessor(), source);
+    }
+
+    private static Object call(Object target, String name) throws Exception {
+        return call(target, name, new Class<?>[0]);
+    }
+
+    private static Object call(Object target, String name, Class<?>[] types, Object... args)
+            throws Exception {
+        Method method = target.getClass().getDeclaredMethod(name, types);
+        method.setAccessible(true);
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new ColumnarExtension()));
+    }
+}
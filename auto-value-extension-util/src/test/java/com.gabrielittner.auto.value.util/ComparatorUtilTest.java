@@ -0,0 +1,202 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ComparatorExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class ComparatorUtilTest {
+
+    @Test
+    public void comparator() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  public abstract double c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Comparator;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private static final Comparator<Test> NATURAL = new NaturalComparator();\n"
+                + "  AutoValue_Test(int a, String b, double c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  static Comparator<Test> natural() {\n"
+                + "    return NATURAL;\n"
+                + "  }\n"
+                + "  private static final class NaturalComparator implements Comparator<Test> {\n"
+                + "    @Override\n"
+                + "    public int compare(Test left, Test right) {\n"
+                + "      int result;\n"
+                + "      result = Integer.compare(left.a(), right.a());\n"
+                + "      if (result != 0) {\n"
+                + "        return result;\n"
+                + "      }\n"
+                + "      String bLeft = left.b();\n"
+                + "      String bRight = right.b();\n"
+                + "      if (bLeft != bRight) {\n"
+                + "        if (bLeft == null) {\n"
+                + "          return 1;\n"
+                + "        }\n"
+                + "        if (bRight == null) {\n"
+                + "          return -1;\n"
+                + "        }\n"
+                + "        result = bLeft.compareTo(bRight);\n"
+                + "        if (result != 0) {\n"
+                + "          return result;\n"
+                + "        }\n"
+                + "      }\n"
+                + "      result = Double.compare(left.c(), right.c());\n"
+                + "      if (result != 0) {\n"
+                + "        return result;\n"
+                + "      }\n"
+                + "      return 0;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(false))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void genericComparator() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T extends Comparable<T>> {\n"
+                + "  public abstract T a();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Comparable;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.SuppressWarnings;\n"
+                + "import java.util.Comparator;\n"
+                + "final class AutoValue_Test<T extends Comparable<T>>\n"
+                + "    extends $AutoValue_Test<T> {\n"
+                + "  @SuppressWarnings(\"rawtypes\")\n"
+                + "  private static final Comparator<?> NATURAL = new NaturalComparator();\n"
+                + "  AutoValue_Test(T a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @SuppressWarnings(\"unchecked\")\n"
+                + "  static <T extends Comparable<T>> Comparator<Test<T>> natural() {\n"
+                + "    return (Comparator<Test<T>>) NATURAL;\n"
+                + "  }\n"
+                + "  private static final class NaturalComparator<T extends Comparable<T>>\n"
+                + "      implements Comparator<Test<T>> {\n"
+                + "    @Override\n"
+                + "    public int compare(Test<T> left, Test<T> right) {\n"
+                + "      int result;\n"
+                + "      result = left.a().compareTo(right.a());\n"
+                + "      if (result != 0) {\n"
+                + "        return result;\n"
+                + "      }\n"
+                + "      return 0;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(true))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void notComparable() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract List<String> b();\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(true))
+                .failsToCompile()
+                .withErrorContaining(
+                        "Comparators only support primitive and Comparable properties")
+                .in(source).onLine(6);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void sortsLikeComparatorChain() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Row", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Row {\n"
+                + "  public abstract boolean flag();\n"
+                + "  @Nullable public abstract String name();\n"
+                + "  public abstract long id();\n"
+                + "}\n");
+        Compilation compilation = javac()
+                .withProcessors(newProcessor(true))
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        Class<?> generated = new CompilationClassLoader(compilation)
+                .loadClass("test.AutoValue_Row");
+        Constructor<?> constructor = generated.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        Method natural = generated.getDeclaredMethod("natural");
+        natural.setAccessible(true);
+        Comparator<Object> comparator = (Comparator<Object>) natural.invoke(null);
+        assertThat(natural.invoke(null)).isSameInstanceAs(comparator);
+
+        Object first = constructor.newInstance(false, null, 2L);
+        Object second = constructor.newInstance(false, "a", 1L);
+        Object third = constructor.newInstance(false, "a", 3L);
+        Object fourth = constructor.newInstance(true, null, 0L);
+        Object fifth = constructor.newInstance(true, "b", -1L);
+        List<Object> rows = new ArrayList<>();
+        Collections.addAll(rows, fifth, third, first, fourth, second);
+        Collections.sort(rows, comparator);
+
+        assertThat(rows).containsExactly(first, second, third, fourth, fifth).inOrder();
+        assertThat(comparator.compare(second, constructor.newInstance(false, "a", 1L)))
+                .isEqualTo(0);
+    }
+
+    private AutoValueProcessor newProcessor(boolean nullsFirst) {
+        return new AutoValueProcessor(
+                Collections.singletonList(new ComparatorExtension(nullsFirst)));
+    }
+}
@@ -0,0 +1,45 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.common.io.ByteStreams;
+import com.google.testing.compile.Compilation;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.tools.JavaFileObject;
+
+/**
+ * Loads the classes produced by a successful {@link Compilation} so that tests can run the
+ * generated code. Also used by the benchmarks in the macrobenchmark source set.
+ */
+public final class CompilationClassLoader extends ClassLoader {
+
+    private final Compilation compilation;
+
+    public CompilationClassLoader(Compilation compilation) {
+        this(compilation, CompilationClassLoader.class.getClassLoader());
+    }
+
+    /**
+     * Creates a loader that asks {@code parent} first, which allows replacing classes of
+     * {@code compilation} with ones of another compilation.
+     */
+    public CompilationClassLoader(Compilation compilation, ClassLoader parent) {
+        super(parent);
+        this.compilation = compilation;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = "/" + name.replace('.', '/') + ".class";
+        for (JavaFileObject file : compilation.generatedFiles()) {
+            if (file.getKind() == JavaFileObject.Kind.CLASS && file.getName().endsWith(path)) {
+                try (InputStream input = file.openInputStream()) {
+                    byte[] bytes = ByteStreams.toByteArray(input);
+                    return defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+}
@@ -0,0 +1,194 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.DefensiveCopyExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class DefensiveCopiesTest {
+
+    @Test
+    public void defensiveCopies() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract List<T> b();\n"
+                + "  @Nullable public abstract Map<String, Integer> c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import com.google.common.collect.ImmutableList;\n"
+                + "import com.google.common.collect.ImmutableMap;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.ArrayList;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.LinkedHashMap;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  AutoValue_Test(int a, List<T> b, Map<String, Integer> c) {\n"
+                + "    super(a, immutableCopy(b), c == null ? null : immutableCopy(c));\n"
+                + "  }\n"
+                + "  private static <E> List<E> immutableCopy(List<E> list) {\n"
+                + "    if (list instanceof ImmutableList || isJdkImmutable(list)) {\n"
+                + "      return list;\n"
+                + "    }\n"
+                + "    if (list.isEmpty()) {\n"
+                + "      return Collections.emptyList();\n"
+                + "    }\n"
+                + "    return Collections.unmodifiableList(new ArrayList<>(list));\n"
+                + "  }\n"
+                + "  private static <K, V> Map<K, V> immutableCopy(Map<K, V> map) {\n"
+                + "    if (map instanceof ImmutableMap || isJdkImmutable(map)) {\n"
+                + "      return map;\n"
+                + "    }\n"
+                + "    if (map.isEmpty()) {\n"
+                + "      return Collections.emptyMap();\n"
+                + "    }\n"
+                + "    Map<K, V> copy = new LinkedHashMap<>(capacity(map.size()));\n"
+                + "    copy.putAll(map);\n"
+                + "    return Collections.unmodifiableMap(copy);\n"
+                + "  }\n"
+                + "  private static int capacity(int expectedSize) {\n"
+                + "    if (expectedSize < 3) {\n"
+                + "      return expectedSize + 1;\n"
+                + "    }\n"
+                + "    return (int) (expectedSize / 0.75f + 1.0f);\n"
+                + "  }\n"
+                + "  private static boolean isJdkImmutable(Object collection) {\n"
+                + "    String name = collection.getClass().getName();\n"
+                + "    return name.startsWith(\"java.util.ImmutableCollections$\")\n"
+                + "        || name.startsWith(\"java.util.Collections$Empty\")\n"
+                + "        || name.startsWith(\"java.util.Collections$Singleton\");\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void noCollections() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract String b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, String b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void copiesOnlyWhenNeeded() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Map;\n"
+                + "import java.util.Set;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract List<String> list();\n"
+                + "  public abstract Set<String> set();\n"
+                + "  public abstract Map<String, String> map();\n"
+                + "}\n");
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        Class<?> generated = new CompilationClassLoader(compilation)
+                .loadClass("test.AutoValue_Test");
+        Constructor<?> constructor = generated.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+
+        List<String> immutableList = ImmutableList.of("a", "b");
+        Set<String> singleton = Collections.singleton("a");
+        Map<String, String> emptyMap = Collections.emptyMap();
+        Object value = constructor.newInstance(immutableList, singleton, emptyMap);
+        assertThat(get(value, "list")).isSameInstanceAs(immutableList);
+        assertThat(get(value, "set")).isSameInstanceAs(singleton);
+        assertThat(get(value, "map")).isSameInstanceAs(emptyMap);
+
+        List<String> mutableList = new ArrayList<>(Arrays.asList("a", "b"));
+        List<String> view = Collections.unmodifiableList(mutableList);
+        Set<String> mutableSet = new LinkedHashSet<>(Arrays.asList("c", "b", "a"));
+        Map<String, String> mutableMap = new HashMap<>(ImmutableMap.of("k", "v"));
+        value = constructor.newInstance(view, mutableSet, mutableMap);
+        mutableList.add("c");
+        mutableSet.clear();
+        mutableMap.put("x", "y");
+        assertThat((List<?>) get(value, "list")).containsExactly("a", "b").inOrder();
+        assertThat((Set<?>) get(value, "set")).containsExactly("c", "b", "a").inOrder();
+        assertThat((Map<?, ?>) get(value, "map")).containsExactly("k", "v");
+        try {
+            ((List<?>) get(value, "list")).clear();
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        value = constructor.newInstance(new ArrayList<>(), new LinkedHashSet<>(), new HashMap<>());
+        assertThat(get(value, "list")).isSameInstanceAs(Collections.emptyList());
+        assertThat(get(value, "set")).isSameInstanceAs(Collections.emptySet());
+        assertThat(get(value, "map")).isSameInstanceAs(Collections.emptyMap());
+    }
+
+    private static Object get(Object value, String property) throws Exception {
+        Method method = value.getClass().getSuperclass().getSuperclass()
+                .getDeclaredMethod(property);
+        method.setAccessible(true);
+        return method.invoke(value);
+    }
+
+    private AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new DefensiveCopyExtension()));
+    }
+}
@@ -0,0 +1,174 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.EqualsHashCodeExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class EqualsHashCodeUtilTest {
+
+    @Test
+    public void comparesCheapPropertiesFirst() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract List<String> a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  public abstract double c();\n"
+                + "  public abstract TimeUnit d();\n"
+                + "  public abstract int[] e();\n"
+                + "  public abstract long f();\n"
+                + "  public abstract boolean g();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.util.Arrays;\n"
+                + "import java.util.List;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(List<String> a, String b, double c, TimeUnit d, int[] e,\n"
+                + "      long f, boolean g) {\n"
+                + "    super(a, b, c, d, e, f, g);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public boolean equals(Object o) {\n"
+                + "    if (o == this) {\n"
+                + "      return true;\n"
+                + "    }\n"
+                + "    if (o instanceof Test) {\n"
+                + "      Test that = (Test) o;\n"
+                + "      return this.f() == that.f()\n"
+                + "          && this.g() == that.g()\n"
+                + "          && Double.doubleToLongBits(this.c())"
+                + " == Double.doubleToLongBits(that.c())\n"
+                + "          && this.d() == that.d()\n"
+                + "          && (this.b() == null ? that.b() == null : this.b().equals(that.b()))\n"
+                + "          && this.a().equals(that.a())\n"
+                + "          && Arrays.equals(this.e(), that.e());\n"
+                + "    }\n"
+                + "    return false;\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int hashCode() {\n"
+                + "    int h$ = 1;\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= a().hashCode();\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= (b() == null) ? 0 : b().hashCode();\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= (int) ((Double.doubleToLongBits(c()) >>> 32)"
+                + " ^ Double.doubleToLongBits(c()));\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= d().hashCode();\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= Arrays.hashCode(e());\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= (int) ((f() >>> 32) ^ f());\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= g() ? 1231 : 1237;\n"
+                + "    return h$;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new EqualsHashCodeExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void genericClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T t();\n"
+                + "  public abstract char c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  AutoValue_Test(T t, char c) {\n"
+                + "    super(t, c);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public boolean equals(Object o) {\n"
+                + "    if (o == this) {\n"
+                + "      return true;\n"
+                + "    }\n"
+                + "    if (o instanceof Test) {\n"
+                + "      Test<?> that = (Test<?>) o;\n"
+                + "      return this.c() == that.c()\n"
+                + "          && this.t().equals(that.t());\n"
+                + "    }\n"
+                + "    return false;\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int hashCode() {\n"
+                + "    int h$ = 1;\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= t().hashCode();\n"
+                + "    h$ *= 1000003;\n"
+                + "    h$ ^= c();\n"
+                + "    return h$;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(new EqualsHashCodeExtension()))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void comparisonsAreIndentedOnce() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract int b();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor(new EqualsHashCodeExtension()))
+                .compile(source);
+
+        // generatesSources() ignores whitespace, so the continuation indent is checked as text
+        assertThat(compilation).succeeded();
+        assertThat(compilation.generatedSourceFile("test.AutoValue_Test").get()
+                .getCharContent(true).toString())
+                .contains("      return this.a() == that.a()\n"
+                        + "          && this.b() == that.b();\n");
+    }
+
+    private AutoValueProcessor newProcessor(AutoValueExtension... extension) {
+        return new AutoValueProcessor(Arrays.asList(extension));
+    }
+}
@@ -0,0 +1,176 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.FlyweightExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class FlyweightUtilTest {
+
+    @Test
+    public void flyweightView() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract boolean active();\n"
+                + "  public abstract long timestamp();\n"
+                + "  public abstract int quantity();\n"
+                + "  public abstract double price();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.nio.ByteBuffer;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(boolean active, long timestamp, int quantity, double price) {\n"
+                + "    super(active, timestamp, quantity, price);\n"
+                + "  }\n"
+                + "  static final class View {\n"
+                + "    static final int TIMESTAMP_OFFSET = 0;\n"
+                + "    static final int PRICE_OFFSET = 8;\n"
+                + "    static final int QUANTITY_OFFSET = 16;\n"
+                + "    static final int ACTIVE_OFFSET = 20;\n"
+                + "    static final int SIZE = 24;\n"
+                + "    private ByteBuffer buffer;\n"
+                + "    private int offset;\n"
+                + "    View wrap(ByteBuffer buffer, int index) {\n"
+                + "      this.buffer = buffer;\n"
+                + "      this.offset = index * SIZE;\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    boolean active() {\n"
+                + "      return buffer.get(offset + ACTIVE_OFFSET) != 0;\n"
+                + "    }\n"
+                + "    long timestamp() {\n"
+                + "      return buffer.getLong(offset + TIMESTAMP_OFFSET);\n"
+                + "    }\n"
+                + "    int quantity() {\n"
+                + "      return buffer.getInt(offset + QUANTITY_OFFSET);\n"
+                + "    }\n"
+                + "    double price() {\n"
+                + "      return buffer.getDouble(offset + PRICE_OFFSET);\n"
+                + "    }\n"
+                + "    Test toValue() {\n"
+                + "      boolean active = active();\n"
+                + "      long timestamp = timestamp();\n"
+                + "      int quantity = quantity();\n"
+                + "      double price = price();\n"
+                + "      return new AutoValue_Test(active, timestamp, quantity, price);\n"
+                + "    }\n"
+                + "    static void write(Test value, ByteBuffer buffer, int index) {\n"
+                + "      int offset = index * SIZE;\n"
+                + "      buffer.putLong(offset + TIMESTAMP_OFFSET, value.timestamp());\n"
+                + "      buffer.putDouble(offset + PRICE_OFFSET, value.price());\n"
+                + "      buffer.putInt(offset + QUANTITY_OFFSET, value.quantity());\n"
+                + "      buffer.put(offset + ACTIVE_OFFSET, (byte) (value.active() ? 1 : 0));\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void nonPrimitiveProperty() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract String b();\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .failsToCompile()
+                .withErrorContaining("Flyweight views only support primitive properties")
+                .in(source).onLine(5);
+    }
+
+    @Test
+    public void scanRecordsInDirectBuffer() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Tick", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Tick {\n"
+                + "  public abstract short venue();\n"
+                + "  public abstract char side();\n"
+                + "  public abstract float price();\n"
+                + "  public abstract byte flags();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        ClassLoader loader = new CompilationClassLoader(compilation);
+        Class<?> autoValue = loader.loadClass("test.AutoValue_Tick");
+        Class<?> view = loader.loadClass("test.AutoValue_Tick$View");
+        Constructor<?> constructor = autoValue.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        Field sizeField = view.getDeclaredField("SIZE");
+        sizeField.setAccessible(true);
+        int size = sizeField.getInt(null);
+        assertThat(size).isEqualTo(12);
+
+        int count = 100;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * size);
+        Method write = declaredMethod(view, "write");
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = constructor.newInstance(
+                    (short) i, i % 2 == 0 ? 'B' : 'S', i * 0.25f, (byte) -i);
+            write.invoke(null, values[i], buffer, i);
+        }
+
+        Constructor<?> viewConstructor = view.getDeclaredConstructor();
+        viewConstructor.setAccessible(true);
+        Object flyweight = viewConstructor.newInstance();
+        Method wrap = declaredMethod(view, "wrap");
+        Method price = declaredMethod(view, "price");
+        Method toValue = declaredMethod(view, "toValue");
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            wrap.invoke(flyweight, buffer, i);
+            sum += (Float) price.invoke(flyweight);
+            assertThat(toValue.invoke(flyweight)).isEqualTo(values[i]);
+        }
+        assertThat(sum).isEqualTo(1237.5f);
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    private static Method declaredMethod(Class<?> cls, String name) throws Exception {
+        for (Method method : cls.getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                method.setAccessible(true);
+                return method;
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    private AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new FlyweightExtension()));
+    }
+}
@@ -0,0 +1,75 @@
+package com.gabrielittner.auto.value.util;
+
+import com.google.testing.compile.Compilation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import javax.annotation.processing.Processor;
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+
+/**
+ * Compiles sources and creates instances of the generated classes, for tests that check the
+ * behavior or the size of generated code.
+ */
+final class GeneratedClasses {
+
+    /**
+     * Compiles {@code sources} with {@code processor}, fails if that doesn't succeed and returns a
+     * class loader for the generated classes.
+     */
+    static CompilationClassLoader compile(Processor processor, JavaFileObject... sources) {
+        Compilation compilation = javac()
+                .withProcessors(processor)
+                .compile(sources);
+        assertThat(compilation).succeeded();
+        return new CompilationClassLoader(compilation);
+    }
+
+    /**
+     * Returns the constructor of the class called {@code name}, which has to be the only one like
+     * for classes generated by AutoValue and the utils.
+     */
+    static Constructor<?> constructor(ClassLoader loader, String name) throws Exception {
+        Constructor<?> constructor = loader.loadClass(name).getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        return constructor;
+    }
+
+    /**
+     * Calls {@code constructor}, {@link RuntimeException}s it throws are rethrown unwrapped.
+     */
+    static Object newInstance(Constructor<?> constructor, Object... args) throws Exception {
+        try {
+            return constructor.newInstance(args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by calling {@code constructor} once, which is the size of the
+     * instance plus anything the constructor allocates. Only call this if
+     * {@link AllocationBudget#isSupported()}.
+     */
+    static long bytesPerInstance(final Constructor<?> constructor, final Object... args) {
+        return AllocationBudget.bytesPerCall(new AllocationBudget.Call() {
+            @Override
+            public Object run() {
+                try {
+                    return constructor.newInstance(args);
+                } catch (ReflectiveOperationException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+    }
+
+    private GeneratedClasses() {
+        throw new AssertionError("No instances.");
+    }
+}
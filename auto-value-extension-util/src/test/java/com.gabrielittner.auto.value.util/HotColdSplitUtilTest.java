@@ -0,0 +1,232 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.HotColdSplitExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.bytesPerInstance;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assume.assumeTrue;
+
+public class HotColdSplitUtilTest {
+
+    @Test
+    public void splitClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  @interface Cold {}\n"
+                + "  public abstract int a();\n"
+                + "  @Cold @Nullable public abstract String b();\n"
+                + "  @Cold public abstract long c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, String b, long c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  static final class Split extends Test {\n"
+                + "    private final int a;\n"
+                + "    private final Cold cold;\n"
+                + "    Split(int a, String b, long c) {\n"
+                + "      this.a = a;\n"
+                + "      this.cold = b != null\n"
+                + "          || c != 0\n"
+                + "          ? new Cold(b, c)\n"
+                + "          : null;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int a() {\n"
+                + "      return a;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String b() {\n"
+                + "      return cold == null ? null : cold.b;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public long c() {\n"
+                + "      return cold == null ? 0L : cold.c;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return this.a() == that.a()\n"
+                + "            && this.c() == that.c()\n"
+                + "            && (this.b() == null"
+                + " ? that.b() == null : this.b().equals(that.b()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h$ = 1;\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= a();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= (b() == null) ? 0 : b().hashCode();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= (int) ((c() >>> 32) ^ c());\n"
+                + "      return h$;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return new StringBuilder(65)\n"
+                + "          .append(\"Test{a=\").append(a())\n"
+                + "          .append(\", b=\").append(b())\n"
+                + "          .append(\", c=\").append(c())\n"
+                + "          .append('}')\n"
+                + "          .toString();\n"
+                + "    }\n"
+                + "    private static final class Cold {\n"
+                + "      final String b;\n"
+                + "      final long c;\n"
+                + "      Cold(String b, long c) {\n"
+                + "        this.b = b;\n"
+                + "        this.c = c;\n"
+                + "      }\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void nonNullColdProperty() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  @interface Cold {}\n"
+                + "  @Cold public abstract String a();\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .failsToCompile()
+                .withErrorContaining("Cold properties must be @Nullable or primitive");
+    }
+
+    @Test
+    public void abstractMethodsThatArentPropertiesAreRejected() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Item", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Item {\n"
+                + "  @interface Cold {}\n"
+                + "  @Cold public abstract long a();\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder a(long a);\n"
+                + "    public abstract Item build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+
+        assertThat(compilation).hadErrorCount(1);
+        assertThat(compilation).hadErrorContaining(
+                "Can't generate Split because it can't implement the abstract method toBuilder()");
+    }
+
+    @Test
+    public void splitInstancesMatchAutoValueInstances() throws Exception {
+        ClassLoader loader = compileWideClass();
+        Constructor<?> regular = constructor(loader, "test.AutoValue_Wide");
+        Constructor<?> split = constructor(loader, "test.AutoValue_Wide$Split");
+
+        Object[] withoutCold = wideArgs(false);
+        Object[] withCold = wideArgs(true);
+        withCold[9] = -0.0;
+        for (Object[] args : new Object[][] {withoutCold, withCold}) {
+            Object regularValue = regular.newInstance(args);
+            Object splitValue = split.newInstance(args);
+            assertThat(splitValue).isEqualTo(regularValue);
+            assertThat(regularValue).isEqualTo(splitValue);
+            assertThat(splitValue.hashCode()).isEqualTo(regularValue.hashCode());
+            assertThat(splitValue.toString()).isEqualTo(regularValue.toString());
+        }
+    }
+
+    @Test
+    public void splitInstancesWithoutColdValuesAreSmaller() throws Exception {
+        assumeTrue(AllocationBudget.isSupported());
+        ClassLoader loader = compileWideClass();
+        Constructor<?> regular = constructor(loader, "test.AutoValue_Wide");
+        Constructor<?> split = constructor(loader, "test.AutoValue_Wide$Split");
+        long regularBytes = bytesPerInstance(regular, wideArgs(false));
+        long splitBytes = bytesPerInstance(split, wideArgs(false));
+        long splitWithColdBytes = bytesPerInstance(split, wideArgs(true));
+
+        // 2 hot fields and a reference instead of 10 fields, the side object is only allocated
+        // when a cold property has a value
+        assertThat(splitBytes).isLessThan(regularBytes);
+        assertThat(splitWithColdBytes).isGreaterThan(regularBytes);
+    }
+
+    private static ClassLoader compileWideClass() {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import javax.annotation.Nullable;\n")
+                .append("@AutoValue public abstract class Wide {\n")
+                .append("  @interface Cold {}\n")
+                .append("  public abstract long id();\n")
+                .append("  public abstract String name();\n");
+        for (int i = 0; i < 7; i++) {
+            source.append("  @Cold @Nullable public abstract String cold")
+                    .append(i)
+                    .append("();\n");
+        }
+        source.append("  @Cold public abstract double weight();\n")
+                .append("}\n");
+        return compile(newProcessor(),
+                JavaFileObjects.forSourceString("test.Wide", source.toString()));
+    }
+
+    private static Object[] wideArgs(boolean cold) {
+        Object[] args = new Object[10];
+        args[0] = 1L;
+        args[1] = "name";
+        for (int i = 0; i < 7; i++) {
+            args[2 + i] = cold && i % 2 == 0 ? "cold" + i : null;
+        }
+        args[9] = cold ? 2.5 : 0.0;
+        return args;
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new HotColdSplitExtension()));
+    }
+}
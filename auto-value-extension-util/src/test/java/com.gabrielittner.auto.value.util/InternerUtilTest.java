@@ -0,0 +1,193 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.InterningExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class InternerUtilTest {
+
+    @Test
+    public void genericInterningFactory() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T t();\n"
+                + "  public abstract int a();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.SuppressWarnings;\n"
+                + "import java.lang.ref.ReferenceQueue;\n"
+                + "import java.lang.ref.WeakReference;\n"
+                + "import java.util.concurrent.ConcurrentHashMap;\n"
+                + "import java.util.concurrent.ConcurrentMap;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  private static final ConcurrentMap<InternKey, InternKey> INTERNED =\n"
+                + "      new ConcurrentHashMap<>();\n"
+                + "  private static final ReferenceQueue<Object> INTERNED_QUEUE =\n"
+                + "      new ReferenceQueue<>();\n"
+                + "  AutoValue_Test(T t, int a) {\n"
+                + "    super(t, a);\n"
+                + "  }\n"
+                + "  @SuppressWarnings(\"unchecked\")\n"
+                + "  static <T> Test<T> intern(T t, int a) {\n"
+                + "    Test<T> candidate = new AutoValue_Test<>(t, a);\n"
+                + "    InternKey stale;\n"
+                + "    while ((stale = (InternKey) INTERNED_QUEUE.poll()) != null) {\n"
+                + "      INTERNED.remove(stale);\n"
+                + "    }\n"
+                + "    InternKey key = new InternKey(candidate, INTERNED_QUEUE);\n"
+                + "    while (true) {\n"
+                + "      InternKey existing = INTERNED.putIfAbsent(key, key);\n"
+                + "      if (existing == null) {\n"
+                + "        return candidate;\n"
+                + "      }\n"
+                + "      Object value = existing.get();\n"
+                + "      if (value != null) {\n"
+                + "        return (Test<T>) value;\n"
+                + "      }\n"
+                + "      INTERNED.remove(existing, existing);\n"
+                + "    }\n"
+                + "  }\n"
+                + "  private static final class InternKey extends WeakReference<Object> {\n"
+                + "    private final int hash;\n"
+                + "    InternKey(Object referent, ReferenceQueue<Object> queue) {\n"
+                + "      super(referent, queue);\n"
+                + "      this.hash = referent.hashCode();\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      return hash;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (!(o instanceof InternKey)) {\n"
+                + "        return false;\n"
+                + "      }\n"
+                + "      Object value = get();\n"
+                + "      return value != null && value.equals(((InternKey) o).get());\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(new AutoValueProcessor(
+                        Collections.singletonList(new InterningExtension())))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void deduplicatesEqualInstances() throws Exception {
+        Method create = currencyFactory();
+
+        Set<Object> instances = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Object[] created = new Object[10000];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = create.invoke(null, new String("C" + (i % 16)), 2);
+            instances.add(created[i]);
+        }
+        assertThat(instances).hasSize(16);
+        assertThat(create.invoke(null, "C3", 2)).isSameInstanceAs(created[3]);
+        assertThat(create.invoke(null, "C3", 3)).isNotSameInstanceAs(created[3]);
+    }
+
+    @Test
+    public void removesCollectedInstances() throws Exception {
+        Method create = currencyFactory();
+        Field interned = create.getDeclaringClass().getClassLoader()
+                .loadClass("test.AutoValue_Currency")
+                .getDeclaredField("INTERNED");
+        interned.setAccessible(true);
+        Map<?, ?> table = (Map<?, ?>) interned.get(null);
+
+        Object kept = create.invoke(null, "KEPT", 2);
+        for (int i = 0; i < 1000; i++) {
+            create.invoke(null, "C" + i, 2);
+        }
+        assertThat(table.size()).isGreaterThan(1);
+
+        // cleared keys are only removed by the next call of the factory, give the collector a
+        // bounded number of chances to clear and enqueue them
+        for (int i = 0; i < 100 && table.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            assertThat(create.invoke(null, "KEPT", 2)).isSameInstanceAs(kept);
+        }
+        assertThat(table).hasSize(1);
+    }
+
+    @Test
+    public void propertiesNamedLikeLocals() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Tag", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Tag {\n"
+                + "  public abstract String key();\n"
+                + "  public abstract String value();\n"
+                + "  public abstract int candidate();\n"
+                + "  public static Tag create(String key, String value, int candidate) {\n"
+                + "    return AutoValue_Tag.intern(key, value, candidate);\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new InterningExtension())))
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        Method create = new CompilationClassLoader(compilation).loadClass("test.Tag")
+                .getMethod("create", String.class, String.class, int.class);
+        Object tag = create.invoke(null, "k", "v", 1);
+        assertThat(tag.toString()).isEqualTo("Tag{key=k, value=v, candidate=1}");
+        assertThat(create.invoke(null, new String("k"), new String("v"), 1))
+                .isSameInstanceAs(tag);
+    }
+
+    private static Method currencyFactory() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Currency", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Currency {\n"
+                + "  public abstract String code();\n"
+                + "  public abstract int digits();\n"
+                + "  public static Currency create(String code, int digits) {\n"
+                + "    return AutoValue_Currency.intern(code, digits);\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(new AutoValueProcessor(
+                        Collections.singletonList(new InterningExtension())))
+                .compile(source);
+        assertThat(compilation).succeeded();
+
+        Class<?> currency = new CompilationClassLoader(compilation).loadClass("test.Currency");
+        return currency.getMethod("create", String.class, int.class);
+    }
+}
@@ -0,0 +1,358 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.MemoizedExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.common.collect.ImmutableMap;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class MemoizedMethodsTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    private static final JavaFileObject MEMOIZED = JavaFileObjects.forSourceString("test.Memoized",
+            ""
+            + "package test;\n"
+            + "public @interface Memoized {}\n");
+
+    private static final ImmutableMap<String, String> STRESS_METHODS = ImmutableMap.of(
+            "square", "long square()",
+            "text", "String text()",
+            "nothing", "@Nullable String nothing()");
+    private static final ImmutableMap<String, String> STRESS_RESULTS = ImmutableMap.of(
+            "square", "(long) a() * a()",
+            "text", "String.valueOf(a())",
+            "nothing", "null");
+
+    @Test
+    public void doubleChecked() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Memoized long square() { return (long) a() * a(); }\n"
+                + "  @Memoized String text() { return String.valueOf(a()); }\n"
+                + "  @Memoized @Nullable String nothing() { return null; }\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private static final Object MEMOIZED_UNSET = new Object();\n"
+                + "  private transient long square;\n"
+                + "  private transient volatile boolean square$Memoized;\n"
+                + "  private transient volatile String text;\n"
+                + "  private transient volatile Object nothing = MEMOIZED_UNSET;\n"
+                + "  AutoValue_Test(int a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  long square() {\n"
+                + "    if (!square$Memoized) {\n"
+                + "      synchronized (this) {\n"
+                + "        if (!square$Memoized) {\n"
+                + "          square = super.square();\n"
+                + "          square$Memoized = true;\n"
+                + "        }\n"
+                + "      }\n"
+                + "    }\n"
+                + "    return square;\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  String text() {\n"
+                + "    String result = text;\n"
+                + "    if (result == null) {\n"
+                + "      synchronized (this) {\n"
+                + "        result = text;\n"
+                + "        if (result == null) {\n"
+                + "          result = super.text();\n"
+                + "          if (result == null) {\n"
+                + "            throw new NullPointerException(\"text() cannot return null\");\n"
+                + "          }\n"
+                + "          text = result;\n"
+                + "        }\n"
+                + "      }\n"
+                + "    }\n"
+                + "    return result;\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  String nothing() {\n"
+                + "    Object result = nothing;\n"
+                + "    if (result == MEMOIZED_UNSET) {\n"
+                + "      synchronized (this) {\n"
+                + "        result = nothing;\n"
+                + "        if (result == MEMOIZED_UNSET) {\n"
+                + "          result = super.nothing();\n"
+                + "          nothing = result;\n"
+                + "        }\n"
+                + "      }\n"
+                + "    }\n"
+                + "    return (String) result;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(MEMOIZED, source))
+                .processedWith(newProcessor(Memoization.DOUBLE_CHECKED))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void racySingleCheck() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Memoized public int twice() { return a() * 2; }\n"
+                + "  @Memoized public double half() { return a() / 2.0; }\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  private transient int twice;\n"
+                + "  private transient volatile double half;\n"
+                + "  AutoValue_Test(int a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public int twice() {\n"
+                + "    int result = twice;\n"
+                + "    if (result == 0) {\n"
+                + "      result = super.twice();\n"
+                + "      twice = result;\n"
+                + "    }\n"
+                + "    return result;\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public double half() {\n"
+                + "    double result = half;\n"
+                + "    if (result == 0) {\n"
+                + "      result = super.half();\n"
+                + "      half = result;\n"
+                + "    }\n"
+                + "    return result;\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(MEMOIZED, source))
+                .processedWith(newProcessor(Memoization.RACY_SINGLE_CHECK))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void racySingleCheckRequiresPrimitive() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Memoized String text() { return String.valueOf(a()); }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(MEMOIZED, source))
+                .processedWith(newProcessor(Memoization.RACY_SINGLE_CHECK))
+                .failsToCompile()
+                .withErrorContaining(
+                        "RACY_SINGLE_CHECK can only be used for methods returning a primitive")
+                .in(source).onLine(5);
+    }
+
+    @Test
+    public void holderGeneric() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.Collections;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T a();\n"
+                + "  @Memoized List<T> list() { return Collections.singletonList(a()); }\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Override;\n"
+                + "import java.util.List;\n"
+                + "final class AutoValue_Test<T> extends $AutoValue_Test<T> {\n"
+                + "  private transient ListHolder<T> list;\n"
+                + "  AutoValue_Test(T a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  List<T> list() {\n"
+                + "    ListHolder<T> holder = list;\n"
+                + "    if (holder == null) {\n"
+                + "      List<T> result = super.list();\n"
+                + "      if (result == null) {\n"
+                + "        throw new NullPointerException(\"list() cannot return null\");\n"
+                + "      }\n"
+                + "      holder = new ListHolder<T>(result);\n"
+                + "      list = holder;\n"
+                + "    }\n"
+                + "    return holder.value;\n"
+                + "  }\n"
+                + "  private static final class ListHolder<T> {\n"
+                + "    final List<T> value;\n"
+                + "    ListHolder(List<T> value) {\n"
+                + "      this.value = value;\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Arrays.asList(MEMOIZED, source))
+                .processedWith(newProcessor(Memoization.HOLDER))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void doubleCheckedComputesOnceUnderContention() throws Exception {
+        for (String method : new String[] { "square", "text", "nothing" }) {
+            assertThat(runConcurrently(Memoization.DOUBLE_CHECKED, method)).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void racySingleCheckIsConsistentUnderContention() throws Exception {
+        int computations = runConcurrently(Memoization.RACY_SINGLE_CHECK, "square");
+        assertThat(computations).isAtLeast(1);
+        assertThat(computations).isAtMost(THREADS);
+    }
+
+    @Test
+    public void holderIsConsistentUnderContention() throws Exception {
+        for (String method : new String[] { "square", "text", "nothing" }) {
+            int computations = runConcurrently(Memoization.HOLDER, method);
+            assertThat(computations).isAtLeast(1);
+            assertThat(computations).isAtMost(THREADS);
+        }
+    }
+
+    /**
+     * Calls {@code method} from {@link #THREADS} threads that start at the same time on
+     * {@link #ROUNDS} fresh instances each and returns the highest number of times the super
+     * implementation ran for a single instance. Fails if any thread saw an unexpected result.
+     */
+    private int runConcurrently(Memoization memoization, final String methodName)
+            throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Stress", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.concurrent.atomic.AtomicInteger;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Stress {\n"
+                + "  final AtomicInteger calls = new AtomicInteger();\n"
+                + "  public abstract int a();\n"
+                + "  @Memoized " + STRESS_METHODS.get(methodName) + " {\n"
+                + "    calls.incrementAndGet();\n"
+                + "    Thread.yield();\n"
+                + "    return " + STRESS_RESULTS.get(methodName) + ";\n"
+                + "  }\n"
+                + "}\n");
+        Compilation compilation = javac()
+                .withProcessors(newProcessor(memoization))
+                .compile(MEMOIZED, source);
+        assertThat(compilation).succeeded();
+
+        ClassLoader loader = new CompilationClassLoader(compilation);
+        Class<?> abstractClass = loader.loadClass("test.Stress");
+        Constructor<?> constructor =
+                loader.loadClass("test.AutoValue_Stress").getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        final Method method = abstractClass.getDeclaredMethod(methodName);
+        method.setAccessible(true);
+        Field callsField = abstractClass.getDeclaredField("calls");
+        callsField.setAccessible(true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        int maxCalls = 0;
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                final Object value = constructor.newInstance(round + 1);
+                final Object expected = expectedResult(methodName, round + 1);
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    results.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            start.await();
+                            boolean consistent = true;
+                            for (int j = 0; j < 10; j++) {
+                                Object result = method.invoke(value);
+                                consistent &= expected == null
+                                        ? result == null : expected.equals(result);
+                            }
+                            return consistent;
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<Boolean> result : results) {
+                    assertThat(result.get()).isTrue();
+                }
+                int calls = ((AtomicInteger) callsField.get(value)).get();
+                maxCalls = Math.max(maxCalls, calls);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return maxCalls;
+    }
+
+    private static Object expectedResult(String methodName, int a) {
+        switch (methodName) {
+            case "square":
+                return (long) a * a;
+            case "text":
+                return String.valueOf(a);
+            default:
+                return null;
+        }
+    }
+
+    private AutoValueProcessor newProcessor(Memoization memoization) {
+        return new AutoValueProcessor(
+                Collections.singletonList(new MemoizedExtension(memoization)));
+    }
+}
@@ -0,0 +1,270 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ContextExtension;
+import com.gabrielittner.auto.value.util.extensions.MethodSizeExtension;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.auto.value.extension.AutoValueExtension.Context;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.TypeSpec;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+public class MethodSizeUtilTest {
+
+    private static final int PROPERTIES = 70;
+
+    @Test
+    public void estimateBytecodeSize() {
+        MethodSpec empty = MethodSpec.methodBuilder("empty").addModifiers(ABSTRACT).build();
+        MethodSpec run = MethodSpec.methodBuilder("run").addStatement("a()").build();
+        MethodSpec constant = MethodSpec.methodBuilder("constant")
+                .returns(int.class)
+                .addStatement("return 1")
+                .build();
+        MethodSpec sum = MethodSpec.methodBuilder("sum")
+                .returns(int.class)
+                .addParameter(int.class, "a")
+                .addParameter(int.class, "b")
+                .addStatement("return a + b")
+                .build();
+
+        assertThat(MethodSizeUtil.estimateBytecodeSize(empty)).isEqualTo(0);
+        assertThat(MethodSizeUtil.estimateBytecodeSize(run)).isEqualTo(4);
+        assertThat(MethodSizeUtil.estimateBytecodeSize(constant)).isEqualTo(3);
+        assertThat(MethodSizeUtil.estimateBytecodeSize(sum)).isEqualTo(6);
+    }
+
+    @Test
+    public void smallClassIsNotSplit() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "}\n");
+
+        Compilation compilation = compile(new MethodSizeExtension(), source);
+
+        assertThat(compilation).succeeded();
+        assertThat(splitNotes(compilation)).isEmpty();
+        assertThat(generatedSource(compilation)).doesNotContain("$1(");
+    }
+
+    @Test
+    public void wideClassIsSplit() throws Exception {
+        Compilation compilation = compile(new MethodSizeExtension(), wideSource());
+
+        assertThat(compilation).succeeded();
+        List<String> notes = splitNotes(compilation);
+        assertThat(notes).hasSize(6);
+        assertThat(notes.get(0)).startsWith("Split equals() with an estimated ");
+        assertThat(notes.get(0)).endsWith(" to stay below 325 bytes");
+        assertThat(notes.get(1)).startsWith("Split hashCode() ");
+        assertThat(notes.get(2)).startsWith("Split appendTo() ");
+        assertThat(notes.get(3)).startsWith("Split equals() ");
+        assertThat(notes.get(4)).startsWith("Split hashCode() ");
+        assertThat(notes.get(5)).startsWith("Split toString() ");
+        String generated = generatedSource(compilation);
+        assertThat(generated).contains("private boolean equals$1(Test that)");
+        assertThat(generated).contains("private int hashCode$1(int h$)");
+        assertThat(generated).contains("private StringBuilder appendTo$1(StringBuilder builder)");
+        assertThat(generated).contains("    private StringBuilder toString$1(");
+        // helpers keep JavaPoet's imports
+        assertThat(generated).contains("import java.util.Arrays;");
+        assertThat(generated).doesNotContain("java.util.Arrays.");
+    }
+
+    @Test
+    public void splitMethodsBehaveLikeOriginals() throws Exception {
+        Compilation split = compile(new MethodSizeExtension(), wideSource());
+        Compilation original = compile(new MethodSizeExtension(false), wideSource());
+        assertThat(split).succeeded();
+        assertThat(original).succeeded();
+        assertThat(splitNotes(original)).isEmpty();
+        Constructor<?> originalConstructor =
+                constructor(new CompilationClassLoader(original), "test.AutoValue_Test");
+        ClassLoader splitLoader = new CompilationClassLoader(split);
+
+        for (Constructor<?> constructor : new Constructor<?>[] {
+                constructor(splitLoader, "test.AutoValue_Test"),
+                constructor(splitLoader, "test.AutoValue_Test$Sparse")}) {
+            Object value = constructor.newInstance(arguments(-1));
+            Object expected = originalConstructor.newInstance(arguments(-1));
+            assertThat(value.hashCode()).isEqualTo(expected.hashCode());
+            assertThat(value.toString()).isEqualTo(expected.toString());
+            assertThat(value.equals(constructor.newInstance(arguments(-1)))).isTrue();
+            assertThat(value.equals(constructor.newInstance(arguments(0)))).isFalse();
+            assertThat(value.equals(constructor.newInstance(arguments(PROPERTIES - 1))))
+                    .isFalse();
+        }
+    }
+
+    @Test
+    public void splitMethodsFitInliningLimit() throws Exception {
+        final List<TypeSpec.Builder> builders = new ArrayList<>();
+        ContextExtension extension = new ContextExtension(new ContextExtension.Callback() {
+            @Override
+            public void onContext(Context context) {
+                List<Property> properties = Property.buildProperties(context);
+                TypeSpec.Builder builder = TypeSpec.classBuilder("Values");
+                EqualsHashCodeUtil.addEqualsMethod(context, builder, properties);
+                EqualsHashCodeUtil.addHashCodeMethod(context, builder, properties);
+                ToStringUtil.addToString(context, builder, properties, false);
+                builders.add(builder);
+            }
+        });
+
+        assertThat(compile(extension, wideSource())).succeeded();
+        List<MethodSpec> methods = builders.get(0).methodSpecs;
+        assertThat(methods.size()).isGreaterThan(6);
+        for (MethodSpec method : methods) {
+            assertThat(MethodSizeUtil.estimateBytecodeSize(method))
+                    .isAtMost(MethodSizeUtil.FREQ_INLINE_SIZE);
+        }
+    }
+
+    @Test
+    public void oversizedMethodsAreReportedButNotChanged() throws Exception {
+        final List<TypeSpec.Builder> builders = new ArrayList<>();
+        final List<MethodSpec> originals = new ArrayList<>();
+        ContextExtension extension = new ContextExtension(new ContextExtension.Callback() {
+            @Override
+            public void onContext(Context context) {
+                // shapes that can't be split between statements, several variables in one
+                // declaration and statements that rely on their catch block
+                MethodSpec.Builder fill = MethodSpec.methodBuilder("fill")
+                        .addModifiers(PUBLIC, STATIC)
+                        .addParameter(int[].class, "values")
+                        .addStatement("int a = 1, b = 2")
+                        .beginControlFlow("try");
+                for (int i = 0; i < 1000; i++) {
+                    fill.addStatement("values[$1L] = $1L * a + b", i);
+                }
+                fill.nextControlFlow("catch ($T e)", ArrayIndexOutOfBoundsException.class)
+                        .addStatement("return")
+                        .endControlFlow();
+                MethodSpec small = MethodSpec.methodBuilder("small").addStatement("a()").build();
+                originals.add(fill.build());
+                originals.add(small);
+                TypeSpec.Builder builder = TypeSpec.classBuilder("Helper")
+                        .addMethods(originals)
+                        .addType(TypeSpec.classBuilder("Nested")
+                                .addMethods(originals)
+                                .build());
+
+                MethodSizeUtil.checkMethodSizes(context, builder);
+
+                builders.add(builder);
+            }
+        });
+        Compilation compilation = compile(extension, JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "}\n"));
+
+        assertThat(compilation).succeeded();
+        List<String> warnings = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> warning : compilation.warnings()) {
+            warnings.add(warning.getMessage(Locale.ROOT));
+        }
+        assertThat(warnings).hasSize(2);
+        assertThat(warnings.get(0)).startsWith("fill() has an estimated ");
+        assertThat(warnings.get(0)).endsWith(" methods larger than 8000 bytes are not compiled "
+                + "by HotSpot");
+        assertThat(warnings.get(1)).startsWith("Nested.fill() has an estimated ");
+        assertThat(builders.get(0).methodSpecs).isEqualTo(originals);
+        assertThat(builders.get(0).typeSpecs.get(0).methodSpecs).isEqualTo(originals);
+    }
+
+    // cycles through primitive, nullable, array and boolean properties
+    private static JavaFileObject wideSource() {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import javax.annotation.Nullable;\n")
+                .append("@SuppressWarnings(\"mutable\")\n")
+                .append("@AutoValue public abstract class Test {\n");
+        String[] types = {"int", "String", "@Nullable String", "double", "long", "int[]",
+                "boolean"};
+        for (int i = 0; i < PROPERTIES; i++) {
+            source.append("  public abstract ").append(types[i % types.length])
+                    .append(" p").append(i).append("();\n");
+        }
+        return JavaFileObjects.forSourceString("test.Test", source.append("}\n").toString());
+    }
+
+    // the arguments for the constructors of wideSource(), the one at index changed is different
+    private static Object[] arguments(int changed) {
+        Object[] arguments = new Object[PROPERTIES];
+        for (int i = 0; i < PROPERTIES; i++) {
+            int value = i == changed ? i + 1000 : i;
+            switch (i % 7) {
+                case 0:
+                    arguments[i] = value;
+                    break;
+                case 1:
+                    arguments[i] = "s" + value;
+                    break;
+                case 2:
+                    arguments[i] = value % 3 == 0 ? null : "n" + value;
+                    break;
+                case 3:
+                    arguments[i] = value + 0.5;
+                    break;
+                case 4:
+                    arguments[i] = (long) value;
+                    break;
+                case 5:
+                    arguments[i] = new int[] {value};
+                    break;
+                default:
+                    arguments[i] = i == changed;
+                    break;
+            }
+        }
+        return arguments;
+    }
+
+    private static Compilation compile(AutoValueExtension extension, JavaFileObject source) {
+        return javac()
+                .withProcessors(new AutoValueProcessor(Collections.singletonList(extension)))
+                .compile(source);
+    }
+
+    private static List<String> splitNotes(Compilation compilation) {
+        List<String> notes = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> note : compilation.notes()) {
+            String message = note.getMessage(Locale.ROOT);
+            if (message.startsWith("Split ")) {
+                notes.add(message);
+            }
+        }
+        return notes;
+    }
+
+    private static String generatedSource(Compilation compilation) throws Exception {
+        return compilation.generatedSourceFile("test.AutoValue_Test").get()
+                .getCharContent(true).toString();
+    }
+}
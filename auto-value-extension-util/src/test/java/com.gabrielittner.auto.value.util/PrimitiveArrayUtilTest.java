@@ -0,0 +1,325 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.PrimitiveArrayExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.newInstance;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assert.fail;
+
+public class PrimitiveArrayUtilTest {
+
+    @Test
+    public void primitiveArrayClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract List<Integer> a();\n"
+                + "  public abstract String b();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Integer;\n"
+                + "import java.lang.NullPointerException;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "import java.util.AbstractList;\n"
+                + "import java.util.Collection;\n"
+                + "import java.util.List;\n"
+                + "import java.util.RandomAccess;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(List<Integer> a, String b) {\n"
+                + "    super(a, b);\n"
+                + "  }\n"
+                + "  static final class Primitive extends Test {\n"
+                + "    private final int[] a;\n"
+                + "    private transient List<Integer> aView;\n"
+                + "    private final String b;\n"
+                + "    Primitive(List<Integer> a, String b) {\n"
+                + "      if (a == null) {\n"
+                + "        throw new NullPointerException(\"Null a\");\n"
+                + "      }\n"
+                + "      if (b == null) {\n"
+                + "        throw new NullPointerException(\"Null b\");\n"
+                + "      }\n"
+                + "      this.a = toIntArray(a);\n"
+                + "      this.b = b;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public List<Integer> a() {\n"
+                + "      List<Integer> view = aView;\n"
+                + "      if (view == null) {\n"
+                + "        view = new IntList(a);\n"
+                + "        aView = view;\n"
+                + "      }\n"
+                + "      return view;\n"
+                + "    }\n"
+                + "    public int[] aAsIntArray() {\n"
+                + "      return a.clone();\n"
+                + "    }\n"
+                + "    public int aSize() {\n"
+                + "      return a.length;\n"
+                + "    }\n"
+                + "    public int aIntAt(int index) {\n"
+                + "      return a[index];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String b() {\n"
+                + "      return b;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return this.b().equals(that.b())\n"
+                + "            && this.a().equals(that.a());\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h$ = 1;\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= a().hashCode();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= b().hashCode();\n"
+                + "      return h$;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return new StringBuilder(46)\n"
+                + "          .append(\"Test{a=\").append(a())\n"
+                + "          .append(\", b=\").append(b())\n"
+                + "          .append('}')\n"
+                + "          .toString();\n"
+                + "    }\n"
+                + "    private static int[] toIntArray(Collection<Integer> values) {\n"
+                + "      int[] array = new int[values.size()];\n"
+                + "      int i = 0;\n"
+                + "      for (Integer value : values) {\n"
+                + "        if (value == null) {\n"
+                + "          throw new NullPointerException(\"Null element\");\n"
+                + "        }\n"
+                + "        array[i++] = value;\n"
+                + "      }\n"
+                + "      return array;\n"
+                + "    }\n"
+                + "    private static final class IntList extends AbstractList<Integer>"
+                + " implements RandomAccess {\n"
+                + "      private final int[] values;\n"
+                + "      IntList(int[] values) {\n"
+                + "        this.values = values;\n"
+                + "      }\n"
+                + "      @Override\n"
+                + "      public Integer get(int index) {\n"
+                + "        return values[index];\n"
+                + "      }\n"
+                + "      @Override\n"
+                + "      public int size() {\n"
+                + "        return values.length;\n"
+                + "      }\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void instancesMatchAutoValueInstances() throws Exception {
+        ClassLoader loader = compileTestClass();
+        Object[] args = {Arrays.asList(3, 1, 2), newSet(30L, 10L, 20L), Arrays.asList(0.5, 1.5)};
+        Object regularValue = newInstance(constructor(loader, "test.AutoValue_Test"), args);
+        Object primitiveValue =
+                newInstance(constructor(loader, "test.AutoValue_Test$Primitive"), args);
+
+        assertThat(primitiveValue).isEqualTo(regularValue);
+        assertThat(regularValue).isEqualTo(primitiveValue);
+        assertThat(primitiveValue.hashCode()).isEqualTo(regularValue.hashCode());
+
+        List<Integer> a = (List<Integer>) call(primitiveValue, "a");
+        assertThat(a).containsExactly(3, 1, 2).inOrder();
+        assertThat(call(primitiveValue, "a")).isSameInstanceAs(a);
+        try {
+            a.set(0, 4);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        // sets are stored sorted
+        Set<Long> b = (Set<Long>) call(primitiveValue, "b");
+        assertThat(b).containsExactly(10L, 20L, 30L).inOrder();
+        assertThat(b.contains(20L)).isTrue();
+        assertThat(b.contains(25L)).isFalse();
+        assertThat(b.contains("20")).isFalse();
+        assertThat((List<Double>) call(primitiveValue, "c")).containsExactly(0.5, 1.5).inOrder();
+    }
+
+    @Test
+    public void arrayAccessorsReturnCopies() throws Exception {
+        Object value = newInstance(primitiveConstructor(),
+                new Object[] {Arrays.asList(3, 1, 2), null, Collections.<Double>emptyList()});
+
+        int[] a = (int[]) call(value, "aAsIntArray");
+        assertThat(a).isEqualTo(new int[] {3, 1, 2});
+        a[0] = 4;
+        assertThat(call(value, "aAsIntArray")).isEqualTo(new int[] {3, 1, 2});
+        assertThat(call(value, "b")).isNull();
+        assertThat(call(value, "bAsLongArray")).isNull();
+        assertThat(call(value, "cAsDoubleArray")).isEqualTo(new double[0]);
+    }
+
+    @Test
+    public void elementAccessorsReadArraysDirectly() throws Exception {
+        Object value = newInstance(primitiveConstructor(),
+                new Object[] {Arrays.asList(3, 1, 2), newSet(7L, 5L), Arrays.asList(0.5)});
+
+        assertThat(call(value, "aSize")).isEqualTo(3);
+        assertThat(call(value, "aIntAt", 0)).isEqualTo(3);
+        assertThat(call(value, "aIntAt", 2)).isEqualTo(2);
+        // sets are stored sorted
+        assertThat(call(value, "bSize")).isEqualTo(2);
+        assertThat(call(value, "bLongAt", 0)).isEqualTo(5L);
+        assertThat(call(value, "bLongAt", 1)).isEqualTo(7L);
+        assertThat(call(value, "cSize")).isEqualTo(1);
+        assertThat(call(value, "cDoubleAt", 0)).isEqualTo(0.5);
+        try {
+            call(value, "aIntAt", 3);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void nullElements() throws Exception {
+        try {
+            newInstance(primitiveConstructor(),
+                    new Object[] {Arrays.asList(1, null), null, Collections.emptyList()});
+            fail();
+        } catch (NullPointerException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Null element");
+        }
+    }
+
+    @Test
+    public void propertiesNamedLikeGeneratedVariables() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Clash", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Clash {\n"
+                + "  public abstract List<Integer> view();\n"
+                + "  public abstract List<Long> index();\n"
+                + "}\n");
+        ClassLoader loader = compile(newProcessor(), source);
+
+        Object value = newInstance(constructor(loader, "test.AutoValue_Clash$Primitive"),
+                Arrays.asList(3, 1, 2), Arrays.asList(5L, 6L));
+        assertThat(call(value, "view")).isEqualTo(Arrays.asList(3, 1, 2));
+        assertThat(call(value, "viewIntAt", 1)).isEqualTo(1);
+        assertThat(call(value, "index")).isEqualTo(Arrays.asList(5L, 6L));
+        assertThat(call(value, "indexLongAt", 1)).isEqualTo(6L);
+    }
+
+    @Test
+    public void abstractMethodsThatArentPropertiesAreRejected() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Item", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "@AutoValue public abstract class Item {\n"
+                + "  public abstract List<Integer> a();\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder a(List<Integer> a);\n"
+                + "    public abstract Item build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+
+        assertThat(compilation).hadErrorCount(1);
+        assertThat(compilation).hadErrorContaining("Can't generate Primitive because it can't "
+                + "implement the abstract method toBuilder()");
+    }
+
+    private static ClassLoader compileTestClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.Set;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract List<Integer> a();\n"
+                + "  @Nullable public abstract Set<Long> b();\n"
+                + "  public abstract List<Double> c();\n"
+                + "}\n");
+        return compile(newProcessor(), source);
+    }
+
+    private static Constructor<?> primitiveConstructor() throws Exception {
+        return constructor(compileTestClass(), "test.AutoValue_Test$Primitive");
+    }
+
+    private static Set<Long> newSet(Long... values) {
+        return new LinkedHashSet<>(Arrays.asList(values));
+    }
+
+    private static Object call(Object value, String name) throws Exception {
+        Method method = value.getClass().getMethod(name);
+        method.setAccessible(true);
+        return method.invoke(value);
+    }
+
+    private static Object call(Object value, String name, int index) throws Exception {
+        Method method = value.getClass().getMethod(name, int.class);
+        method.setAccessible(true);
+        try {
+            return method.invoke(value, index);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new PrimitiveArrayExtension()));
+    }
+}
@@ -0,0 +1,108 @@
+package com.gabrielittner.auto.value.util;
+
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class SourceRendererTest {
+
+    @Test
+    public void rendersLikeJavaFile() {
+        TypeSpec typeSpec = newTypeSpec("Test", "1");
+
+        String source = SourceRenderer.join(SourceRenderer.shared().submit("test", typeSpec));
+
+        assertThat(source).isEqualTo(JavaFile.builder("test", typeSpec).build().toString());
+    }
+
+    @Test
+    public void rendersOnBackgroundThread() {
+        RecordingLiteral literal = new RecordingLiteral(null);
+
+        SourceRenderer.join(new SourceRenderer(1).submit("test", newTypeSpec("Test", literal)));
+
+        assertThat(literal.thread).startsWith("source-renderer-");
+    }
+
+    @Test
+    public void rendersOnCallingThreadWhenSaturated() throws Exception {
+        SourceRenderer renderer = new SourceRenderer(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLiteral blocking = new RecordingLiteral(release);
+        List<Future<String>> sources = new ArrayList<>();
+        sources.add(renderer.submit("test", newTypeSpec("Blocking", blocking)));
+        while (blocking.thread == null) {
+            Thread.sleep(1);
+        }
+        // fill the queue of the single thread
+        for (int i = 0; i < 4; i++) {
+            sources.add(renderer.submit("test", newTypeSpec("Queued" + i, "1")));
+        }
+
+        RecordingLiteral overflow = new RecordingLiteral(null);
+        Future<String> source = renderer.submit("test", newTypeSpec("Overflow", overflow));
+
+        assertThat(overflow.thread).isEqualTo(Thread.currentThread().getName());
+        assertThat(source.isDone()).isTrue();
+        release.countDown();
+        for (Future<String> queued : sources) {
+            assertThat(SourceRenderer.join(queued)).contains("class ");
+        }
+    }
+
+    @Test
+    public void rethrowsRenderingFailures() {
+        final IllegalStateException failure = new IllegalStateException("broken");
+        Object literal = new Object() {
+            @Override
+            public String toString() {
+                throw failure;
+            }
+        };
+        Future<String> source = new SourceRenderer(1).submit("test", newTypeSpec("Test", literal));
+        try {
+            SourceRenderer.join(source);
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e).isSameInstanceAs(failure);
+        }
+    }
+
+    private static TypeSpec newTypeSpec(String name, Object literal) {
+        return TypeSpec.classBuilder(name)
+                .addField(FieldSpec.builder(int.class, "a")
+                        .initializer("$L", literal)
+                        .build())
+                .build();
+    }
+
+    private static final class RecordingLiteral {
+        private final CountDownLatch release;
+        volatile String thread;
+
+        RecordingLiteral(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public String toString() {
+            thread = Thread.currentThread().getName();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return "1";
+        }
+    }
+}
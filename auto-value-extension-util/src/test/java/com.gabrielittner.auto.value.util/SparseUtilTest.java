@@ -0,0 +1,235 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.SparseExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.bytesPerInstance;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+import static org.junit.Assume.assumeTrue;
+
+public class SparseUtilTest {
+
+    private static final int PROPERTIES = 50;
+
+    @Test
+    public void sparseClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  @Nullable public abstract String b();\n"
+                + "  @Nullable public abstract Long c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.Object;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, String b, Long c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  static final class Sparse extends Test {\n"
+                + "    private static final Object[] EMPTY = {};\n"
+                + "    private final long present;\n"
+                + "    private final Object[] values;\n"
+                + "    private final int a;\n"
+                + "    Sparse(int a, String b, Long c) {\n"
+                + "      long present = 0L;\n"
+                + "      if (b != null) {\n"
+                + "        present |= 0x1L;\n"
+                + "      }\n"
+                + "      if (c != null) {\n"
+                + "        present |= 0x2L;\n"
+                + "      }\n"
+                + "      Object[] values = present == 0L"
+                + " ? EMPTY : new Object[Long.bitCount(present)];\n"
+                + "      int i = 0;\n"
+                + "      if (b != null) {\n"
+                + "        values[i++] = b;\n"
+                + "      }\n"
+                + "      if (c != null) {\n"
+                + "        values[i++] = c;\n"
+                + "      }\n"
+                + "      this.present = present;\n"
+                + "      this.values = values;\n"
+                + "      this.a = a;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int a() {\n"
+                + "      return a;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String b() {\n"
+                + "      return (present & 0x1L) == 0 ? null : (String) values[0];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public Long c() {\n"
+                + "      return (present & 0x2L) == 0\n"
+                + "          ? null\n"
+                + "          : (Long) values[Long.bitCount(present & 0x1L)];\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public boolean equals(Object o) {\n"
+                + "      if (o == this) {\n"
+                + "        return true;\n"
+                + "      }\n"
+                + "      if (o instanceof Test) {\n"
+                + "        Test that = (Test) o;\n"
+                + "        return this.a() == that.a()\n"
+                + "            && (this.b() == null"
+                + " ? that.b() == null : this.b().equals(that.b()))\n"
+                + "            && (this.c() == null"
+                + " ? that.c() == null : this.c().equals(that.c()));\n"
+                + "      }\n"
+                + "      return false;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public int hashCode() {\n"
+                + "      int h$ = 1;\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= a();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= (b() == null) ? 0 : b().hashCode();\n"
+                + "      h$ *= 1000003;\n"
+                + "      h$ ^= (c() == null) ? 0 : c().hashCode();\n"
+                + "      return h$;\n"
+                + "    }\n"
+                + "    @Override\n"
+                + "    public String toString() {\n"
+                + "      return new StringBuilder(65)\n"
+                + "          .append(\"Test{a=\").append(a())\n"
+                + "          .append(\", b=\").append(b())\n"
+                + "          .append(\", c=\").append(c())\n"
+                + "          .append('}')\n"
+                + "          .toString();\n"
+                + "    }\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void tooManyNullableProperties() {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import javax.annotation.Nullable;\n")
+                .append("@AutoValue public abstract class Test {\n");
+        for (int i = 0; i < 65; i++) {
+            source.append("  @Nullable public abstract String p").append(i).append("();\n");
+        }
+        source.append("}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(
+                        JavaFileObjects.forSourceString("test.Test", source.toString())))
+                .processedWith(newProcessor())
+                .failsToCompile()
+                .withErrorContaining("Sparse classes support at most 64 nullable properties");
+    }
+
+    @Test
+    public void abstractMethodsThatArentPropertiesAreRejected() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Item", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Item {\n"
+                + "  @Nullable public abstract String a();\n"
+                + "  public abstract Builder toBuilder();\n"
+                + "  @AutoValue.Builder public abstract static class Builder {\n"
+                + "    public abstract Builder a(String a);\n"
+                + "    public abstract Item build();\n"
+                + "  }\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+
+        assertThat(compilation).hadErrorCount(1);
+        assertThat(compilation).hadErrorContaining(
+                "Can't generate Sparse because it can't implement the abstract method toBuilder()");
+    }
+
+    @Test
+    public void sparseInstancesMatchAutoValueInstances() throws Exception {
+        ClassLoader loader = compileWideClass();
+        Constructor<?> regular = constructor(loader, "test.AutoValue_Wide");
+        Constructor<?> sparse = constructor(loader, "test.AutoValue_Wide$Sparse");
+
+        for (int density : new int[] {1, 3, 10, PROPERTIES + 1}) {
+            Object[] args = wideArgs(density);
+            Object regularValue = regular.newInstance(args);
+            Object sparseValue = sparse.newInstance(args);
+            assertThat(sparseValue).isEqualTo(regularValue);
+            assertThat(regularValue).isEqualTo(sparseValue);
+            assertThat(sparseValue.hashCode()).isEqualTo(regularValue.hashCode());
+            assertThat(sparseValue.toString()).isEqualTo(regularValue.toString());
+        }
+    }
+
+    @Test
+    public void sparseInstancesAreSmaller() throws Exception {
+        assumeTrue(AllocationBudget.isSupported());
+        ClassLoader loader = compileWideClass();
+        Object[] args = wideArgs(10);
+        long regular = bytesPerInstance(constructor(loader, "test.AutoValue_Wide"), args);
+        long sparse = bytesPerInstance(constructor(loader, "test.AutoValue_Wide$Sparse"), args);
+
+        // 5 of 50 references are set, the sparse instance needs a mask, a reference and an
+        // array of 5 references instead of 50 fields
+        assertThat(sparse * 2).isLessThan(regular);
+    }
+
+    private static ClassLoader compileWideClass() {
+        StringBuilder source = new StringBuilder()
+                .append("package test;\n")
+                .append("import com.google.auto.value.AutoValue;\n")
+                .append("import javax.annotation.Nullable;\n")
+                .append("@AutoValue public abstract class Wide {\n");
+        for (int i = 0; i < PROPERTIES; i++) {
+            source.append("  @Nullable public abstract String p").append(i).append("();\n");
+        }
+        source.append("}\n");
+        return compile(newProcessor(),
+                JavaFileObjects.forSourceString("test.Wide", source.toString()));
+    }
+
+    // sets every density-th property
+    private static Object[] wideArgs(int density) {
+        Object[] args = new Object[PROPERTIES];
+        for (int i = 0; i < PROPERTIES; i++) {
+            args[i] = i % density == 0 ? "p" + i : null;
+        }
+        return args;
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new SparseExtension()));
+    }
+}
@@ -0,0 +1,151 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.ToStringExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class ToStringUtilTest {
+
+    @Test
+    public void toStringMethod() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract Long b();\n"
+                + "  public abstract char[] c();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Long;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "import java.util.Arrays;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, Long b, char[] c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public String toString() {\n"
+                + "    return new StringBuilder(113)\n"
+                + "        .append(\"Test{a=\").append(a())\n"
+                + "        .append(\", b=\").append(b())\n"
+                + "        .append(\", c=\").append(Arrays.toString(c()))\n"
+                + "        .append('}')\n"
+                + "        .toString();\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(false))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void appendTo() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract String a();\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "import java.lang.StringBuilder;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(String a) {\n"
+                + "    super(a);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public String toString() {\n"
+                + "    return appendTo(new StringBuilder(26)).toString();\n"
+                + "  }\n"
+                + "  public StringBuilder appendTo(StringBuilder builder) {\n"
+                + "    return builder\n"
+                + "        .append(\"Test{a=\").append(a())\n"
+                + "        .append('}');\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor(true))
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void matchesAutoValueOutput() throws Exception {
+        String source = ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import java.util.List;\n"
+                + "import java.util.concurrent.TimeUnit;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract boolean a();\n"
+                + "  public abstract byte b();\n"
+                + "  public abstract char c();\n"
+                + "  public abstract double d();\n"
+                + "  @Nullable public abstract TimeUnit e();\n"
+                + "  public abstract int[] f();\n"
+                + "  public abstract List<String> g();\n"
+                + "}\n";
+        Object[] args = { true, (byte) -3, 'x', 0.5d, null, new int[] { 1, 2 },
+                Arrays.asList("y", "z") };
+
+        Compilation plain = javac()
+                .withProcessors(new AutoValueProcessor())
+                .compile(JavaFileObjects.forSourceString("test.Test", source));
+        Compilation generated = javac()
+                .withProcessors(newProcessor(true))
+                .compile(JavaFileObjects.forSourceString("test.Test", source));
+        assertThat(plain).succeeded();
+        assertThat(generated).succeeded();
+
+        Object plainValue = newInstance(plain, args);
+        Object generatedValue = newInstance(generated, args);
+        assertThat(generatedValue.toString()).isEqualTo(plainValue.toString());
+
+        Method appendTo = generatedValue.getClass().getDeclaredMethod("appendTo",
+                StringBuilder.class);
+        appendTo.setAccessible(true);
+        StringBuilder builder = new StringBuilder("[");
+        assertThat(appendTo.invoke(generatedValue, builder)).isSameInstanceAs(builder);
+        assertThat(builder.toString()).isEqualTo("[" + plainValue);
+    }
+
+    private static Object newInstance(Compilation compilation, Object[] args) throws Exception {
+        Class<?> cls = new CompilationClassLoader(compilation).loadClass("test.AutoValue_Test");
+        Constructor<?> constructor = cls.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        return constructor.newInstance(args);
+    }
+
+    private AutoValueProcessor newProcessor(boolean appendTo) {
+        return new AutoValueProcessor(Collections.singletonList(new ToStringExtension(appendTo)));
+    }
+}
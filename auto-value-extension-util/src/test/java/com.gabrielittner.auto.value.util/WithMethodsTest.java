@@ -0,0 +1,139 @@
+package com.gabrielittner.auto.value.util;
+
+import com.gabrielittner.auto.value.util.extensions.WithMethodsExtension;
+import com.google.auto.value.processor.AutoValueProcessor;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import javax.tools.JavaFileObject;
+import org.junit.Test;
+
+import static com.gabrielittner.auto.value.util.GeneratedClasses.compile;
+import static com.gabrielittner.auto.value.util.GeneratedClasses.constructor;
+import static com.google.common.truth.Truth.assertAbout;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static com.google.testing.compile.JavaSourcesSubjectFactory.javaSources;
+
+public class WithMethodsTest {
+
+    @Test
+    public void withMethods() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract double b();\n"
+                + "  @Nullable public abstract String c();\n"
+                + "  public abstract Test withA(int a);\n"
+                + "}\n");
+
+        JavaFileObject expected = JavaFileObjects.forSourceString("test/AutoValue_Test", ""
+                + "package test;\n"
+                + "import java.lang.Double;\n"
+                + "import java.lang.Override;\n"
+                + "import java.lang.String;\n"
+                + "final class AutoValue_Test extends $AutoValue_Test {\n"
+                + "  AutoValue_Test(int a, double b, String c) {\n"
+                + "    super(a, b, c);\n"
+                + "  }\n"
+                + "  @Override\n"
+                + "  public Test withA(int a) {\n"
+                + "    if (a == a()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a, b(), c());\n"
+                + "  }\n"
+                + "  public Test withB(double b) {\n"
+                + "    if (Double.doubleToLongBits(b) == Double.doubleToLongBits(b())) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a(), b, c());\n"
+                + "  }\n"
+                + "  public Test withC(String c) {\n"
+                + "    if (c == c()) {\n"
+                + "      return this;\n"
+                + "    }\n"
+                + "    return new AutoValue_Test(a(), b(), c);\n"
+                + "  }\n"
+                + "}\n");
+
+        assertAbout(javaSources())
+                .that(Collections.singletonList(source))
+                .processedWith(newProcessor())
+                .compilesWithoutError()
+                .and()
+                .generatesSources(expected);
+    }
+
+    @Test
+    public void genericClass() {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "@AutoValue public abstract class Test<T> {\n"
+                + "  public abstract T a();\n"
+                + "}\n");
+
+        Compilation compilation = javac()
+                .withProcessors(newProcessor())
+                .compile(source);
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.AutoValue_Test").contentsAsUtf8String()
+                .contains(""
+                        + "  public Test<T> withA(T a) {\n"
+                        + "    if (a == a()) {\n"
+                        + "      return this;\n"
+                        + "    }\n"
+                        + "    return new AutoValue_Test<>(a);\n"
+                        + "  }\n");
+    }
+
+    @Test
+    public void copies() throws Exception {
+        JavaFileObject source = JavaFileObjects.forSourceString("test.Test", ""
+                + "package test;\n"
+                + "import com.google.auto.value.AutoValue;\n"
+                + "import javax.annotation.Nullable;\n"
+                + "@AutoValue public abstract class Test {\n"
+                + "  public abstract int a();\n"
+                + "  public abstract double b();\n"
+                + "  @Nullable public abstract String c();\n"
+                + "}\n");
+        Constructor<?> constructor =
+                constructor(compile(newProcessor(), source), "test.AutoValue_Test");
+        String c = "c";
+        Object value = constructor.newInstance(1, Double.NaN, c);
+
+        assertThat(call(value, "withA", int.class, 1)).isSameInstanceAs(value);
+        assertThat(call(value, "withB", double.class, Double.NaN)).isSameInstanceAs(value);
+        assertThat(call(value, "withC", String.class, c)).isSameInstanceAs(value);
+
+        Object copy = call(value, "withA", int.class, 2);
+        assertThat(copy).isEqualTo(constructor.newInstance(2, Double.NaN, c));
+        assertThat(call(copy, "withA", int.class, 1)).isEqualTo(value);
+        assertThat(call(value, "withC", String.class, null))
+                .isEqualTo(constructor.newInstance(1, Double.NaN, null));
+
+        // 0.0 and -0.0 are different values for the generated equals()
+        Object zero = call(value, "withB", double.class, 0.0);
+        assertThat(call(zero, "withB", double.class, -0.0)).isNotSameInstanceAs(zero);
+        assertThat(call(zero, "withB", double.class, -0.0)).isNotEqualTo(zero);
+    }
+
+    private static Object call(Object target, String name, Class<?> type, Object arg)
+            throws Exception {
+        Method method = target.getClass().getMethod(name, type);
+        method.setAccessible(true);
+        return method.invoke(target, arg);
+    }
+
+    private static AutoValueProcessor newProcessor() {
+        return new AutoValueProcessor(Collections.singletonList(new WithMethodsExtension()));
+    }
+}
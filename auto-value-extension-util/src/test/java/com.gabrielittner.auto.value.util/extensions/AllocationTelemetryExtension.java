@@ -0,0 +1,32 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Collections;
+import java.util.Set;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.ALLOCATION_TELEMETRY_OPTION;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.addAllocationCounter;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class AllocationTelemetryExtension extends AutoValueExtension {
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(ALLOCATION_TELEMETRY_OPTION);
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addAllocationCounter(context, subclass);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
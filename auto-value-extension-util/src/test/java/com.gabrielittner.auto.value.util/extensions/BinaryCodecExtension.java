@@ -0,0 +1,38 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.BinaryCodecUtil.addBinaryCodec;
+import static com.gabrielittner.auto.value.util.BinaryCodecUtil.addLazyDecoding;
+
+public class BinaryCodecExtension extends AutoValueExtension {
+
+    private final boolean lazy;
+
+    public BinaryCodecExtension() {
+        this(false);
+    }
+
+    public BinaryCodecExtension(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addBinaryCodec(context, subclass);
+        if (lazy) {
+            addLazyDecoding(context, subclass, "Lazy");
+        }
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,24 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.BitPackingUtil.addPackedClass;
+
+public class BitPackingExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addPackedClass(context, subclass, "Packed");
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,30 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.BuilderUtil.addBuilder;
+
+public class BuilderExtension extends AutoValueExtension {
+
+    private final boolean recyclable;
+
+    public BuilderExtension(boolean recyclable) {
+        this.recyclable = recyclable;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addBuilder(context, subclass, "Builder", recyclable);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
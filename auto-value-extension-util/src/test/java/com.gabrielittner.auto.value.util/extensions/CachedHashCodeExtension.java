@@ -0,0 +1,30 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.addCachedHashCode;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class CachedHashCodeExtension extends AutoValueExtension {
+
+    private final boolean eager;
+
+    public CachedHashCodeExtension(boolean eager) {
+        this.eager = eager;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addCachedHashCode(subclass, eager);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+/**
+ * Passes the {@link Context} of every processed class to a {@link Callback}, which allows tests
+ * to call util methods inside of a real processing environment.
+ */
+public class ContextExtension extends AbstractExtension {
+
+    public interface Callback {
+        void onContext(Context context);
+    }
+
+    private final Callback callback;
+
+    public ContextExtension(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        callback.onContext(context);
+        return super.generateClass(context, className, classToExtend, isFinal);
+    }
+}
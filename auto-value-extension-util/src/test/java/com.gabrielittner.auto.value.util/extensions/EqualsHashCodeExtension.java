@@ -0,0 +1,30 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.newEqualsMethod;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.newHashCodeMethod;
+
+public class EqualsHashCodeExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeSpec subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal)
+                .addMethod(newEqualsMethod(context, properties))
+                .addMethod(newHashCodeMethod(context, properties))
+                .build();
+        return JavaFile.builder(context.packageName(), subclass).build().toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.ElementUtil;
+import com.gabrielittner.auto.value.util.Memoization;
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.util.ElementFilter;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.addMemoizedMethod;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class MemoizedExtension extends AutoValueExtension {
+
+    private final Memoization memoization;
+
+    public MemoizedExtension(Memoization memoization) {
+        this.memoization = memoization;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        for (ExecutableElement method
+                : ElementFilter.methodsIn(context.autoValueClass().getEnclosedElements())) {
+            if (ElementUtil.hasAnnotationWithName(method, "Memoized")) {
+                Property property = new Property(method.getSimpleName().toString(), method);
+                addMemoizedMethod(context, subclass, property, memoization);
+            }
+        }
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,54 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.addEqualsMethod;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.addHashCodeMethod;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.newEqualsMethod;
+import static com.gabrielittner.auto.value.util.EqualsHashCodeUtil.newHashCodeMethod;
+import static com.gabrielittner.auto.value.util.MethodSizeUtil.checkMethodSizes;
+import static com.gabrielittner.auto.value.util.SparseUtil.addSparseClass;
+import static com.gabrielittner.auto.value.util.ToStringUtil.addToString;
+import static com.gabrielittner.auto.value.util.ToStringUtil.newToStringMethod;
+
+public class MethodSizeExtension extends AutoValueExtension {
+
+    private final boolean split;
+
+    public MethodSizeExtension() {
+        this(true);
+    }
+
+    public MethodSizeExtension(boolean split) {
+        this.split = split;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        ImmutableList<Property> properties = Property.buildProperties(context);
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        if (split) {
+            addEqualsMethod(context, subclass, properties);
+            addHashCodeMethod(context, subclass, properties);
+            addToString(context, subclass, properties, true);
+            addSparseClass(context, subclass, "Sparse");
+        } else {
+            subclass.addMethod(newEqualsMethod(context, properties))
+                    .addMethod(newHashCodeMethod(context, properties))
+                    .addMethod(newToStringMethod(context, properties));
+        }
+        checkMethodSizes(context, subclass);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
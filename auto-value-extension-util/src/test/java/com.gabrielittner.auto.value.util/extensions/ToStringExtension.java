@@ -0,0 +1,31 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.gabrielittner.auto.value.util.Property;
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+import static com.gabrielittner.auto.value.util.ToStringUtil.addToString;
+
+public class ToStringExtension extends AutoValueExtension {
+
+    private final boolean appendTo;
+
+    public ToStringExtension(boolean appendTo) {
+        this.appendTo = appendTo;
+    }
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addToString(context, subclass, Property.buildProperties(context), appendTo);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}
@@ -0,0 +1,39 @@
+package com.gabrielittner.auto.value.util.extensions;
+
+import com.google.auto.value.extension.AutoValueExtension;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.TypeSpec;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import javax.lang.model.element.ExecutableElement;
+
+import static com.gabrielittner.auto.value.util.AutoValueUtil.addWithMethods;
+import static com.gabrielittner.auto.value.util.AutoValueUtil.newTypeSpecBuilder;
+
+public class WithMethodsExtension extends AutoValueExtension {
+
+    @Override
+    public boolean applicable(Context context) {
+        return true;
+    }
+
+    @Override
+    public Set<ExecutableElement> consumeMethods(Context context) {
+        Set<ExecutableElement> methods = new LinkedHashSet<>();
+        for (ExecutableElement method : context.abstractMethods()) {
+            if (method.getSimpleName().toString().startsWith("with")
+                    && method.getParameters().size() == 1) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    @Override
+    public String generateClass(
+            Context context, String className, String classToExtend, boolean isFinal) {
+        TypeSpec.Builder subclass = newTypeSpecBuilder(context, className, classToExtend, isFinal);
+        addWithMethods(context, subclass);
+        return JavaFile.builder(context.packageName(), subclass.build()).build().toString();
+    }
+}